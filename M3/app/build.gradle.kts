@@ -29,6 +29,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // 本地单元测试中android.util.Log等方法返回默认值，命令打包和解析会写日志
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -29,7 +29,6 @@
 package gg.dmr.royz.m3;
 
 import static gg.dmr.royz.m3.utils.ImageConverter.FORMAT_GIF;
-import static gg.dmr.royz.m3.utils.ImageConverter.getFormatType;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
@@ -72,6 +71,7 @@ import gg.dmr.royz.m3.bluetooth.BleManager;
 import gg.dmr.royz.m3.model.DeviceImage;
 import gg.dmr.royz.m3.model.DeviceStatus;
 import gg.dmr.royz.m3.utils.ImageConverter;
+import gg.dmr.royz.m3.utils.ImageSource;
 import gg.dmr.royz.m3.utils.LogUtil;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
@@ -503,17 +503,17 @@ public class MainActivity extends AppCompatActivity implements ImageListAdapter.
     // 处理图片选择
     private void handleImageSelection(Uri imageUri) {
         try {
-            // 获取图片格式类型
-            byte formatType = getFormatType(this, imageUri);
+            // 只打开一次Uri，格式按文件头判断，之后的处理都使用这份数据
+            ImageSource source = ImageSource.open(this, imageUri);
 
             // 如果是 GIF 格式
-            if (formatType == FORMAT_GIF) {
-                showIndexSelectionDialogForGif(imageUri);
+            if (source.getFormat() == FORMAT_GIF) {
+                showIndexSelectionDialogForGif(source);
                 return;
             }
 
             // 非 GIF 格式的处理（PNG和JPG都转换为Bitmap，PNG会自动去除透明度）
-            Bitmap bitmap = ImageConverter.loadImageFromUri(this, imageUri);
+            Bitmap bitmap = ImageConverter.loadImage(source);
             if (bitmap == null) {
                 LogUtil.logError("加载图片失败");
                 Toast.makeText(this, "加载图片失败", Toast.LENGTH_SHORT).show();
@@ -529,7 +529,7 @@ public class MainActivity extends AppCompatActivity implements ImageListAdapter.
     }
 
     // 为GIF文件显示索引选择对话框
-    private void showIndexSelectionDialogForGif(final Uri gifUri) {
+    private void showIndexSelectionDialogForGif(final ImageSource gifSource) {
         // 构建索引列表
         List<DeviceImage> images = viewModel.getImageList().getValue();
         final List<String> options = new ArrayList<>();
@@ -564,7 +564,7 @@ public class MainActivity extends AppCompatActivity implements ImageListAdapter.
                     }
 
                     // 转换并上传GIF文件
-                    viewModel.uploadGifFromUri(gifUri, targetIndex);
+                    viewModel.uploadGif(gifSource, targetIndex);
                 })
                 .setNegativeButton("取消", null)
                 .show();
@@ -31,7 +31,8 @@ package gg.dmr.royz.m3;
 import android.app.Application;
 import android.bluetooth.BluetoothDevice;
 import android.graphics.Bitmap;
-import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -39,17 +40,29 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import gg.dmr.royz.m3.bluetooth.BleManager;
 import gg.dmr.royz.m3.bluetooth.CommandHandler;
+import gg.dmr.royz.m3.bluetooth.CommandResponse;
 import gg.dmr.royz.m3.bluetooth.Constants;
+import gg.dmr.royz.m3.bluetooth.TransferProgress;
+import gg.dmr.royz.m3.bluetooth.TransferStats;
 import gg.dmr.royz.m3.model.DeviceImage;
 import gg.dmr.royz.m3.model.DeviceStatus;
 import gg.dmr.royz.m3.utils.GifPackConverter;
 import gg.dmr.royz.m3.utils.ImageConverter;
+import gg.dmr.royz.m3.utils.ImageSource;
+import gg.dmr.royz.m3.utils.JpegEncoder;
 import gg.dmr.royz.m3.utils.LogUtil;
+import gg.dmr.royz.m3.utils.Rgb565Encoder;
 
 /**
  * 主界面ViewModel
@@ -67,6 +80,25 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
     private final MutableLiveData<Integer> transferProgress = new MutableLiveData<>(0);
     private final MutableLiveData<Boolean> isTransferring = new MutableLiveData<>(false);
 
+    // 上传大小预算
+    private static final int STORAGE_RESERVE = 16 * 1024; // 给文件系统元数据和临时文件留的余量(字节)
+    private static final int DEFAULT_THROUGHPUT = 8 * 1024; // 还没有实测速率时估计的传输速率(字节/秒)
+    private static final int DEFAULT_JPEG_QUALITY = 85; // 不限制大小时的JPEG质量
+    private int transferTimeTarget = 0; // 期望的最长传输时间(秒)，0表示不限制
+    private double measuredThroughput = 0; // 上次传输的实测速率(字节/秒)
+
+    // 图片和GIF的格式转换在后台线程按顺序执行，转换结果投递回主线程再开始传输
+    private final ExecutorService converter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ImageConverter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // 静态图片输出为原始RGB565（.ibin），设备切换图片时不需要解码JPEG
+    private boolean rawImageOutput = false;
+    private boolean rawImageRle = true;
+
     // 构造函数
     public MainViewModel(@NonNull Application application) {
         super(application);
@@ -100,6 +132,54 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
         return isTransferring;
     }
 
+    /**
+     * 设置期望的最长传输时间，上传前按上次实测的传输速率换算成大小预算
+     * @param seconds 秒数，0表示不限制
+     */
+    public void setTransferTimeTarget(int seconds) {
+        transferTimeTarget = Math.max(0, seconds);
+    }
+
+    /**
+     * 设置静态图片的上传格式
+     * @param enabled true上传原始RGB565（.ibin），设备切换图片时直接推送到屏幕；false上传JPEG
+     * @param rle 原始格式是否使用游程编码，纯色区域多的图片可以明显变小
+     */
+    public void setRawImageOutput(boolean enabled, boolean rle) {
+        rawImageOutput = enabled;
+        rawImageRle = rle;
+    }
+
+    // 计算上传大小预算：不超过设备剩余空间（需要固件上报存储总量），设定了传输时间时还不超过对应的数据量；0表示不限制
+    private int getUploadBudget() {
+        int budget = getStorageLimit();
+        if (transferTimeTarget > 0) {
+            int timeBudget = (int) Math.min(Integer.MAX_VALUE, estimatedThroughput() * transferTimeTarget);
+            budget = budget > 0 ? Math.min(budget, timeBudget) : timeBudget;
+        }
+        return budget;
+    }
+
+    // 设备剩余空间扣除余量后可用于上传的字节数，固件没有上报存储总量时返回0表示未知
+    private int getStorageLimit() {
+        DeviceStatus status = deviceStatus.getValue();
+        if (status != null && status.getStorageFree() >= 0) {
+            return Math.max(1, status.getStorageFree() - STORAGE_RESERVE);
+        }
+        return 0;
+    }
+
+    // 设备是否上报支持指定功能，还没有收到设备状态时按不支持处理
+    private boolean hasDeviceFeature(byte feature) {
+        DeviceStatus status = deviceStatus.getValue();
+        return status != null && status.hasFeature(feature);
+    }
+
+    // 估计的传输速率(字节/秒)，优先使用上次传输的实测值
+    private double estimatedThroughput() {
+        return measuredThroughput > 0 ? measuredThroughput : DEFAULT_THROUGHPUT;
+    }
+
     // 开始扫描设备
     public void startScan() {
         LogUtil.log("开始扫描设备...");
@@ -126,7 +206,9 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
         }
 
         LogUtil.log("请求图片列表...");
-        bleManager.sendCommand(CommandHandler.cmdGetImageList());
+        bleManager.request(CommandHandler.cmdGetImageList())
+                .thenAccept(this::handleImageListResponse)
+                .exceptionally(e -> logRequestError("获取图片列表", e));
     }
 
     // 刷新设备状态
@@ -137,7 +219,9 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
         }
 
         LogUtil.log("请求设备状态...");
-        bleManager.sendCommand(CommandHandler.cmdGetStatus());
+        bleManager.request(CommandHandler.cmdGetStatus())
+                .thenAccept(this::handleStatusResponse)
+                .exceptionally(e -> logRequestError("获取设备状态", e));
     }
 
     // 删除图片
@@ -148,9 +232,15 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
         }
 
         LogUtil.log("删除图片: " + index);
-        bleManager.sendCommand(CommandHandler.cmdDeleteImage(index));
-        refreshDeviceStatus();
-        refreshImageList();
+        // 设备按顺序执行，删除后的状态和列表在同一次往返中返回
+        bleManager.requestBatch(CommandHandler.cmdDeleteImage(index),
+                        CommandHandler.cmdGetStatus(), CommandHandler.cmdGetImageList())
+                .thenAccept(responses -> {
+                    logCommandResult("删除图片", responses.get(0));
+                    handleStatusResponse(responses.get(1));
+                    handleImageListResponse(responses.get(2));
+                })
+                .exceptionally(e -> logRequestError("删除图片", e));
     }
 
     // 设置显示图片
@@ -161,8 +251,12 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
         }
 
         LogUtil.log("设置显示图片: " + index);
-        bleManager.sendCommand(CommandHandler.cmdSetDisplay(index));
-        refreshImageList();
+        bleManager.requestBatch(CommandHandler.cmdSetDisplay(index), CommandHandler.cmdGetImageList())
+                .thenAccept(responses -> {
+                    logCommandResult("设置显示图片", responses.get(0));
+                    handleImageListResponse(responses.get(1));
+                })
+                .exceptionally(e -> logRequestError("设置显示图片", e));
     }
 
     // 重排图片
@@ -178,11 +272,13 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
         }
 
         LogUtil.log("重排图片: " + orderStr);
-        bleManager.sendCommand(CommandHandler.cmdReorderImages(order));
+        bleManager.request(CommandHandler.cmdReorderImages(order))
+                .thenAccept(response -> logCommandResult("重排图片", response))
+                .exceptionally(e -> logRequestError("重排图片", e));
     }
 
     /**
-     * 上传图片 - 简化版本，统一转换为JPG格式
+     * 上传图片，默认转换为JPG格式，开启原始格式时上传RGB565（.ibin）
      * @param bitmap 图片位图（PNG已在ImageConverter中去除透明度）
      * @param targetIndex 目标索引
      */
@@ -192,186 +288,236 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
             return;
         }
 
-        LogUtil.log("准备上传JPG格式图片到索引: " + targetIndex);
         isTransferring.setValue(true);
         transferProgress.setValue(0);
 
-        // 统一转换为JPG格式
-        byte[] imageData = ImageConverter.convertBitmapToJpeg(bitmap, 85);
-        byte formatId = 0x10; // JPG格式标识
-
-        LogUtil.log("图片转换完成，格式: JPG，数据大小: " + imageData.length + " 字节");
+        // 预算和设备功能在主线程读取，编码交给后台线程
+        int budget = getUploadBudget();
+        boolean rawOutput = rawImageOutput && hasDeviceFeature(Constants.DeviceFeature.FEATURE_IBIN);
+        boolean rle = rawImageRle;
+        if (rawImageOutput && !rawOutput) {
+            LogUtil.log("设备固件不支持原始RGB565格式，改用JPG格式");
+        }
 
         // 确保目标索引只使用低4位
         byte actualIndex = (byte)(targetIndex & 0x0F);
 
-        // 开始传输过程
-        // 1. 发送开始传输命令
-        bleManager.startImageTransfer(actualIndex, formatId);
-
-        // 2. 分包发送图片数据
-        bleManager.sendImageData(imageData, new BleManager.TransferCallback() {
-            @Override
-            public void onProgress(int current, int total) {
-                int progress = (int) ((current * 100.0) / total);
-                transferProgress.setValue(progress);
-                LogUtil.log("传输进度: " + current + "/" + total + " 字节 (" + progress + "%)");
+        converter.execute(() -> {
+            byte[] imageData = null;
+            byte formatId = ImageConverter.FORMAT_JPEG;
+
+            // 原始RGB565格式超出预算时改用JPEG
+            if (rawOutput) {
+                imageData = Rgb565Encoder.encode(bitmap, rle);
+                if (budget > 0 && imageData.length > budget) {
+                    LogUtil.log("原始格式 " + imageData.length + " 字节超出预算 " + budget + " 字节，改用JPG格式");
+                    imageData = null;
+                } else {
+                    formatId = ImageConverter.FORMAT_IBIN;
+                    LogUtil.log("准备上传原始RGB565格式图片到索引: " + targetIndex + "，数据大小: " + imageData.length + " 字节");
+                }
             }
 
-            @Override
-            public void onComplete() {
-                LogUtil.log("图片数据传输完成");
-                // 3. 发送结束传输命令
-                bleManager.endImageTransfer();
-                // 4. 传输结束，刷新列表
-                isTransferring.setValue(false);
-                refreshImageList();
-            }
+            if (imageData == null) {
+                // 转换为JPG格式，有大小预算时选择预算内的最高质量
+                ByteArrayOutputStream jpegOutput = new ByteArrayOutputStream();
+                int quality = JpegEncoder.compress(bitmap, budget, DEFAULT_JPEG_QUALITY, jpegOutput);
+                imageData = jpegOutput.toByteArray();
 
-            @Override
-            public void onError(String message) {
-                LogUtil.logError("图片传输失败: " + message);
-                isTransferring.setValue(false);
+                LogUtil.log("准备上传JPG格式图片到索引: " + targetIndex + "，质量: " + quality + "，数据大小: " + imageData.length + " 字节" +
+                        (budget > 0 ? "（预算 " + budget + " 字节）" : ""));
             }
+
+            byte[] data = imageData;
+            byte format = formatId;
+            mainHandler.post(() -> {
+                if (!isStillConnected("图片")) {
+                    return;
+                }
+                // 开始传输过程
+                // 1. 发送开始传输命令
+                // 压缩传输时设备要同时保存压缩数据和解压结果，空间不够时BleManager改发原始数据
+                bleManager.startImageTransfer(actualIndex, format, data, getStorageLimit());
+
+                // 2. 分包发送图片数据
+                bleManager.sendImageData(data, createTransferCallback("图片"));
+            });
         });
     }
 
     /**
-     * 上传GIF文件 - 保持原有逻辑不变
+     * 上传GIF文件，转换为GifPack格式后发送
+     * @param source 已读取的GIF文件内容，转换直接使用这份数据，不再重新打开Uri
+     * @param targetIndex 目标索引
      */
-    public void uploadGifFromUri(Uri gifUri, byte targetIndex) {
+    public void uploadGif(ImageSource source, byte targetIndex) {
         if (bleManager.getState() != BleManager.State.CONNECTED) {
             LogUtil.logError("设备未连接，无法上传GIF");
             return;
         }
 
+        if (!source.isGif()) {
+            LogUtil.logError("文件不是GIF格式，无法上传");
+            Toast.makeText(getApplication(), "GIF文件加载失败", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
         // 设置状态
         isTransferring.setValue(true);
         transferProgress.setValue(0);
 
-        // 首先检查文件类型
-        byte formatType = ImageConverter.getFormatType(getApplication(), gifUri);
+        // 确保目标索引只使用低4位
+        byte actualIndex = (byte)(targetIndex & 0x0F);
+        byte formatId = ImageConverter.FORMAT_GIF; // 0x30
+
+        // 转换为GifPack格式，结果直接写入缓存文件
+        // 设备上报支持v2时才使用增量帧和帧时长表，旧固件或还没有收到状态时生成v1
+        boolean legacyFormat = !hasDeviceFeature(Constants.DeviceFeature.FEATURE_GIFPACK_V2);
+        int budget = getUploadBudget();
+        LogUtil.log("GIF文件检测到，正在转换为GifPack " + (legacyFormat ? "v1" : "v2") + " 格式...");
+
+        // 解码、选帧和编码都很耗时，在后台线程执行
+        converter.execute(() -> {
+            File gifPack = GifPackConverter.convertGifToGifPack(getApplication(), source, budget, legacyFormat);
+            mainHandler.post(() -> {
+                if (gifPack == null) {
+                    LogUtil.logError("GIF转换为GifPack失败");
+                    isTransferring.setValue(false);
+                    Toast.makeText(getApplication(), "GIF转换失败，请尝试其他GIF文件", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                if (!isStillConnected("GIF")) {
+                    return;
+                }
+
+                LogUtil.log(String.format(Locale.US, "GIF转换为GifPack成功，大小: %d 字节，预计传输 %.1f 秒",
+                        gifPack.length(), gifPack.length() / estimatedThroughput()));
+
+                // 1. 发送开始传输命令，文件交给BleManager按块读取发送
+                bleManager.startImageTransfer(actualIndex, formatId, gifPack);
+
+                // 2. 分包发送数据
+                bleManager.sendImageData(gifPack, createTransferCallback("GIF"));
+            });
+        });
+    }
+
+    // 转换期间连接可能已经断开，这时放弃本次上传
+    private boolean isStillConnected(String label) {
+        if (bleManager.getState() != BleManager.State.CONNECTED) {
+            LogUtil.logError("设备已断开，取消" + label + "上传");
+            isTransferring.setValue(false);
+            return false;
+        }
+        return true;
+    }
+
+    // 续传上次中断的传输
+    private void resumePendingTransfer() {
+        isTransferring.setValue(true);
+        transferProgress.setValue(0);
+        if (!bleManager.resumeImageTransfer(createTransferCallback("续传"))) {
+            LogUtil.logError("无法续传未完成的传输");
+            isTransferring.setValue(false);
+        }
+    }
 
-        // 处理数据
-        byte[] dataToUpload;
-        byte formatId;
+    // 传输回调：更新进度，设备校验通过后刷新列表
+    private BleManager.TransferCallback createTransferCallback(String label) {
+        return new BleManager.TransferCallback() {
+            private int lastLoggedPercent = -1;
 
-        if (formatType == ImageConverter.FORMAT_GIF) {
-            // 如果是GIF格式，转换为GifPack格式
-            LogUtil.log("GIF文件检测到，正在转换为GifPack格式...");
-            dataToUpload = GifPackConverter.convertGifToGifPack(getApplication(), gifUri);
-            formatId = ImageConverter.FORMAT_GIF; // 0x30
+            @Override
+            public void onProgress(TransferProgress progress) {
+                int percent = progress.getPercent();
+                if (!Integer.valueOf(percent).equals(transferProgress.getValue())) {
+                    transferProgress.setValue(percent);
+                }
+                // 日志只在每推进10%时记一条，避免日志视图频繁重绘
+                if (lastLoggedPercent < 0 || percent / 10 != lastLoggedPercent / 10) {
+                    lastLoggedPercent = percent;
+                    LogUtil.log(label + "传输进度: " + progress);
+                }
+            }
 
-            if (dataToUpload == null) {
-                LogUtil.logError("GIF转换为GifPack失败");
+            @Override
+            public void onComplete(TransferStats stats) {
+                LogUtil.log(label + "数据传输完成，" + stats);
+                measuredThroughput = stats.getKilobytesPerSecond() * 1024;
+                // 3. 结束传输命令已由BleManager发送并校验，最新的列表和状态随结束传输一起返回
                 isTransferring.setValue(false);
-                Toast.makeText(getApplication(), "GIF转换失败，请尝试其他GIF文件", Toast.LENGTH_SHORT).show();
-                return;
             }
 
-            LogUtil.log("GIF转换为GifPack成功，大小: " + dataToUpload.length + " 字节");
-        } else {
-            dataToUpload = ImageConverter.loadGifFromUri(getApplication(), gifUri);
-            formatId = ImageConverter.FORMAT_GIF; // 保持原来的0x30
-
-            if (dataToUpload == null) {
-                LogUtil.logError("GIF文件加载失败");
+            @Override
+            public void onError(String message) {
+                LogUtil.logError(label + "传输失败: " + message);
                 isTransferring.setValue(false);
-                Toast.makeText(getApplication(), "GIF文件加载失败", Toast.LENGTH_SHORT).show();
-                return;
             }
+        };
+    }
 
-            LogUtil.log("GIF文件加载成功，大小: " + dataToUpload.length + " 字节");
+    // 处理没有对应请求的命令响应，以及结束传输时一并返回的列表和状态
+    public void handleCommandResponse(CommandResponse response) {
+        // 根据命令ID处理响应
+        if (response.getCommandId() == Constants.CommandID.CMD_GET_IMAGE_LIST) {
+            handleImageListResponse(response);
+        } else if (response.getCommandId() == Constants.CommandID.CMD_GET_STATUS) {
+            handleStatusResponse(response);
         }
+    }
 
-        // 确保目标索引只使用低4位
-        byte actualIndex = (byte)(targetIndex & 0x0F);
-
-        // 开始传输过程
-        // 1. 发送开始传输命令
-        bleManager.startImageTransfer(actualIndex, formatId);
-
-        // 2. 分包发送数据
-        bleManager.sendImageData(dataToUpload, new BleManager.TransferCallback() {
-            @Override
-            public void onProgress(int current, int total) {
-                int progress = (int) ((current * 100.0) / total);
-                transferProgress.setValue(progress);
-                LogUtil.log("GIF传输进度: " + current + "/" + total + " 字节 (" + progress + "%)");
-            }
-
+    // 处理图片列表响应
+    private void handleImageListResponse(CommandResponse response) {
+        if (!response.isSuccess()) {
+            LogUtil.logError("获取图片列表失败: " + response.getStatusName());
+            return;
+        }
+        CommandHandler.parseImageList(response.getPayload(), new CommandHandler.ImageListCallback() {
             @Override
-            public void onComplete() {
-                LogUtil.log("GIF数据传输完成");
-                // 3. 发送结束传输命令
-                bleManager.endImageTransfer();
-                // 4. 传输结束，刷新列表
-                isTransferring.setValue(false);
-                refreshImageList();
+            public void onImageListReceived(List<DeviceImage> images) {
+                imageList.setValue(images);
+                LogUtil.log("收到图片列表: " + images.size() + " 个图片");
             }
 
             @Override
             public void onError(String message) {
-                LogUtil.logError("GIF传输失败: " + message);
-                isTransferring.setValue(false);
+                LogUtil.logError("解析图片列表失败: " + message);
             }
         });
     }
 
-    // 处理命令响应
-    public void handleCommandResponse(byte[] response) {
-        if (response == null || response.length < 3) {
-            LogUtil.logError("响应数据格式错误");
+    // 处理设备状态响应
+    private void handleStatusResponse(CommandResponse response) {
+        if (!response.isSuccess()) {
+            LogUtil.logError("获取设备状态失败: " + response.getStatusName());
             return;
         }
+        CommandHandler.parseDeviceStatus(response.getPayload(), new CommandHandler.StatusCallback() {
+            @Override
+            public void onStatusReceived(DeviceStatus status) {
+                deviceStatus.setValue(status);
+                LogUtil.log("收到设备状态: " + status.toString());
+            }
 
-        byte commandId = response[0];
-        byte statusCode = response[1];
+            @Override
+            public void onError(String message) {
+                LogUtil.logError("解析设备状态失败: " + message);
+            }
+        });
+    }
 
-        // 根据命令ID处理响应
-        if (commandId == Constants.CommandID.CMD_GET_IMAGE_LIST) {
-            // 处理图片列表响应
-            CommandHandler.parseImageList(
-                    response.length > 3 ? getPayload(response) : null,
-                    new CommandHandler.ImageListCallback() {
-                        @Override
-                        public void onImageListReceived(List<DeviceImage> images) {
-                            imageList.setValue(images);
-                            LogUtil.log("收到图片列表: " + images.size() + " 个图片");
-                        }
-
-                        @Override
-                        public void onError(String message) {
-                            LogUtil.logError("解析图片列表失败: " + message);
-                        }
-                    });
-        } else if (commandId == Constants.CommandID.CMD_GET_STATUS) {
-            // 处理设备状态响应
-            CommandHandler.parseDeviceStatus(
-                    response.length > 3 ? getPayload(response) : null,
-                    new CommandHandler.StatusCallback() {
-                        @Override
-                        public void onStatusReceived(DeviceStatus status) {
-                            deviceStatus.setValue(status);
-                            LogUtil.log("收到设备状态: " + status.toString());
-                        }
-
-                        @Override
-                        public void onError(String message) {
-                            LogUtil.logError("解析设备状态失败: " + message);
-                        }
-                    });
+    private void logCommandResult(String action, CommandResponse response) {
+        if (response.isSuccess()) {
+            LogUtil.log(action + "成功");
+        } else {
+            LogUtil.logError(action + "失败: " + response.getStatusName());
         }
     }
 
-    // 提取响应负载
-    private byte[] getPayload(byte[] response) {
-        byte payloadLength = response[2];
-        if (payloadLength > 0 && response.length >= 3 + payloadLength) {
-            byte[] payload = new byte[payloadLength];
-            System.arraycopy(response, 3, payload, 0, payloadLength);
-            return payload;
-        }
+    // 命令超时或连接断开
+    private Void logRequestError(String action, Throwable e) {
+        Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+        LogUtil.logError(action + "失败: " + cause.getMessage());
         return null;
     }
 
@@ -379,13 +525,21 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
 
     @Override
     public void onStateChanged(BleManager.State state) {
+        BleManager.State previousState = connectionState.getValue();
         connectionState.setValue(state);
         LogUtil.log("蓝牙状态变更: " + state);
 
-        if (state == BleManager.State.CONNECTED) {
+        // 只在真正建立连接时刷新；传输结束从TRANSMITTING回到CONNECTED时，列表和状态已随结束传输返回
+        if (state == BleManager.State.CONNECTED && previousState != BleManager.State.TRANSMITTING
+                && previousState != BleManager.State.CONNECTED) {
             // 连接成功后自动获取图片列表和设备状态
             refreshImageList();
             refreshDeviceStatus();
+
+            // 上次传输因断线中断时，从设备已提交的位置继续
+            if (!Boolean.TRUE.equals(isTransferring.getValue()) && bleManager.hasPendingTransfer()) {
+                resumePendingTransfer();
+            }
         }
     }
 
@@ -405,7 +559,7 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
     }
 
     @Override
-    public void onCommandResponse(byte[] response) {
+    public void onCommandResponse(CommandResponse response) {
         handleCommandResponse(response);
     }
 
@@ -418,6 +572,7 @@ public class MainViewModel extends AndroidViewModel implements BleManager.BleCal
     @Override
     protected void onCleared() {
         super.onCleared();
+        converter.shutdownNow();
         bleManager.disconnect();
     }
 }
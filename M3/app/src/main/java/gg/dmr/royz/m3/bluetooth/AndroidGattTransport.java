@@ -0,0 +1,360 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 基于BluetoothGatt的传输实现
+ * 负责GATT连接、服务发现、启用通知和MTU协商，所有回调在传入的Handler线程上执行
+ */
+@SuppressLint("MissingPermission")
+public class AndroidGattTransport implements GattTransport {
+    private static final String TAG = "AndroidGattTransport";
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private final Context context;
+    private final BluetoothDevice device;
+    private final BluetoothAdapter bluetoothAdapter;
+    private final Handler handler;
+
+    private BluetoothGatt bluetoothGatt;
+    private BluetoothGattCharacteristic commandCharacteristic;
+    private BluetoothGattCharacteristic dataCharacteristic;
+    private Listener listener;
+    private boolean closed = false;
+
+    public AndroidGattTransport(Context context, BluetoothAdapter bluetoothAdapter,
+                                BluetoothDevice device, Handler handler) {
+        this.context = context;
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.device = device;
+        this.handler = handler;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    @Override
+    public boolean connect(Listener listener) {
+        this.listener = listener;
+
+        // Android 10及以上使用优化的连接方式
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // 使用TRANSPORT_LE参数指定低功耗连接
+            bluetoothGatt = device.connectGatt(context, false, gattCallback,
+                    BluetoothDevice.TRANSPORT_LE,
+                    BluetoothDevice.PHY_LE_1M_MASK,
+                    handler);
+            Log.d(TAG, "使用优化的BLE连接方式(Android 10+)");
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // Android 6.0-9.0
+            bluetoothGatt = device.connectGatt(context, false, gattCallback,
+                    BluetoothDevice.TRANSPORT_LE);
+            Log.d(TAG, "使用LE传输模式连接(Android 6.0+)");
+        } else {
+            // 老版本Android
+            bluetoothGatt = device.connectGatt(context, false, gattCallback);
+            Log.d(TAG, "使用标准GATT连接");
+        }
+
+        return bluetoothGatt != null;
+    }
+
+    @Override
+    public boolean writeCommand(byte[] value) {
+        if (bluetoothGatt == null || commandCharacteristic == null) {
+            return false;
+        }
+        commandCharacteristic.setValue(value);
+        return bluetoothGatt.writeCharacteristic(commandCharacteristic);
+    }
+
+    @Override
+    public boolean writeData(byte[] value, boolean withResponse) {
+        if (bluetoothGatt == null || dataCharacteristic == null) {
+            return false;
+        }
+        dataCharacteristic.setWriteType(withResponse ?
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT :
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        dataCharacteristic.setValue(value);
+        return bluetoothGatt.writeCharacteristic(dataCharacteristic);
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        return bluetoothGatt != null && bluetoothGatt.requestConnectionPriority(priority);
+    }
+
+    @Override
+    public boolean isLe2MPhySupported() {
+        return bluetoothAdapter != null && bluetoothAdapter.isLe2MPhySupported();
+    }
+
+    @Override
+    public void setPreferredPhy(int phyMask) {
+        if (bluetoothGatt != null) {
+            bluetoothGatt.setPreferredPhy(phyMask, phyMask, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (bluetoothGatt != null) {
+            bluetoothGatt.disconnect();
+            bluetoothGatt.close();
+            bluetoothGatt = null;
+        }
+        commandCharacteristic = null;
+        dataCharacteristic = null;
+    }
+
+    @Override
+    public String getDescription() {
+        return device.getName() + " [" + device.getAddress() + "]";
+    }
+
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (closed) {
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    listener.onLinkUp();
+
+                    handler.post(() -> {
+                        if (bluetoothGatt != null) {
+                            bluetoothGatt.discoverServices();
+                        }
+                    });
+                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                    listener.onDisconnected(false);
+                }
+            } else {
+                Log.e(TAG, "连接状态异常: " + status);
+                listener.onDisconnected(true);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (closed) {
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "服务发现完成");
+
+                // 列出所有发现的服务，用于调试
+                List<BluetoothGattService> services = gatt.getServices();
+                Log.d(TAG, "发现" + services.size() + "个服务:");
+                for (BluetoothGattService service : services) {
+                    Log.d(TAG, "服务: " + service.getUuid().toString());
+                    for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                        Log.d(TAG, "  特征: " + characteristic.getUuid().toString() +
+                                " 属性: " + characteristic.getProperties());
+                    }
+                }
+
+                // 查找目标服务
+                BluetoothGattService targetService = gatt.getService(UUID.fromString(Constants.SERVICE_UUID));
+                if (targetService != null) {
+                    Log.d(TAG, "找到目标服务: " + Constants.SERVICE_UUID);
+                } else {
+                    Log.e(TAG, "未找到目标服务: " + Constants.SERVICE_UUID);
+
+                    // 尝试使用BLe.py中的服务UUID
+                    String altServiceUuid = "4fafc201-1fb5-459e-8fcc-c5c9c331914b";
+                    Log.d(TAG, "尝试替代服务UUID: " + altServiceUuid);
+                    targetService = gatt.getService(UUID.fromString(altServiceUuid));
+
+                    if (targetService == null) {
+                        listener.onTransportError("设备不兼容，未找到目标服务");
+                        return;
+                    }
+                    Log.d(TAG, "使用替代UUID找到服务");
+                }
+
+                // 获取命令特征和数据特征
+                commandCharacteristic = targetService.getCharacteristic(
+                        UUID.fromString(Constants.CHAR_COMMAND_UUID));
+                dataCharacteristic = targetService.getCharacteristic(
+                        UUID.fromString(Constants.CHAR_DATA_UUID));
+
+                if (commandCharacteristic != null && dataCharacteristic != null) {
+                    Log.d(TAG, "找到所需特征，启用通知");
+
+                    // 设置MTU大小，提高传输效率
+                    bluetoothGatt.requestMtu(Constants.REQUEST_MTU);
+                    Log.d(TAG, "请求MTU大小: " + Constants.REQUEST_MTU);
+
+                    // 启用命令特征的通知
+                    enableNotification(commandCharacteristic);
+                } else {
+                    Log.e(TAG, "未找到所需特征，commandChar=" + (commandCharacteristic != null) +
+                            ", dataChar=" + (dataCharacteristic != null));
+                    listener.onTransportError("设备不兼容，未找到所需特征");
+                }
+            } else {
+                Log.e(TAG, "服务发现失败: " + status);
+                listener.onTransportError("服务发现失败");
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            if (closed) {
+                return;
+            }
+            // 处理命令特征的通知回调
+            if (characteristic.getUuid().equals(UUID.fromString(Constants.CHAR_COMMAND_UUID))) {
+                byte[] response = characteristic.getValue();
+                if (response != null && response.length > 0) {
+                    listener.onNotification(response);
+                }
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            if (closed) {
+                return;
+            }
+            boolean success = status == BluetoothGatt.GATT_SUCCESS;
+            if (success) {
+                Log.d(TAG, "特征写入成功: " + characteristic.getUuid().toString());
+            } else {
+                Log.e(TAG, "特征写入失败: " + characteristic.getUuid().toString() + " 状态: " + status);
+            }
+
+            if (characteristic.getUuid().equals(UUID.fromString(Constants.CHAR_DATA_UUID))) {
+                listener.onDataWritten(success);
+            } else if (characteristic.getUuid().equals(UUID.fromString(Constants.CHAR_COMMAND_UUID))) {
+                listener.onCommandWritten(success);
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            if (closed) {
+                return;
+            }
+            // 描述符写入完成，表示通知已启用
+            Log.d(TAG, "描述符写入完成，状态: " + status);
+
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "通知启用成功");
+            } else {
+                Log.e(TAG, "启用通知失败: " + status);
+
+                // 尝试直接进入已连接状态，某些设备可能不需要描述符写入
+                Log.d(TAG, "尽管描述符写入失败，但尝试继续操作");
+            }
+            listener.onReady();
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            Log.d(TAG, "MTU变更: " + mtu + " 状态: " + status);
+
+            if (!closed && status == BluetoothGatt.GATT_SUCCESS) {
+                listener.onMtuChanged(mtu);
+            }
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            if (!closed) {
+                listener.onPhyUpdate(txPhy, rxPhy, status == BluetoothGatt.GATT_SUCCESS);
+            }
+        }
+
+        // 隐藏API，系统在连接参数更新后回调（不能加@Override）
+        public void onConnectionUpdated(BluetoothGatt gatt, int interval, int latency,
+                                        int timeout, int status) {
+            if (!closed) {
+                listener.onConnectionUpdated(interval, latency, timeout,
+                        status == BluetoothGatt.GATT_SUCCESS);
+            }
+        }
+    };
+
+    // 启用特征通知
+    private void enableNotification(BluetoothGattCharacteristic characteristic) {
+        // 添加详细日志，帮助调试
+        Log.d(TAG, "启用特征通知: " + characteristic.getUuid().toString());
+
+        // 首先设置本地通知
+        boolean success = bluetoothGatt.setCharacteristicNotification(characteristic, true);
+        if (!success) {
+            listener.onTransportError("启用特征通知失败");
+            return;
+        }
+
+        // 获取配置描述符
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+        if (descriptor != null) {
+            Log.d(TAG, "找到配置描述符，设置通知值");
+            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+
+            // 延迟100ms再写入描述符，解决某些设备的兼容性问题
+            handler.postDelayed(() -> {
+                if (bluetoothGatt != null) {
+                    bluetoothGatt.writeDescriptor(descriptor);
+                    Log.d(TAG, "写入通知描述符");
+                }
+            }, 100);
+        } else {
+            Log.e(TAG, "未找到配置描述符");
+
+            // 对于某些特殊设备，可能没有描述符但能正常工作，尝试直接设置连接状态
+            Log.d(TAG, "尝试直接设置为已连接状态");
+            listener.onReady();
+        }
+    }
+}
@@ -31,29 +31,32 @@ package gg.dmr.royz.m3.bluetooth;
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
-import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.Queue;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
 
 import gg.dmr.royz.m3.model.DeviceImage;
 import gg.dmr.royz.m3.model.DeviceStatus;
@@ -66,27 +69,40 @@ import gg.dmr.royz.m3.utils.LogUtil;
 @SuppressLint("MissingPermission")
 public class BleManager {
     private static final String TAG = "BleManager";
-    private static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
     // 超时和重试参数
     private static final int SCAN_TIMEOUT = 10000; // 扫描超时时间(ms)
     private static final int CONNECTION_TIMEOUT = 8000; // 连接超时时间(ms)
     private static final int MAX_RETRY_COUNT = 3; // 最大重试次数
-    private static final int WRITE_TIMEOUT = 250; // 写操作超时时间(ms)
-    private static final int WRITE_DELAY = 30; // 写操作间隔延迟(ms)
+    private static final int START_RESPONSE_TIMEOUT = 1000; // 等待开始传输响应超时时间(ms)
+    private static final int CREDIT_TIMEOUT = 2000; // 等待信用确认超时时间(ms)
+    private static final int SESSION_SAVE_INTERVAL = 4096; // 确认偏移量每推进多少字节持久化一次
+    private static final int END_RESPONSE_TIMEOUT = 5000; // 等待设备校验文件超时时间(ms)
+    private static final int COMMAND_TIMEOUT = 3000; // 命令响应默认超时时间(ms)
+    private static final int MAX_COMMANDS_IN_FLIGHT = 4; // 同时等待响应的命令数（固件命令队列长度为5）
+    private static final int MAX_CRC_RETRIES = 1; // CRC32校验失败后整体重传的次数
+    private static final int DEFAULT_PROGRESS_INTERVAL = 100; // 传输进度投递到界面的默认最小间隔(ms)，即10Hz
+    private static final double RATE_SMOOTHING = 0.3; // 速率指数平滑系数，越大越跟随最近的样本
 
     // 状态定义
     public enum State {
         DISCONNECTED, SCANNING, CONNECTING, DISCOVERING, CONNECTED, TRANSMITTING
     }
 
+    // 传输模式
+    public enum TransferMode {
+        ACKED,     // 有响应写入，每包等待写回调并延迟后发送下一包
+        STREAMING  // 无响应写入，按设备授予的信用窗口连续发送
+    }
+
     // 蓝牙状态回调接口
     public interface BleCallback {
         void onStateChanged(State state);
         void onDeviceFound(BluetoothDevice device);
         void onConnected();
         void onDisconnected();
-        void onCommandResponse(byte[] response);
+        // 没有对应请求的响应（如旧固件重复发送的响应）以及结束传输时一并获取的列表和状态
+        void onCommandResponse(CommandResponse response);
         void onError(String message);
     }
 
@@ -98,47 +114,123 @@ public class BleManager {
     private BluetoothManager bluetoothManager;
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothLeScanner scanner;
-    private BluetoothGatt bluetoothGatt;
 
-    // 服务与特征
-    private BluetoothGattService targetService;
-    private BluetoothGattCharacteristic commandCharacteristic;
-    private BluetoothGattCharacteristic dataCharacteristic;
+    // 当前连接使用的传输层，真实设备为AndroidGattTransport
+    private GattTransport transport;
+    private BluetoothDevice targetDevice; // 连接失败时用于重试，模拟设备为null
 
     // 状态与回调
     private State currentState = State.DISCONNECTED;
-    private BleCallback callback;
+    private volatile BleCallback callback;
+
+    // 界面线程读取的状态快照，只由I/O线程更新
+    private volatile BleSnapshot snapshot = new BleSnapshot(State.DISCONNECTED, Constants.DEFAULT_MTU,
+            chunkSizeForMtu(Constants.DEFAULT_MTU), GattTransport.PHY_LE_1M, 0, false, 0, 0);
+
+    // 传输进度投递策略，可以在任意线程修改
+    private volatile int progressIntervalMs = DEFAULT_PROGRESS_INTERVAL;
+    private volatile int progressPercentStep = 0; // 大于0时进度至少推进这么多百分点才投递
+    private boolean progressScheduled = false;
+    private long lastProgressTime = 0;  // 上次采样时间
+    private int lastProgressBytes = 0;  // 上次采样时的已发送字节数
+    private int lastProgressPercent = -1; // 上次投递的百分比
+    private double smoothedRate = 0;    // 平滑后的发送速率(字节/秒)
 
     // 重试计数
     private int retryCount = 0;
 
     // 命令队列与处理
-    private final Queue<byte[]> commandQueue = new ConcurrentLinkedQueue<>();
+    private final Deque<PendingCommand> commandQueue = new ConcurrentLinkedDeque<>(); // 等待写入的命令
+    private final List<PendingCommand> inFlightCommands = new ArrayList<>(); // 已写入、等待响应的命令
     private boolean isProcessingCommand = false;
+    private boolean sequencedCommands = true; // 设备是否支持带序号的命令帧，旧固件拒绝后回退到旧格式
+    private boolean batchCommands = true;     // 设备是否支持批量命令，旧固件拒绝后逐条发送
+    private int nextSequence = 1;
+    private final ResponseReassembler reassembler = new ResponseReassembler(); // 按序号重组分片响应
     private boolean isWriteInProgress = false;
 
-    // 正在传输的图片数据
-    private byte[] imageData;
+    // 写入节奏：包间隔和写超时按设备自适应调整
+    private WritePacer pacer = WritePacer.createDefault(null);
+    private long writeStartTime = 0;
+    private boolean writeWithResponse = false;
+
+    // 正在传输的图片数据，可能是内存中的数组，也可能是映射到内存的缓存文件，只读
+    private ByteBuffer imageData;
     private int transferOffset = 0;
+    private int sendEnd = 0; // 当前发送区间的结束偏移量
+
+    // 序号数据帧与校验：设备在结束传输时返回缺失区间，只重传这些区间
+    private boolean sequencedFrames = false;
+    private final ArrayDeque<int[]> retransmitRanges = new ArrayDeque<>(); // {起始, 结束}
+    private final CRC32 frameCrc = new CRC32();
+    private boolean awaitingEndResponse = false;
+    private int crcRetries = 0;
+
+    // 传输模式与信用流控
+    private volatile TransferMode preferredMode = TransferMode.STREAMING;
+    private volatile boolean compressionEnabled = true;
+    private TransferMode transferMode = TransferMode.ACKED;
+    private boolean awaitingStartResponse = false;
+    private int creditWindow = Constants.DEFAULT_STREAM_WINDOW;
+    private int sentBytes = 0;  // 已发送的数据字节数（含重传，续传时从已提交偏移量起算）
+    private int ackedBytes = 0; // 设备确认已处理的数据字节数
+    private long transferStartTime = 0;
+
+    // 断线续传会话：连接断开后保留，收到结束传输响应后清除
+    private TransferSession session;
+    private ByteBuffer sessionData;
+    private boolean resuming = false; // 正在等待续传响应
+    private int resumeOffset = 0;     // 本次发送的起始偏移量
+    private int savedOffset = 0;      // 最近一次持久化的确认偏移量
+
+    // 协商的MTU与对应的数据块大小，保证每块数据无需分片
+    private int negotiatedMtu = Constants.DEFAULT_MTU;
+    private int chunkSize = chunkSizeForMtu(Constants.DEFAULT_MTU);
+
+    // 实际生效的链路参数（由onPhyUpdate/onConnectionUpdated回报）
+    private int txPhy = GattTransport.PHY_LE_1M;
+    private int rxPhy = GattTransport.PHY_LE_1M;
+    private int connectionInterval = 0; // 连接间隔，单位1.25ms，0表示未知
 
     // 数据传输回调
     public interface TransferCallback {
-        void onProgress(int current, int total);
-        void onComplete();
+        void onProgress(TransferProgress progress);
+        void onComplete(TransferStats stats);
         void onError(String message);
     }
     private TransferCallback transferCallback;
 
-    // Handler用于处理延迟和超时
-    private final Handler handler = new Handler(Looper.getMainLooper());
+    // 等待响应的命令
+    private static class PendingCommand {
+        final byte[] command; // 旧格式命令帧 [命令ID, 负载长度, 负载]
+        final CompletableFuture<CommandResponse> future = new CompletableFuture<>();
+        Runnable timeoutTask;
+        int sequence = 0; // 0表示按旧格式发送，按命令ID匹配响应
+
+        PendingCommand(byte[] command) {
+            this.command = command;
+        }
+
+        byte getCommandId() {
+            return command[0];
+        }
+    }
+
+    // 所有BLE操作、超时和GATT回调都在专用的I/O线程上按消息顺序执行，内部状态只在该线程访问；
+    // 界面只收到投递到主线程的回调和不可变的状态快照
+    private final HandlerThread ioThread;
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     // 写操作超时检查任务
     private final Runnable writeTimeoutRunnable = new Runnable() {
         @Override
         public void run() {
             if (isWriteInProgress) {
-                Log.w(TAG, "写操作超时，重置状态继续处理队列");
+                pacer.onWriteTimeout();
+                Log.w(TAG, "写操作超时，重置状态继续处理队列，" + pacer);
                 isWriteInProgress = false;
+                isProcessingCommand = false;
 
                 // 继续处理队列
                 if (currentState == State.TRANSMITTING) {
@@ -150,6 +242,54 @@ public class BleManager {
         }
     };
 
+    // 开始传输响应超时任务：旧固件不回传标志位时，回退到有响应模式
+    private final Runnable startResponseTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (awaitingStartResponse) {
+                awaitingStartResponse = false;
+                if (resuming) {
+                    Log.w(TAG, "等待续传响应超时，重新开始传输");
+                    restartTransfer();
+                    return;
+                }
+                Log.w(TAG, "等待开始传输响应超时，使用有响应模式");
+                transferMode = TransferMode.ACKED;
+                resumeOffset = 0;
+                // 旧固件忽略开始传输的负载，直接改发原始数据即可
+                if (session != null && session.isCompressed() && !useUncompressedPayload()) {
+                    return;
+                }
+                if (currentState == State.TRANSMITTING && imageData != null) {
+                    beginImageTransfer();
+                }
+            }
+        }
+    };
+
+    // 结束传输响应超时任务
+    private final Runnable endResponseTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (awaitingEndResponse) {
+                awaitingEndResponse = false;
+                failImageTransfer("等待设备校验文件超时");
+            }
+        }
+    };
+
+    // 信用确认超时任务：设备长时间未授予信用时，剩余数据回退到有响应模式
+    private final Runnable creditTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (transferMode == TransferMode.STREAMING && currentState == State.TRANSMITTING) {
+                Log.w(TAG, "等待信用确认超时，剩余数据回退到有响应模式");
+                transferMode = TransferMode.ACKED;
+                continueImageTransfer();
+            }
+        }
+    };
+
     // 单例获取方法
     public static synchronized BleManager getInstance(Context context) {
         if (instance == null) {
@@ -163,35 +303,240 @@ public class BleManager {
         this.context = context;
         bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
         bluetoothAdapter = bluetoothManager.getAdapter();
+
+        ioThread = new HandlerThread("BleManager");
+        ioThread.start();
+        handler = new Handler(ioThread.getLooper());
+
+        // 读取应用上次运行时留下的续传会话
+        handler.post(() -> {
+            session = TransferSession.load(context);
+            publishSnapshot();
+        });
     }
 
     public void setCallback(BleCallback callback) {
         this.callback = callback;
     }
 
+    /**
+     * 传输层回调使用的Executor，回调在BleManager的I/O线程上执行
+     * 用于构造SimulatedPendant等自定义传输层
+     */
+    public Executor getTransportExecutor() {
+        return handler::post;
+    }
+
+    // 最近一次的状态快照，可在任意线程读取
+    public BleSnapshot getSnapshot() {
+        return snapshot;
+    }
+
     public State getState() {
-        return currentState;
+        return snapshot.getState();
+    }
+
+    // 设置首选传输模式，设备不支持流式传输时自动回退到有响应模式
+    public void setPreferredTransferMode(TransferMode mode) {
+        this.preferredMode = mode;
+    }
+
+    public TransferMode getPreferredTransferMode() {
+        return preferredMode;
+    }
+
+    // 是否在压缩收益足够时压缩上传数据，设备不支持解压时自动发送原始数据
+    public void setCompressionEnabled(boolean enabled) {
+        this.compressionEnabled = enabled;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public int getNegotiatedMtu() {
+        return snapshot.getNegotiatedMtu();
+    }
+
+    // 当前使用的数据块大小
+    public int getChunkSize() {
+        return snapshot.getChunkSize();
+    }
+
+    // 当前发送方向PHY (GattTransport.PHY_LE_1M / PHY_LE_2M / PHY_LE_CODED)
+    public int getTxPhy() {
+        return snapshot.getTxPhy();
+    }
+
+    // 当前连接间隔(毫秒)，未知时返回0
+    public float getConnectionIntervalMs() {
+        return snapshot.getConnectionIntervalMs();
+    }
+
+    // 在I/O线程上执行，已在I/O线程时直接执行
+    private void runOnIoThread(Runnable task) {
+        if (Looper.myLooper() == ioThread.getLooper()) {
+            task.run();
+        } else {
+            handler.post(task);
+        }
+    }
+
+    // 在主线程上调用界面回调
+    private void postToMain(Runnable task) {
+        mainHandler.post(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                Log.e(TAG, "回调执行异常: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // 生成新的状态快照（只在I/O线程调用）
+    private void publishSnapshot() {
+        int total = imageData != null ? imageData.limit() : 0;
+        snapshot = new BleSnapshot(currentState, negotiatedMtu, chunkSize, txPhy,
+                connectionInterval * 1.25f, session != null,
+                Math.min(transferOffset, total), total);
+    }
+
+    /**
+     * 设置传输进度的投递频率
+     * 发送每个数据块都会更新进度，但只按这里的频率合并后回调一次，避免界面线程被大量进度任务拖慢
+     * @param intervalMs 两次进度回调的最小间隔(ms)，例如100即最多10Hz
+     * @param percentStep 大于0时进度至少推进这么多百分点才回调，0表示只按时间合并
+     */
+    public void setProgressPolicy(int intervalMs, int percentStep) {
+        if (intervalMs < 0 || percentStep < 0 || percentStep > 100) {
+            throw new IllegalArgumentException("进度投递参数无效: " + intervalMs + "ms, " + percentStep + "%");
+        }
+        progressIntervalMs = intervalMs;
+        progressPercentStep = percentStep;
+    }
+
+    // 开始发送时重置进度采样
+    private void resetProgress() {
+        lastProgressTime = transferStartTime;
+        lastProgressBytes = resumeOffset;
+        lastProgressPercent = -1;
+        smoothedRate = 0;
+    }
+
+    // 传输进度合并后投递到界面：间隔内的多次更新只投递一次，界面拿到的是投递时的最新进度
+    private void scheduleProgress() {
+        publishSnapshot();
+        if (progressScheduled) {
+            return;
+        }
+        progressScheduled = true;
+        long delay = Math.max(0, lastProgressTime + progressIntervalMs - SystemClock.elapsedRealtime());
+        handler.postDelayed(this::deliverProgress, delay);
+    }
+
+    private void deliverProgress() {
+        progressScheduled = false;
+        TransferCallback callback = transferCallback;
+        if (callback == null || imageData == null) {
+            return;
+        }
+
+        TransferProgress progress = sampleProgress();
+        int step = progressPercentStep;
+        if (step > 0 && lastProgressPercent >= 0 && progress.getPercent() - lastProgressPercent < step) {
+            return;
+        }
+        lastProgressPercent = progress.getPercent();
+        postToMain(() -> callback.onProgress(progress));
+    }
+
+    // 采样当前进度，用两次采样之间的增量更新平滑速率
+    private TransferProgress sampleProgress() {
+        long now = SystemClock.elapsedRealtime();
+        int total = imageData.limit();
+        int transferred = Math.min(transferOffset, total);
+        long interval = now - lastProgressTime;
+        if (interval > 0) {
+            // 重传时偏移量会回退，不计入速率
+            double sample = Math.max(0, transferred - lastProgressBytes) * 1000.0 / interval;
+            smoothedRate = smoothedRate <= 0 ? sample : smoothedRate + RATE_SMOOTHING * (sample - smoothedRate);
+            lastProgressTime = now;
+            lastProgressBytes = transferred;
+        }
+        return new TransferProgress(transferred, total, now - transferStartTime, smoothedRate);
+    }
+
+    // 切换链路参数：传输时请求2M PHY和高优先级连接间隔，空闲时恢复1M PHY和均衡模式
+    // 手机或设备拒绝时保持当前参数，实际结果在onPhyUpdate/onConnectionUpdated中记录
+    private void applyLinkProfile(boolean highThroughput) {
+        if (transport == null) {
+            return;
+        }
+
+        int priority = highThroughput ? GattTransport.CONNECTION_PRIORITY_HIGH :
+                GattTransport.CONNECTION_PRIORITY_BALANCED;
+        if (!transport.requestConnectionPriority(priority)) {
+            Log.w(TAG, "请求连接优先级失败，保持当前连接间隔");
+        }
+
+        if (highThroughput && !transport.isLe2MPhySupported()) {
+            Log.d(TAG, "手机不支持LE 2M PHY，继续使用1M");
+            return;
+        }
+
+        int phyMask = highThroughput ? GattTransport.PHY_LE_2M_MASK : GattTransport.PHY_LE_1M_MASK;
+        transport.setPreferredPhy(phyMask);
+    }
+
+    // PHY名称，用于日志和传输统计
+    static String getPhyName(int phy) {
+        switch (phy) {
+            case GattTransport.PHY_LE_1M: return "1M";
+            case GattTransport.PHY_LE_2M: return "2M";
+            case GattTransport.PHY_LE_CODED: return "Coded";
+            default: return "未知(" + phy + ")";
+        }
+    }
+
+    // 根据MTU计算单个写请求可承载的数据块大小
+    private static int chunkSizeForMtu(int mtu) {
+        return Math.max(1, Math.min(Constants.MAX_CHUNK_SIZE, mtu - Constants.ATT_HEADER_SIZE));
     }
 
     private void setState(State state) {
         Log.d(TAG, "状态变更: " + currentState + " -> " + state);
+        State previousState = currentState;
         currentState = state;
+        publishSnapshot();
+
+        // 进入传输状态时提升链路速率，传输结束后恢复
+        if (state == State.TRANSMITTING && previousState != State.TRANSMITTING) {
+            applyLinkProfile(true);
+        } else if (previousState == State.TRANSMITTING && state == State.CONNECTED) {
+            applyLinkProfile(false);
+        }
+        BleCallback callback = this.callback;
         if (callback != null) {
-            handler.post(() -> callback.onStateChanged(state));
+            postToMain(() -> callback.onStateChanged(state));
         }
     }
 
     // 错误通知
     private void notifyError(String message) {
         Log.e(TAG, message);
+        BleCallback callback = this.callback;
         if (callback != null) {
-            handler.post(() -> callback.onError(message));
+            postToMain(() -> callback.onError(message));
         }
     }
 
     // ==== 扫描相关方法 ====
 
     public void startScan() {
+        runOnIoThread(this::startScanOnIoThread);
+    }
+
+    private void startScanOnIoThread() {
         if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
             notifyError("蓝牙未启用");
             return;
@@ -201,7 +546,7 @@ public class BleManager {
             return;
         }
 
-        stopScan();
+        stopScanOnIoThread();
         setState(State.SCANNING);
 
         List<ScanFilter> filters = new ArrayList<>();
@@ -215,7 +560,7 @@ public class BleManager {
         scanner = bluetoothAdapter.getBluetoothLeScanner();
         if (scanner != null) {
             scanner.startScan(filters, settings, scanCallback);
-            handler.postDelayed(this::stopScan, SCAN_TIMEOUT);
+            handler.postDelayed(this::stopScanOnIoThread, SCAN_TIMEOUT);
         } else {
             setState(State.DISCONNECTED);
             notifyError("无法启动蓝牙扫描");
@@ -223,6 +568,10 @@ public class BleManager {
     }
 
     public void stopScan() {
+        runOnIoThread(this::stopScanOnIoThread);
+    }
+
+    private void stopScanOnIoThread() {
         if (scanner != null && bluetoothAdapter != null && bluetoothAdapter.isEnabled() &&
                 currentState == State.SCANNING) {
             scanner.stopScan(scanCallback);
@@ -233,6 +582,7 @@ public class BleManager {
         }
     }
 
+    // 扫描结果在主线程回调，转到I/O线程处理
     private final ScanCallback scanCallback = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
@@ -240,58 +590,74 @@ public class BleManager {
             String deviceName = device.getName();
 
             if (deviceName != null && deviceName.contains(Constants.DEVICE_NAME_PREFIX)) {
-                Log.d(TAG, "找到目标设备: " + deviceName);
+                runOnIoThread(() -> {
+                    // 停止扫描前已排队的重复结果
+                    if (currentState != State.SCANNING) {
+                        return;
+                    }
+                    Log.d(TAG, "找到目标设备: " + deviceName);
 
-                if (callback != null) {
-                    callback.onDeviceFound(device);
-                }
+                    BleCallback callback = BleManager.this.callback;
+                    if (callback != null) {
+                        postToMain(() -> callback.onDeviceFound(device));
+                    }
 
-                stopScan();
-                connect(device);
+                    stopScanOnIoThread();
+                    connectOnIoThread(device);
+                });
             }
         }
 
         @Override
         public void onScanFailed(int errorCode) {
-            Log.e(TAG, "扫描失败: " + errorCode);
-            setState(State.DISCONNECTED);
-            notifyError("设备扫描失败，错误码: " + errorCode);
+            runOnIoThread(() -> {
+                Log.e(TAG, "扫描失败: " + errorCode);
+                setState(State.DISCONNECTED);
+                notifyError("设备扫描失败，错误码: " + errorCode);
+            });
         }
     };
 
     // ==== 连接相关方法 ====
 
     public void connect(BluetoothDevice device) {
+        runOnIoThread(() -> connectOnIoThread(device));
+    }
+
+    private void connectOnIoThread(BluetoothDevice device) {
         if (device == null) {
             notifyError("设备为空，无法连接");
             return;
         }
 
-        disconnect();
-        setState(State.CONNECTING);
+        disconnectOnIoThread();
+        targetDevice = device;
         Log.d(TAG, "正在连接到设备: " + device.getName() + " [" + device.getAddress() + "]");
+        openTransport(new AndroidGattTransport(context, bluetoothAdapter, device, handler));
+    }
 
-        // Android 10及以上使用优化的连接方式
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            // 使用TRANSPORT_LE参数指定低功耗连接
-            bluetoothGatt = device.connectGatt(context, false, gattCallback,
-                    BluetoothDevice.TRANSPORT_LE,
-                    BluetoothDevice.PHY_LE_1M_MASK,
-                    handler);
-            Log.d(TAG, "使用优化的BLE连接方式(Android 10+)");
-        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            // Android 6.0-9.0
-            bluetoothGatt = device.connectGatt(context, false, gattCallback,
-                    BluetoothDevice.TRANSPORT_LE);
-            Log.d(TAG, "使用LE传输模式连接(Android 6.0+)");
-        } else {
-            // 老版本Android
-            bluetoothGatt = device.connectGatt(context, false, gattCallback);
-            Log.d(TAG, "使用标准GATT连接");
-        }
+    /**
+     * 通过指定的传输层连接，例如进程内的SimulatedPendant
+     * 传输层的回调必须投递到getTransportExecutor()
+     */
+    public void connect(GattTransport transport) {
+        runOnIoThread(() -> {
+            disconnectOnIoThread();
+            targetDevice = null;
+            Log.d(TAG, "正在连接: " + transport.getDescription());
+            openTransport(transport);
+        });
+    }
 
-        if (bluetoothGatt == null) {
+    private void openTransport(GattTransport newTransport) {
+        transport = newTransport;
+        pacer = WritePacer.load(context, targetDevice != null ?
+                targetDevice.getAddress() : newTransport.getDescription());
+        setState(State.CONNECTING);
+
+        if (!newTransport.connect(transportListener)) {
             Log.e(TAG, "连接失败，无法创建GATT连接");
+            transport = null;
             setState(State.DISCONNECTED);
             notifyError("无法创建GATT连接");
             return;
@@ -299,330 +665,567 @@ public class BleManager {
 
         // 设置连接超时
         handler.postDelayed(() -> {
-            if (currentState == State.CONNECTING) {
+            if (currentState == State.CONNECTING && transport == newTransport) {
                 Log.e(TAG, "连接超时");
-                disconnect();
-
-                // 尝试重新连接
-                if (retryCount < MAX_RETRY_COUNT) {
-                    retryCount++;
-                    Log.d(TAG, "重试连接，第" + retryCount + "次");
-                    // 稍微延迟后再重试
-                    handler.postDelayed(() -> connect(device), 500);
-                } else {
-                    retryCount = 0;
+                disconnectOnIoThread();
+
+                // 尝试重新连接，稍微延迟后再重试
+                if (!retryConnect(500)) {
                     notifyError("连接超时，请重试");
                 }
             }
         }, CONNECTION_TIMEOUT);
     }
 
+    // 重新连接上次的设备，超过重试次数或没有可重试的设备时返回false
+    private boolean retryConnect(long delayMs) {
+        BluetoothDevice device = targetDevice;
+        if (device == null || retryCount >= MAX_RETRY_COUNT) {
+            retryCount = 0;
+            return false;
+        }
+
+        retryCount++;
+        Log.d(TAG, "重试连接，第" + retryCount + "次");
+        handler.postDelayed(() -> connectOnIoThread(device), delayMs);
+        return true;
+    }
+
     public void disconnect() {
+        runOnIoThread(this::disconnectOnIoThread);
+    }
+
+    private void disconnectOnIoThread() {
         // 清除任何可能的超时任务
         handler.removeCallbacks(writeTimeoutRunnable);
+        handler.removeCallbacks(startResponseTimeoutRunnable);
+        handler.removeCallbacks(creditTimeoutRunnable);
+        handler.removeCallbacks(endResponseTimeoutRunnable);
+
+        // 传输被中断时保存确认进度，续传会话保留到重新连接
+        TransferCallback interruptedCallback = imageData != null ? transferCallback : null;
+        if (imageData != null && session != null) {
+            session.setConfirmedOffset(ackedBytes);
+            session.saveProgress(context);
+        }
+        if (transport != null) {
+            pacer.save(context);
+        }
+        imageData = null;
+        transferCallback = null;
 
-        commandQueue.clear();
+        failPendingCommands(new IllegalStateException("连接已断开"));
+        reassembler.clear();
         isProcessingCommand = false;
+        sequencedCommands = true;
+        batchCommands = true;
         isWriteInProgress = false;
-
-        if (bluetoothGatt != null) {
-            bluetoothGatt.disconnect();
-            bluetoothGatt.close();
-            bluetoothGatt = null;
+        awaitingStartResponse = false;
+        awaitingEndResponse = false;
+        resuming = false;
+        negotiatedMtu = Constants.DEFAULT_MTU;
+        chunkSize = chunkSizeForMtu(negotiatedMtu);
+        txPhy = GattTransport.PHY_LE_1M;
+        rxPhy = GattTransport.PHY_LE_1M;
+        connectionInterval = 0;
+
+        if (transport != null) {
+            transport.close();
+            transport = null;
         }
 
-        targetService = null;
-        commandCharacteristic = null;
-        dataCharacteristic = null;
-
         if (currentState != State.DISCONNECTED) {
             setState(State.DISCONNECTED);
+            BleCallback callback = this.callback;
             if (callback != null) {
-                handler.post(() -> callback.onDisconnected());
+                postToMain(() -> callback.onDisconnected());
             }
+        } else {
+            publishSnapshot();
+        }
+
+        if (interruptedCallback != null) {
+            String message = session != null ? "连接断开，重新连接后将继续传输" : "连接断开";
+            postToMain(() -> interruptedCallback.onError(message));
         }
     }
 
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+    private final GattTransport.Listener transportListener = new GattTransport.Listener() {
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    setState(State.DISCOVERING);
-                    retryCount = 0;
-
-                    handler.post(() -> {
-                        if (bluetoothGatt != null) {
-                            bluetoothGatt.discoverServices();
-                        }
-                    });
-                } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                    disconnect();
-                }
-            } else {
-                disconnect();
+        public void onLinkUp() {
+            setState(State.DISCOVERING);
+            retryCount = 0;
+        }
 
-                if (retryCount < MAX_RETRY_COUNT) {
-                    retryCount++;
-                    BluetoothDevice device = gatt.getDevice();
-                    handler.postDelayed(() -> connect(device), 1000);
-                } else {
-                    retryCount = 0;
-                    notifyError("连接失败");
-                }
+        @Override
+        public void onReady() {
+            setState(State.CONNECTED);
+            BleCallback callback = BleManager.this.callback;
+            if (callback != null) {
+                postToMain(() -> callback.onConnected());
             }
         }
 
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "服务发现完成");
-
-                // 列出所有发现的服务，用于调试
-                List<BluetoothGattService> services = gatt.getServices();
-                Log.d(TAG, "发现" + services.size() + "个服务:");
-                for (BluetoothGattService service : services) {
-                    Log.d(TAG, "服务: " + service.getUuid().toString());
-                    for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
-                        Log.d(TAG, "  特征: " + characteristic.getUuid().toString() +
-                                " 属性: " + characteristic.getProperties());
-                    }
+        public void onTransportError(String message) {
+            disconnectOnIoThread();
+            notifyError(message);
+        }
+
+        @Override
+        public void onDisconnected(boolean failed) {
+            disconnectOnIoThread();
+
+            if (failed && !retryConnect(1000)) {
+                notifyError("连接失败");
+            }
+        }
+
+        @Override
+        public void onNotification(byte[] response) {
+            // 信用确认只用于流控，不记录日志也不转发
+            if (isCreditNotification(response)) {
+                handleCreditNotification(response);
+                return;
+            }
+
+            LogUtil.logHex("收到特征通知", response);
+
+            // 旧固件不认识带序号的命令，按未知命令返回 [命令ID|0x80, 一般错误, 0]
+            if (response.length == 3 && (response[0] & Constants.CommandID.CMD_SEQ_FLAG) != 0) {
+                fallbackToLegacyCommand((byte) (response[0] & ~Constants.CommandID.CMD_SEQ_FLAG));
+                return;
+            }
+
+            CommandResponse parsed;
+            if (ResponseReassembler.isFragment(response)) {
+                parsed = reassembler.accept(response);
+                if (parsed == null) {
+                    // 等待剩余分片
+                    return;
                 }
+            } else {
+                parsed = CommandResponse.parse(response);
+                if (parsed == null) {
+                    Log.w(TAG, "响应数据格式错误");
+                    return;
+                }
+            }
 
-                // 查找目标服务
-                targetService = gatt.getService(UUID.fromString(Constants.SERVICE_UUID));
-                if (targetService != null) {
-                    Log.d(TAG, "找到目标服务: " + Constants.SERVICE_UUID);
-
-                    // 获取命令特征
-                    commandCharacteristic = targetService.getCharacteristic(
-                            UUID.fromString(Constants.CHAR_COMMAND_UUID));
-
-                    // 获取数据特征
-                    dataCharacteristic = targetService.getCharacteristic(
-                            UUID.fromString(Constants.CHAR_DATA_UUID));
-
-                    if (commandCharacteristic != null && dataCharacteristic != null) {
-                        Log.d(TAG, "找到所需特征，启用通知");
-
-                        // 设置MTU大小，提高传输效率
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                            bluetoothGatt.requestMtu(512);
-                            Log.d(TAG, "请求MTU大小: 512");
-                        }
-
-                        // 启用命令特征的通知
-                        enableNotification(commandCharacteristic);
-                    } else {
-                        Log.e(TAG, "未找到所需特征，commandChar=" + (commandCharacteristic != null) +
-                                ", dataChar=" + (dataCharacteristic != null));
-                        disconnect();
-                        notifyError("设备不兼容，未找到所需特征");
-                    }
-                } else {
-                    Log.e(TAG, "未找到目标服务: " + Constants.SERVICE_UUID);
-
-                    // 尝试使用BLe.py中的服务UUID
-                    String altServiceUuid = "4fafc201-1fb5-459e-8fcc-c5c9c331914b";
-                    Log.d(TAG, "尝试替代服务UUID: " + altServiceUuid);
-                    targetService = gatt.getService(UUID.fromString(altServiceUuid));
-
-                    if (targetService != null) {
-                        Log.d(TAG, "使用替代UUID找到服务");
-                        // 尝试查找特征
-                        commandCharacteristic = targetService.getCharacteristic(
-                                UUID.fromString(Constants.CHAR_COMMAND_UUID));
-                        dataCharacteristic = targetService.getCharacteristic(
-                                UUID.fromString(Constants.CHAR_DATA_UUID));
-
-                        if (commandCharacteristic != null && dataCharacteristic != null) {
-                            enableNotification(commandCharacteristic);
-                        } else {
-                            disconnect();
-                            notifyError("设备不兼容，未找到所需特征");
-                        }
-                    } else {
-                        disconnect();
-                        notifyError("设备不兼容，未找到目标服务");
-                    }
+            handleCommandResponse(parsed);
+        }
+
+        private void handleCommandResponse(CommandResponse parsed) {
+            // 传输相关的响应先由传输流程处理，批量响应逐个检查其中的子响应
+            if (parsed.getCommandId() == Constants.CommandID.CMD_BATCH) {
+                for (CommandResponse sub : CommandResponse.parseBatch(parsed.getPayload())) {
+                    dispatchTransferResponse(sub.toLegacyFrame());
                 }
             } else {
-                Log.e(TAG, "服务发现失败: " + status);
-                disconnect();
-                notifyError("服务发现失败");
+                dispatchTransferResponse(parsed.toLegacyFrame());
+            }
+
+            PendingCommand pending = takeInFlightCommand(parsed);
+            if (pending != null) {
+                handler.removeCallbacks(pending.timeoutTask);
+                pending.future.complete(parsed);
+                processCommandQueue();
+            } else {
+                BleCallback callback = BleManager.this.callback;
+                if (callback != null) {
+                    postToMain(() -> callback.onCommandResponse(parsed));
+                }
             }
         }
 
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            // 处理命令特征的通知回调
-            if (characteristic.getUuid().equals(UUID.fromString(Constants.CHAR_COMMAND_UUID))) {
-                byte[] response = characteristic.getValue();
-                if (response != null && response.length > 0) {
-                    LogUtil.logHex("收到特征通知", response);
-                    if (callback != null) {
-                        handler.post(() -> callback.onCommandResponse(response));
-                    }
+        private void dispatchTransferResponse(byte[] frame) {
+            if (frame[0] == Constants.CommandID.CMD_START_TRANSFER ||
+                    frame[0] == Constants.CommandID.CMD_RESUME_TRANSFER) {
+                handleStartTransferResponse(frame);
+            } else if (frame[0] == Constants.CommandID.CMD_END_TRANSFER) {
+                if (awaitingEndResponse) {
+                    handleEndTransferResponse(frame);
+                } else {
+                    // 设备已完成（或丢弃）临时文件，会话不再可续传
+                    discardPendingTransfer();
                 }
             }
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        public void onDataWritten(boolean success) {
             // 移除写超时处理
             handler.removeCallbacks(writeTimeoutRunnable);
+            recordWriteResult(success);
             isWriteInProgress = false;
 
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "特征写入成功: " + characteristic.getUuid().toString());
-            } else {
-                Log.e(TAG, "特征写入失败: " + characteristic.getUuid().toString() + " 状态: " + status);
+            if (transferMode == TransferMode.ACKED && success && imageData != null) {
+                // 有响应写入成功即表示设备已收到该块
+                ackedBytes = sentBytes;
+                recordProgress();
             }
 
-            if (characteristic.getUuid().equals(UUID.fromString(Constants.CHAR_DATA_UUID))) {
+            if (transferMode == TransferMode.STREAMING) {
+                // 流式模式由信用窗口限速，写入被协议栈接受后立即发送下一包
+                handler.post(() -> continueImageTransfer());
+            } else {
                 // 数据特征写入完成，稍微延迟后继续发送下一包数据
-                handler.postDelayed(() -> continueImageTransfer(), WRITE_DELAY);
-            } else if (characteristic.getUuid().equals(UUID.fromString(Constants.CHAR_COMMAND_UUID))) {
-                // 命令特征写入完成，处理命令队列
-                isProcessingCommand = false;
-                handler.postDelayed(() -> processCommandQueue(), WRITE_DELAY);
+                handler.postDelayed(() -> continueImageTransfer(), pacer.getDelayMs());
             }
         }
 
         @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            // 描述符写入完成，表示通知已启用
-            Log.d(TAG, "描述符写入完成，状态: " + status);
+        public void onCommandWritten(boolean success) {
+            handler.removeCallbacks(writeTimeoutRunnable);
+            recordWriteResult(success);
+            isWriteInProgress = false;
 
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "通知启用成功");
-                setState(State.CONNECTED);
-                if (callback != null) {
-                    handler.post(() -> callback.onConnected());
-                }
-            } else {
-                Log.e(TAG, "启用通知失败: " + status);
+            // 命令特征写入完成，处理命令队列
+            isProcessingCommand = false;
+            handler.postDelayed(() -> processCommandQueue(), pacer.getDelayMs());
+        }
 
-                // 尝试直接进入已连接状态，某些设备可能不需要描述符写入
-                Log.d(TAG, "尽管描述符写入失败，但尝试继续操作");
-                setState(State.CONNECTED);
-                if (callback != null) {
-                    handler.post(() -> callback.onConnected());
-                }
+        @Override
+        public void onMtuChanged(int mtu) {
+            // 传输过程中MTU变化时，下一块数据立即使用新的块大小
+            negotiatedMtu = mtu;
+            chunkSize = chunkSizeForMtu(mtu);
+            publishSnapshot();
+            LogUtil.log("MTU: " + mtu + "，数据块大小: " + chunkSize + " 字节");
+        }
+
+        @Override
+        public void onPhyUpdate(int newTxPhy, int newRxPhy, boolean success) {
+            if (success) {
+                txPhy = newTxPhy;
+                rxPhy = newRxPhy;
+                publishSnapshot();
+                LogUtil.log("PHY: 发送 " + getPhyName(txPhy) + "，接收 " + getPhyName(rxPhy));
+            } else {
+                // 对端拒绝时链路保持原PHY
+                Log.w(TAG, "PHY切换被拒绝，继续使用 " + getPhyName(txPhy));
             }
         }
 
         @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            Log.d(TAG, "MTU变更: " + mtu + " 状态: " + status);
+        public void onConnectionUpdated(int interval, int latency, int timeout, boolean success) {
+            if (success) {
+                connectionInterval = interval;
+                publishSnapshot();
+                Log.d(TAG, "连接参数更新: 间隔=" + (interval * 1.25f) + "ms, 延迟=" +
+                        latency + ", 超时=" + (timeout * 10) + "ms");
+            } else {
+                Log.w(TAG, "连接参数更新失败");
+            }
         }
     };
 
-    // 启用特征通知
-    private void enableNotification(BluetoothGattCharacteristic characteristic) {
-        if (bluetoothGatt == null || characteristic == null) {
-            Log.e(TAG, "enableNotification: bluetoothGatt或characteristic为空");
-            return;
+    // ==== 命令发送与数据传输 ====
+
+    // 发送命令，不关心响应
+    public boolean sendCommand(byte[] command) {
+        State state = snapshot.getState();
+        if (state != State.CONNECTED && state != State.TRANSMITTING) {
+            Log.e(TAG, "发送命令失败: 设备未连接");
+            return false;
         }
 
-        // 添加详细日志，帮助调试
-        Log.d(TAG, "启用特征通知: " + characteristic.getUuid().toString());
+        submit(command, COMMAND_TIMEOUT);
+        return true;
+    }
 
-        // 首先设置本地通知
-        boolean success = bluetoothGatt.setCharacteristicNotification(characteristic, true);
-        if (!success) {
-            Log.e(TAG, "启用特征通知失败");
-            notifyError("启用特征通知失败");
-            disconnect();
-            return;
-        }
+    /**
+     * 发送命令并等待对应的响应
+     * 命令带序号发送，可以同时有多条命令等待响应；future在主线程完成，
+     * 设备返回错误状态码时正常完成（由调用方检查isSuccess），超时或连接断开时异常结束
+     *
+     * @param command CommandHandler生成的命令帧
+     * @return 响应future
+     */
+    public CompletableFuture<CommandResponse> request(byte[] command) {
+        return request(command, COMMAND_TIMEOUT);
+    }
 
-        // 获取配置描述符
-        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
-        if (descriptor != null) {
-            Log.d(TAG, "找到配置描述符，设置通知值");
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+    // 指定超时时间(ms)发送命令
+    public CompletableFuture<CommandResponse> request(byte[] command, long timeoutMs) {
+        CompletableFuture<CommandResponse> result = new CompletableFuture<>();
+        submit(command, timeoutMs).whenComplete((response, error) -> completeOnMain(result, response, error));
+        return result;
+    }
 
-            // 延迟100ms再写入描述符，解决某些设备的兼容性问题
-            handler.postDelayed(() -> {
-                if (bluetoothGatt != null) {
-                    bluetoothGatt.writeDescriptor(descriptor);
-                    Log.d(TAG, "写入通知描述符");
-                }
-            }, 100);
-        } else {
-            Log.e(TAG, "未找到配置描述符");
+    // 命令入队，返回的future在I/O线程完成；可在任意线程调用
+    private CompletableFuture<CommandResponse> submit(byte[] command, long timeoutMs) {
+        PendingCommand pending = new PendingCommand(command);
+        pending.timeoutTask = () -> timeoutCommand(pending);
 
-            // 对于某些特殊设备，可能没有描述符但能正常工作，尝试直接设置连接状态
-            Log.d(TAG, "尝试直接设置为已连接状态");
-            setState(State.CONNECTED);
-            if (callback != null) {
-                handler.post(() -> callback.onConnected());
+        runOnIoThread(() -> {
+            if (currentState != State.CONNECTED && currentState != State.TRANSMITTING) {
+                pending.future.completeExceptionally(new IllegalStateException("设备未连接"));
+                return;
             }
-        }
+
+            // 超时从入队开始计算，包括排队等待写入的时间
+            handler.postDelayed(pending.timeoutTask, timeoutMs);
+            commandQueue.add(pending);
+            processCommandQueue();
+        });
+        return pending.future;
     }
 
-    // ==== 命令发送与数据传输 ====
+    // 在主线程完成调用方的future，调用方可以直接更新界面
+    private <T> void completeOnMain(CompletableFuture<T> future, T value, Throwable error) {
+        mainHandler.post(() -> {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(value);
+            }
+        });
+    }
 
-    // 发送命令
-    public boolean sendCommand(byte[] command) {
-        if (currentState != State.CONNECTED && currentState != State.TRANSMITTING) {
-            Log.e(TAG, "发送命令失败: 设备未连接");
+    /**
+     * 把多条命令合并为一个批量命令发送，设备依次执行后返回一个合并响应，只需一次往返
+     * 设备不支持批量命令时改为逐条发送（仍然不必等待上一条的响应）；future在主线程完成
+     *
+     * @param commands CommandHandler生成的命令帧，只能是结束传输、删除、重排、获取列表、设置显示和获取状态
+     * @return 与commands一一对应的响应
+     */
+    public CompletableFuture<List<CommandResponse>> requestBatch(byte[]... commands) {
+        return requestBatch(COMMAND_TIMEOUT, commands);
+    }
+
+    // 指定超时时间(ms)发送批量命令
+    public CompletableFuture<List<CommandResponse>> requestBatch(long timeoutMs, byte[]... commands) {
+        CompletableFuture<List<CommandResponse>> result = new CompletableFuture<>();
+        runOnIoThread(() -> submitBatch(timeoutMs, commands)
+                .whenComplete((responses, error) -> completeOnMain(result, responses, error)));
+        return result;
+    }
+
+    // 批量命令入队，只在I/O线程调用，返回的future在I/O线程完成
+    private CompletableFuture<List<CommandResponse>> submitBatch(long timeoutMs, byte[]... commands) {
+        if (!canBatch(commands)) {
+            return submitEach(timeoutMs, commands);
+        }
+
+        return submit(CommandHandler.cmdBatch(commands), timeoutMs).thenCompose(response -> {
+            // 旧固件按未知命令返回一般错误且没有负载
+            if (response.getStatusCode() == Constants.ResponseCode.RESP_GENERAL_ERROR &&
+                    response.getPayload().length == 0) {
+                if (batchCommands) {
+                    LogUtil.log("设备不支持批量命令，逐条发送");
+                    batchCommands = false;
+                }
+                return submitEach(timeoutMs, commands);
+            }
+
+            List<CommandResponse> responses = CommandResponse.parseBatch(response.getPayload());
+            if (!response.isSuccess() || responses.size() != commands.length) {
+                CompletableFuture<List<CommandResponse>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("批量命令失败: " + response.getStatusName()));
+                return failed;
+            }
+            return CompletableFuture.completedFuture(responses);
+        });
+    }
+
+    private boolean canBatch(byte[]... commands) {
+        if (!batchCommands || commands.length < 2 || commands.length > Constants.MAX_BATCH_COMMANDS) {
             return false;
         }
+        // 合并响应可能超过一个通知，需要按序号重组分片
+        if (!sequencedCommands) {
+            return false;
+        }
+        int length = 0;
+        for (byte[] command : commands) {
+            length += command.length;
+        }
+        return length <= 0xFF;
+    }
 
-        commandQueue.add(command);
-        processCommandQueue();
-        return true;
+    // 逐条发送，全部响应到达后按顺序返回
+    private CompletableFuture<List<CommandResponse>> submitEach(long timeoutMs, byte[]... commands) {
+        List<CompletableFuture<CommandResponse>> futures = new ArrayList<>();
+        for (byte[] command : commands) {
+            futures.add(submit(command, timeoutMs));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<CommandResponse> responses = new ArrayList<>();
+            for (CompletableFuture<CommandResponse> future : futures) {
+                responses.add(future.join());
+            }
+            return responses;
+        });
     }
 
-    // 处理命令队列
+    // 处理命令队列：一次只有一个GATT写入，但写入完成后不必等待响应即可发送下一条
     private void processCommandQueue() {
-        if (isProcessingCommand || commandQueue.isEmpty() || bluetoothGatt == null ||
-                commandCharacteristic == null || isWriteInProgress) {
+        if (isProcessingCommand || commandQueue.isEmpty() || transport == null ||
+                isWriteInProgress || inFlightCommands.size() >= MAX_COMMANDS_IN_FLIGHT) {
             return;
         }
 
         isProcessingCommand = true;
-        byte[] command = commandQueue.poll();
+        PendingCommand pending = commandQueue.poll();
+
+        if (pending != null) {
+            byte[] frame = pending.command;
+            if (sequencedCommands) {
+                pending.sequence = allocateSequence();
+                frame = CommandHandler.withSequence(pending.command, pending.sequence);
+            } else {
+                pending.sequence = 0;
+            }
 
-        if (command != null) {
             // 标记写入进行中
             isWriteInProgress = true;
 
             // 设置写入超时处理
-            handler.postDelayed(writeTimeoutRunnable, WRITE_TIMEOUT);
+            markWriteStarted(true);
+            handler.postDelayed(writeTimeoutRunnable, pacer.getTimeoutMs());
 
-            commandCharacteristic.setValue(command);
-            boolean writeSuccess = bluetoothGatt.writeCharacteristic(commandCharacteristic);
+            boolean writeSuccess = transport.writeCommand(frame);
 
             if (!writeSuccess) {
                 Log.e(TAG, "写入命令特征失败，稍后重试");
+                handler.removeCallbacks(writeTimeoutRunnable);
+                pacer.onWriteRejected();
                 isWriteInProgress = false;
                 isProcessingCommand = false;
-                handler.postDelayed(this::processCommandQueue, 100);
+                commandQueue.addFirst(pending);
+                handler.postDelayed(this::processCommandQueue, pacer.getRetryDelayMs());
+            } else {
+                inFlightCommands.add(pending);
             }
         } else {
             isProcessingCommand = false;
         }
     }
 
-    // 发送图片数据
+    // 分配1~255之间未被占用的序号
+    private int allocateSequence() {
+        for (int i = 0; i < 255; i++) {
+            int sequence = nextSequence;
+            nextSequence = nextSequence % 255 + 1;
+            boolean used = false;
+            for (PendingCommand pending : inFlightCommands) {
+                if (pending.sequence == sequence) {
+                    used = true;
+                    break;
+                }
+            }
+            if (!used) {
+                return sequence;
+            }
+        }
+        return nextSequence;
+    }
+
+    // 找到响应对应的命令：序号帧按序号匹配，旧格式响应按命令ID匹配最早发出的命令
+    private PendingCommand takeInFlightCommand(CommandResponse response) {
+        for (int i = 0; i < inFlightCommands.size(); i++) {
+            PendingCommand pending = inFlightCommands.get(i);
+            boolean matched = response.getSequence() != CommandResponse.NO_SEQUENCE ?
+                    pending.sequence == response.getSequence() :
+                    pending.sequence == 0 && pending.getCommandId() == response.getCommandId();
+            if (matched) {
+                return inFlightCommands.remove(i);
+            }
+        }
+        return null;
+    }
+
+    // 旧固件拒绝了带序号的命令，之后改用旧格式并重发该命令
+    private void fallbackToLegacyCommand(byte commandId) {
+        if (sequencedCommands) {
+            LogUtil.log("设备不支持带序号的命令，使用旧格式");
+            sequencedCommands = false;
+        }
+        for (int i = 0; i < inFlightCommands.size(); i++) {
+            PendingCommand pending = inFlightCommands.get(i);
+            if (pending.sequence != 0 && pending.getCommandId() == commandId) {
+                inFlightCommands.remove(i);
+                commandQueue.addFirst(pending);
+                break;
+            }
+        }
+        processCommandQueue();
+    }
+
+    private void timeoutCommand(PendingCommand pending) {
+        if (!inFlightCommands.remove(pending) && !commandQueue.remove(pending)) {
+            return;
+        }
+        if (pending.sequence != 0) {
+            reassembler.discard(pending.sequence);
+        }
+        String name = Constants.getCommandName(pending.getCommandId());
+        Log.w(TAG, name + "响应超时");
+        pending.future.completeExceptionally(new TimeoutException(name + "响应超时"));
+        processCommandQueue();
+    }
+
+    // 连接断开时结束所有等待中的命令
+    private void failPendingCommands(Exception reason) {
+        List<PendingCommand> pendingCommands = new ArrayList<>(inFlightCommands);
+        pendingCommands.addAll(commandQueue);
+        inFlightCommands.clear();
+        commandQueue.clear();
+        for (PendingCommand pending : pendingCommands) {
+            handler.removeCallbacks(pending.timeoutTask);
+            pending.future.completeExceptionally(reason);
+        }
+    }
+
+    private void markWriteStarted(boolean withResponse) {
+        writeStartTime = SystemClock.elapsedRealtime();
+        writeWithResponse = withResponse;
+    }
+
+    // 有响应写入的回调延迟交给pacer学习；无响应写入的回调只表示协议栈已接受，不计入
+    private void recordWriteResult(boolean success) {
+        if (!isWriteInProgress) {
+            // 超时后才到达的回调，已在超时时计入
+            return;
+        }
+        if (!success) {
+            pacer.onWriteRejected();
+        } else if (writeWithResponse) {
+            pacer.onWriteComplete(SystemClock.elapsedRealtime() - writeStartTime);
+        }
+    }
+
+    // 发送图片数据，回调在主线程执行
     public void sendImageData(byte[] data, TransferCallback callback) {
+        runOnIoThread(() -> sendImageDataOnIoThread(data != null ? ByteBuffer.wrap(data) : null, callback));
+    }
+
+    /**
+     * 发送文件中的图片数据，回调在主线程执行
+     * 需要先调用startImageTransfer(fileIndex, format, file)，数据从续传会话映射的文件中读取，不整体载入内存
+     */
+    public void sendImageData(File file, TransferCallback callback) {
+        runOnIoThread(() -> {
+            if (session == null || sessionData == null) {
+                postToMain(() -> callback.onError("待传文件不可用: " + file.getName()));
+                return;
+            }
+            sendImageDataOnIoThread(sessionData, callback);
+        });
+    }
+
+    private void sendImageDataOnIoThread(ByteBuffer data, TransferCallback callback) {
         if (currentState != State.CONNECTED) {
             if (callback != null) {
-                try {
-                    callback.onError("设备未连接");
-                } catch (Exception e) {
-                    Log.e(TAG, "回调执行异常: " + e.getMessage(), e);
-                }
+                postToMain(() -> callback.onError("设备未连接"));
             }
             return;
         }
 
-        // 重置状态
+        // 重置状态，有传输会话时发送会话中的数据（可能已压缩）
         setState(State.TRANSMITTING);
-        imageData = data;
+        imageData = (session != null && sessionData != null) ? sessionData : data;
         transferOffset = 0;
 
         // 安全地设置回调
@@ -631,11 +1234,7 @@ public class BleManager {
 
         // 如果有旧的回调，需要清理
         if (oldCallback != null) {
-            try {
-                oldCallback.onError("传输被新的请求中断");
-            } catch (Exception e) {
-                Log.e(TAG, "清理旧回调时发生异常: " + e.getMessage(), e);
-            }
+            postToMain(() -> oldCallback.onError("传输被新的请求中断"));
         }
 
         // 确保没有写入操作在进行中
@@ -644,37 +1243,223 @@ public class BleManager {
         // 移除可能存在的超时任务
         handler.removeCallbacks(writeTimeoutRunnable);
 
+        // 等待设备确认开始传输后再发送数据，以便协商传输模式
+        if (awaitingStartResponse) {
+            Log.d(TAG, "等待设备确认开始传输");
+            return;
+        }
+
         // 开始传输
+        beginImageTransfer();
+    }
+
+    // 按协商好的模式从resumeOffset开始发送数据
+    private void beginImageTransfer() {
+        transferOffset = resumeOffset;
+        sendEnd = imageData.limit();
+        retransmitRanges.clear();
+        sentBytes = resumeOffset;
+        ackedBytes = resumeOffset;
+        savedOffset = resumeOffset;
+        transferStartTime = SystemClock.elapsedRealtime();
+        resetProgress();
+        LogUtil.log("开始发送数据" + (resumeOffset > 0 ? "，从第 " + resumeOffset + " 字节续传" : "") +
+                "，模式: " + transferMode +
+                (transferMode == TransferMode.STREAMING ? "，信用窗口: " + creditWindow + " 字节" : ""));
         continueImageTransfer();
     }
 
-    // 继续发送图片数据
-    private void continueImageTransfer() {
-        if (imageData == null || dataCharacteristic == null || bluetoothGatt == null) {
-            return;
+    // 定期持久化确认偏移量
+    private void recordProgress() {
+        if (session != null && ackedBytes - savedOffset >= SESSION_SAVE_INTERVAL) {
+            session.setConfirmedOffset(ackedBytes);
+            session.saveProgress(context);
+            savedOffset = ackedBytes;
+        }
+    }
+
+    // 请求的传输标志位
+    private byte requestedFlags() {
+        byte flags = Constants.TransferFlag.FLAG_SEQ;
+        if (preferredMode == TransferMode.STREAMING) {
+            flags |= Constants.TransferFlag.FLAG_STREAM;
+        }
+        if (session != null && session.isCompressed()) {
+            flags |= Constants.TransferFlag.FLAG_DEFLATE;
         }
+        return flags;
+    }
+
+    // 等待设备确认开始传输（或续传）
+    private void expectStartResponse() {
+        awaitingStartResponse = true;
+        awaitingEndResponse = false;
+        sequencedFrames = false;
+        transferMode = TransferMode.ACKED;
+        creditWindow = Constants.DEFAULT_STREAM_WINDOW;
+        resumeOffset = 0;
+        handler.removeCallbacks(startResponseTimeoutRunnable);
+        handler.postDelayed(startResponseTimeoutRunnable, START_RESPONSE_TIMEOUT);
+    }
 
-        // 检查是否传输完成
-        if (transferOffset >= imageData.length) {
-            Log.d(TAG, "图片数据传输完成");
+    // 设备无法续传时（没有匹配的临时文件或旧固件），从头重新发送当前会话
+    private void restartTransfer() {
+        resuming = false;
+        session.setConfirmedOffset(0);
+        session.saveProgress(context);
+        if (sendCommand(CommandHandler.cmdStartTransfer(session.getCombinedIndex(), requestedFlags(),
+                session.getTotalSize(), session.getCrc32(), session.getRawSize()))) {
+            expectStartResponse();
+        } else {
+            failImageTransfer("重新开始传输失败");
+        }
+    }
 
-            // 保存回调引用，避免并发问题
-            TransferCallback callback = transferCallback;
+    // 把压缩的会话换回原始数据，无法解压时终止传输并返回false
+    private boolean useUncompressedPayload() {
+        byte[] raw;
+        try {
+            raw = PayloadCompressor.inflate(TransferSession.toArray(sessionData), session.getRawSize());
+        } catch (DataFormatException e) {
+            failImageTransfer("恢复原始数据失败: " + e.getMessage());
+            return false;
+        }
+
+        LogUtil.log("设备不支持压缩传输，改为发送原始数据");
+        session = TransferSession.create(session.getCombinedIndex(), raw);
+        sessionData = ByteBuffer.wrap(raw);
+        if (imageData != null) {
+            imageData = sessionData;
+        }
+        if (!session.save(context, raw)) {
+            Log.w(TAG, "保存传输会话失败，应用重启后无法续传");
+        }
+        return true;
+    }
 
-            // 先清空成员变量，然后再调用回调，避免回调中可能导致的递归调用
-            imageData = null;
-            transferCallback = null;
+    // 终止当前传输并通知错误
+    private void failImageTransfer(String message) {
+        TransferCallback callback = transferCallback;
+        imageData = null;
+        transferCallback = null;
+        resuming = false;
+        discardPendingTransfer();
+        handler.removeCallbacks(creditTimeoutRunnable);
+        handler.removeCallbacks(endResponseTimeoutRunnable);
+        awaitingEndResponse = false;
+        if (currentState == State.TRANSMITTING) {
             setState(State.CONNECTED);
+        }
 
-            // 使用保存的局部变量引用安全调用回调
-            if (callback != null) {
-                handler.post(() -> {
-                    try {
-                        callback.onComplete();
-                    } catch (Exception e) {
-                        Log.e(TAG, "回调执行异常: " + e.getMessage(), e);
-                    }
-                });
+        Log.e(TAG, message);
+        if (callback != null) {
+            postToMain(() -> callback.onError(message));
+        }
+    }
+
+    // 处理开始传输/续传响应，协商传输模式
+    // 响应负载：[接受的标志位(1字节), 信用窗口(2字节), 已提交字节数(4字节)]，小端序，旧固件只有前3字节或无负载
+    private void handleStartTransferResponse(byte[] response) {
+        if (!awaitingStartResponse) {
+            return;
+        }
+        awaitingStartResponse = false;
+        handler.removeCallbacks(startResponseTimeoutRunnable);
+
+        boolean isResume = response[0] == Constants.CommandID.CMD_RESUME_TRANSFER;
+        if (isResume && response[1] != Constants.ResponseCode.RESP_SUCCESS) {
+            Log.d(TAG, "设备无法续传(" + Constants.ResponseCode.getStatusName(response[1]) + ")，重新开始传输");
+            restartTransfer();
+            return;
+        }
+
+        if (response[1] != Constants.ResponseCode.RESP_SUCCESS) {
+            failImageTransfer("设备拒绝开始传输: " +
+                    Constants.ResponseCode.getStatusName(response[1]));
+            return;
+        }
+
+        int payloadLength = response[2] & 0xFF;
+        if (payloadLength >= 3 && response.length >= 6 &&
+                (response[3] & Constants.TransferFlag.FLAG_STREAM) != 0) {
+            transferMode = TransferMode.STREAMING;
+            creditWindow = (response[4] & 0xFF) | ((response[5] & 0xFF) << 8);
+        } else {
+            transferMode = TransferMode.ACKED;
+        }
+        sequencedFrames = payloadLength >= 1 && (response[3] & Constants.TransferFlag.FLAG_SEQ) != 0;
+
+        // 设备未接受压缩标志时，改为发送原始数据并重新开始
+        if (session != null && session.isCompressed() &&
+                (payloadLength < 1 || (response[3] & Constants.TransferFlag.FLAG_DEFLATE) == 0)) {
+            if (useUncompressedPayload()) {
+                restartTransfer();
+            }
+            return;
+        }
+        Log.d(TAG, "传输模式协商完成: " + transferMode + (sequencedFrames ? "，序号数据帧" : ""));
+
+        if (isResume) {
+            resuming = false;
+            if (payloadLength < 7 || response.length < 10) {
+                restartTransfer();
+                return;
+            }
+            int committed = (response[6] & 0xFF) |
+                    ((response[7] & 0xFF) << 8) |
+                    ((response[8] & 0xFF) << 16) |
+                    ((response[9] & 0xFF) << 24);
+            resumeOffset = Math.max(0, Math.min(committed, session.getTotalSize()));
+            LogUtil.log("设备已提交 " + resumeOffset + "/" + session.getTotalSize() + " 字节，继续传输");
+        }
+
+        if (currentState == State.TRANSMITTING && imageData != null) {
+            beginImageTransfer();
+        }
+    }
+
+    // 判断是否为信用确认通知：[CMD_IMAGE_DATA, 成功, 4, 已写入字节数(4字节，小端序)]
+    private boolean isCreditNotification(byte[] response) {
+        return response.length >= 7 &&
+                response[0] == Constants.CommandID.CMD_IMAGE_DATA &&
+                response[1] == Constants.ResponseCode.RESP_SUCCESS &&
+                response[2] == 4;
+    }
+
+    // 处理信用确认，推进流控窗口
+    private void handleCreditNotification(byte[] response) {
+        int committed = (response[3] & 0xFF) |
+                ((response[4] & 0xFF) << 8) |
+                ((response[5] & 0xFF) << 16) |
+                ((response[6] & 0xFF) << 24);
+
+        if (committed > ackedBytes) {
+            ackedBytes = committed;
+            recordProgress();
+            handler.removeCallbacks(creditTimeoutRunnable);
+            if (transferMode == TransferMode.STREAMING && currentState == State.TRANSMITTING) {
+                continueImageTransfer();
+            }
+        }
+    }
+
+    // 继续发送图片数据
+    private void continueImageTransfer() {
+        if (imageData == null || transport == null) {
+            return;
+        }
+
+        // 当前区间发送完后，继续发送设备要求重传的区间
+        while (transferOffset >= sendEnd && !retransmitRanges.isEmpty()) {
+            int[] range = retransmitRanges.poll();
+            transferOffset = range[0];
+            sendEnd = range[1];
+        }
+
+        // 数据全部发出后，由设备检查缺失区间和CRC32
+        if (transferOffset >= sendEnd) {
+            if (!awaitingEndResponse && !isWriteInProgress) {
+                requestEndTransfer();
             }
             return;
         }
@@ -685,45 +1470,158 @@ public class BleManager {
             return;
         }
 
-        // 计算当前块大小
-        int chunkSize = Math.min(Constants.CHUNK_SIZE, imageData.length - transferOffset);
-        byte[] chunk = new byte[chunkSize];
-        System.arraycopy(imageData, transferOffset, chunk, 0, chunkSize);
+        // 计算当前块大小（按当前MTU，不超过ATT负载上限，序号模式扣除帧头）
+        int header = sequencedFrames ? Constants.DATA_FRAME_HEADER_SIZE : 0;
+        int size = Math.min(chunkSize - header, sendEnd - transferOffset);
+
+        // 流式模式下，未确认的字节数不能超过设备授予的信用窗口
+        if (transferMode == TransferMode.STREAMING &&
+                sentBytes + size - ackedBytes > creditWindow) {
+            handler.removeCallbacks(creditTimeoutRunnable);
+            handler.postDelayed(creditTimeoutRunnable, CREDIT_TIMEOUT);
+            return;
+        }
+
+        byte[] chunk = new byte[header + size];
+        ByteBuffer source = imageData.duplicate();
+        source.position(transferOffset);
+        source.get(chunk, header, size);
+        if (sequencedFrames) {
+            frameCrc.reset();
+            frameCrc.update(chunk, header, size);
+            ByteBuffer.wrap(chunk, 0, header).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(transferOffset)
+                    .putInt((int) frameCrc.getValue());
+        }
 
         // 标记写入进行中
         isWriteInProgress = true;
 
         // 设置写入超时处理
-        handler.postDelayed(writeTimeoutRunnable, WRITE_TIMEOUT);
+        boolean withResponse = transferMode == TransferMode.ACKED;
+        markWriteStarted(withResponse);
+        handler.postDelayed(writeTimeoutRunnable, pacer.getTimeoutMs());
 
         // 发送数据块
-        dataCharacteristic.setValue(chunk);
-        boolean writeSuccess = bluetoothGatt.writeCharacteristic(dataCharacteristic);
+        boolean writeSuccess = transport.writeData(chunk, withResponse);
 
         if (!writeSuccess) {
             Log.e(TAG, "写入数据特征失败，重试");
+            handler.removeCallbacks(writeTimeoutRunnable);
+            pacer.onWriteRejected();
             isWriteInProgress = false;
-            handler.postDelayed(this::continueImageTransfer, 100);
+            handler.postDelayed(this::continueImageTransfer, pacer.getRetryDelayMs());
             return;
         }
 
-        // 记录当前的偏移量
-        final int currentOffset = transferOffset;
-        transferOffset += chunkSize;
+        transferOffset += size;
+        sentBytes += size;
 
-        // 更新进度
-        if (transferCallback != null) {
-            final int totalSize = imageData.length;
-            handler.post(() -> {
-                try {
-                    // 通过局部变量引用调用回调，避免可能的空指针异常
-                    TransferCallback callback = transferCallback;
-                    if (callback != null) {
-                        callback.onProgress(currentOffset, totalSize);
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "进度回调执行异常: " + e.getMessage(), e);
+        // 更新进度（合并后投递到界面）
+        scheduleProgress();
+    }
+
+    // 数据全部发出，发送结束传输命令
+    private void requestEndTransfer() {
+        Log.d(TAG, "图片数据发送完成，等待设备校验");
+        awaitingEndResponse = true;
+        handler.removeCallbacks(creditTimeoutRunnable);
+        if (currentState != State.TRANSMITTING) {
+            failImageTransfer("发送结束传输命令失败");
+            return;
+        }
+        // 设备收到结束传输后要校验（可能还要解压）整个文件，超时时间由传输流程自己控制
+        // 列表和状态跟在结束传输后面一起请求，设备保存文件后直接返回最新结果
+        submitBatch(END_RESPONSE_TIMEOUT, CommandHandler.cmdEndTransfer(),
+                CommandHandler.cmdGetImageList(), CommandHandler.cmdGetStatus())
+                .thenAccept(this::forwardRefreshResponses);
+        handler.removeCallbacks(endResponseTimeoutRunnable);
+        handler.postDelayed(endResponseTimeoutRunnable, END_RESPONSE_TIMEOUT);
+    }
+
+    // 结束传输的结果由传输流程处理，列表和状态交给界面
+    private void forwardRefreshResponses(List<CommandResponse> responses) {
+        BleCallback callback = this.callback;
+        if (callback == null) {
+            return;
+        }
+        for (int i = 1; i < responses.size(); i++) {
+            CommandResponse response = responses.get(i);
+            postToMain(() -> callback.onCommandResponse(response));
+        }
+    }
+
+    // 处理结束传输响应：成功则完成传输，缺失数据时只重传缺失区间，CRC32不一致时整体重传
+    // 缺失区间负载: [区间数(1字节), {偏移量(4字节), 长度(4字节)}*n]
+    private void handleEndTransferResponse(byte[] response) {
+        awaitingEndResponse = false;
+        handler.removeCallbacks(endResponseTimeoutRunnable);
+        byte status = response[1];
+
+        if (status == Constants.ResponseCode.RESP_SUCCESS) {
+            completeImageTransfer();
+            return;
+        }
+
+        if (status == Constants.ResponseCode.RESP_INCOMPLETE && sequencedFrames && imageData != null) {
+            int count = response.length > 3 ? response[3] & 0xFF : 0;
+            ByteBuffer buffer = ByteBuffer.wrap(response).order(ByteOrder.LITTLE_ENDIAN);
+            int missing = 0;
+            for (int i = 0; i < count && 4 + (i + 1) * 8 <= response.length; i++) {
+                int start = buffer.getInt(4 + i * 8);
+                int end = Math.min(imageData.limit(), start + buffer.getInt(8 + i * 8));
+                if (start >= 0 && start < end) {
+                    retransmitRanges.add(new int[]{start, end});
+                    missing += end - start;
+                }
+            }
+            if (!retransmitRanges.isEmpty()) {
+                LogUtil.log("设备缺少 " + retransmitRanges.size() + " 段数据，重传 " + missing + " 字节");
+                continueImageTransfer();
+                return;
+            }
+        }
+
+        if (status == Constants.ResponseCode.RESP_CRC_ERROR && session != null && crcRetries < MAX_CRC_RETRIES) {
+            crcRetries++;
+            LogUtil.logError("设备CRC32校验失败，重新传输整个文件");
+            restartTransfer();
+            return;
+        }
+
+        failImageTransfer("设备校验文件失败: " + Constants.ResponseCode.getStatusName(status));
+    }
+
+    // 设备确认文件完整，结束本次传输
+    private void completeImageTransfer() {
+        Log.d(TAG, "图片数据传输完成");
+        discardPendingTransfer();
+
+        // 统计本次传输速率
+        TransferStats stats = new TransferStats(transferMode, sentBytes - resumeOffset,
+                SystemClock.elapsedRealtime() - transferStartTime, chunkSize,
+                txPhy, connectionInterval * 1.25f);
+        Log.d(TAG, "传输统计: " + stats + "，" + pacer);
+        pacer.save(context);
+
+        // 保存回调引用，避免并发问题
+        TransferCallback callback = transferCallback;
+        int totalSize = imageData != null ? imageData.limit() : 0;
+
+        // 先清空成员变量，然后再调用回调，避免回调中可能导致的递归调用
+        imageData = null;
+        transferCallback = null;
+        setState(State.CONNECTED);
+
+        // 合并投递的进度可能还没送达或被百分比步长跳过，完成前补一次100%
+        if (callback != null) {
+            TransferProgress finalProgress = new TransferProgress(totalSize, totalSize,
+                    stats.getElapsedMs(), stats.getKilobytesPerSecond() * 1024);
+            postToMain(() -> {
+                if (totalSize > 0) {
+                    callback.onProgress(finalProgress);
                 }
+                callback.onComplete(stats);
             });
         }
     }
@@ -745,12 +1643,181 @@ public class BleManager {
      *
      * @param fileIndex 文件索引
      * @param format 图片格式 (0x00=原始格式, 0x10=JPG, 0x20=PNG, 0x30=GIF)
-     * @return 是否成功发送命令
+     * @param data 待传数据，用于建立续传会话；为null时发送旧版命令，不支持续传
+     * @return 设备已连接、命令已提交到I/O线程时返回true
      */
-    public boolean startImageTransfer(byte fileIndex, byte format) {
+    public boolean startImageTransfer(byte fileIndex, byte format, byte[] data) {
+        return startImageTransfer(fileIndex, format, data, 0);
+    }
+
+    /**
+     * 开始图片传输，并限制压缩传输占用的设备空间
+     * 压缩传输时设备在解压完成前要同时保存压缩的临时文件和解压结果，两者之和超过storageLimit时发送原始数据
+     *
+     * @param storageLimit 设备可用于本次上传的空间(字节)，0表示未知，不限制
+     */
+    public boolean startImageTransfer(byte fileIndex, byte format, byte[] data, int storageLimit) {
+        State state = snapshot.getState();
+        if (state != State.CONNECTED && state != State.TRANSMITTING) {
+            Log.e(TAG, "开始传输失败: 设备未连接");
+            return false;
+        }
+        // 压缩、保存会话文件都在I/O线程进行
+        runOnIoThread(() -> startImageTransferOnIoThread(fileIndex, format, data, storageLimit));
+        return true;
+    }
+
+    private void startImageTransferOnIoThread(byte fileIndex, byte format, byte[] data, int storageLimit) {
         // 组合索引和格式
         byte combinedIndex = (byte)((format & 0xF0) | (fileIndex & 0x0F));
-        return sendCommand(CommandHandler.cmdStartTransfer(combinedIndex));
+
+        // 新的传输会覆盖设备上的临时文件，之前未完成的会话作废
+        discardPendingTransfer();
+
+        // 请求流式传输，设备在响应中确认实际使用的模式
+        byte[] command;
+        if (data != null) {
+            // 压缩收益足够时发送压缩数据，由设备解压后保存
+            byte[] compressed = compressionEnabled ? PayloadCompressor.compressIfWorthwhile(data) : null;
+            if (compressed != null && storageLimit > 0 && (long) compressed.length + data.length > storageLimit) {
+                LogUtil.log("设备空间不足以同时保存压缩数据(" + compressed.length + " 字节)和解压结果(" +
+                        data.length + " 字节)，发送原始数据");
+                compressed = null;
+            }
+            byte[] payload = compressed != null ? compressed : data;
+            if (compressed != null) {
+                LogUtil.log("数据已压缩: " + data.length + " -> " + compressed.length + " 字节");
+                session = TransferSession.create(combinedIndex, compressed, data.length);
+            } else {
+                session = TransferSession.create(combinedIndex, data);
+            }
+            sessionData = ByteBuffer.wrap(payload);
+            if (!session.save(context, payload)) {
+                Log.w(TAG, "保存传输会话失败，应用重启后无法续传");
+            }
+            command = CommandHandler.cmdStartTransfer(combinedIndex, requestedFlags(),
+                    session.getTotalSize(), session.getCrc32(), session.getRawSize());
+        } else {
+            command = CommandHandler.cmdStartTransfer(combinedIndex, requestedFlags());
+        }
+
+        publishSnapshot();
+        if (sendCommand(command)) {
+            resuming = false;
+            crcRetries = 0;
+            expectStartResponse();
+        }
+    }
+
+    /**
+     * 从文件开始图片传输，用于转换时直接写入缓存文件的大数据（如GifPack）
+     * 文件被移动为续传会话的数据文件，发送时映射到内存按块读取，不压缩
+     *
+     * @param fileIndex 文件索引
+     * @param format 图片格式
+     * @param file 缓存目录中的待传文件，调用后归BleManager管理
+     * @return 设备已连接、命令已提交到I/O线程时返回true
+     */
+    public boolean startImageTransfer(byte fileIndex, byte format, File file) {
+        State state = snapshot.getState();
+        if (state != State.CONNECTED && state != State.TRANSMITTING) {
+            Log.e(TAG, "开始传输失败: 设备未连接");
+            return false;
+        }
+        runOnIoThread(() -> startFileTransferOnIoThread(fileIndex, format, file));
+        return true;
+    }
+
+    private void startFileTransferOnIoThread(byte fileIndex, byte format, File file) {
+        byte combinedIndex = (byte)((format & 0xF0) | (fileIndex & 0x0F));
+        discardPendingTransfer();
+
+        session = TransferSession.adopt(context, combinedIndex, file);
+        sessionData = session != null ? session.loadPayload(context) : null;
+        if (sessionData == null) {
+            Log.e(TAG, "读取待传文件失败: " + file);
+            discardPendingTransfer();
+            return;
+        }
+        LogUtil.log("待传文件: " + file.getName() + "，" + session.getTotalSize() + " 字节");
+
+        publishSnapshot();
+        if (sendCommand(CommandHandler.cmdStartTransfer(combinedIndex, requestedFlags(),
+                session.getTotalSize(), session.getCrc32(), session.getRawSize()))) {
+            resuming = false;
+            crcRetries = 0;
+            expectStartResponse();
+        }
+    }
+
+    /**
+     * 开始图片传输，不建立续传会话
+     *
+     * @param fileIndex 文件索引
+     * @param format 图片格式
+     * @return 是否成功发送命令
+     */
+    public boolean startImageTransfer(byte fileIndex, byte format) {
+        return startImageTransfer(fileIndex, format, (byte[]) null);
+    }
+
+    // 是否有未完成的传输会话（包括应用上次运行时留下的）
+    public boolean hasPendingTransfer() {
+        return snapshot.hasPendingTransfer();
+    }
+
+    /**
+     * 续传未完成的会话
+     * 先向设备查询临时文件已提交的字节数，从该处继续发送；设备无法续传时自动从头开始
+     *
+     * @param callback 传输回调，在主线程执行；续传数据丢失时通过onError通知
+     * @return 是否成功发起续传
+     */
+    public boolean resumeImageTransfer(TransferCallback callback) {
+        if (snapshot.getState() != State.CONNECTED || !snapshot.hasPendingTransfer()) {
+            return false;
+        }
+        runOnIoThread(() -> resumeImageTransferOnIoThread(callback));
+        return true;
+    }
+
+    private void resumeImageTransferOnIoThread(TransferCallback callback) {
+        if (currentState != State.CONNECTED || session == null) {
+            postToMain(() -> callback.onError("没有可续传的传输"));
+            return;
+        }
+
+        if (sessionData == null) {
+            sessionData = session.loadPayload(context);
+            if (sessionData == null) {
+                Log.w(TAG, "待传数据丢失或已损坏，放弃续传");
+                discardPendingTransfer();
+                postToMain(() -> callback.onError("待传数据丢失或已损坏"));
+                return;
+            }
+        }
+
+        LogUtil.log("续传未完成的传输: " + session);
+        if (!sendCommand(CommandHandler.cmdResumeTransfer(session.getCombinedIndex(), requestedFlags(),
+                session.getTotalSize(), session.getCrc32(), session.getRawSize()))) {
+            postToMain(() -> callback.onError("发送续传命令失败"));
+            return;
+        }
+        expectStartResponse();
+        resuming = true;
+        crcRetries = 0;
+
+        sendImageDataOnIoThread(sessionData, callback);
+    }
+
+    // 放弃未完成的传输会话
+    public void discardPendingTransfer() {
+        runOnIoThread(() -> {
+            session = null;
+            sessionData = null;
+            TransferSession.clear(context);
+            publishSnapshot();
+        });
     }
 
     /**
@@ -761,10 +1828,10 @@ public class BleManager {
      */
     public boolean startImageTransfer(byte fileIndex) {
         // 默认使用原始格式
-        return startImageTransfer(fileIndex, (byte)0);
+        return startImageTransfer(fileIndex, (byte)0, (byte[]) null);
     }
 
-    // 结束图片传输
+    // 结束图片传输（数据发送完后BleManager会自动发送并校验，一般无需手动调用）
     public boolean endImageTransfer() {
         return sendCommand(CommandHandler.cmdEndTransfer());
     }
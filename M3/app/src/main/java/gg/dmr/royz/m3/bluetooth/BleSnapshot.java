@@ -0,0 +1,98 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import java.util.Locale;
+
+/**
+ * BleManager状态快照
+ * 由I/O线程在状态变化时生成，不可变，界面线程可以随时读取而无需同步
+ */
+public class BleSnapshot {
+    private final BleManager.State state;
+    private final int negotiatedMtu;
+    private final int chunkSize;
+    private final int txPhy;
+    private final float connectionIntervalMs; // 0表示未知
+    private final boolean pendingTransfer;    // 是否有未完成的续传会话
+    private final int transferredBytes;       // 当前传输已发送的字节数
+    private final int totalBytes;             // 当前传输的总字节数，没有传输时为0
+
+    public BleSnapshot(BleManager.State state, int negotiatedMtu, int chunkSize, int txPhy,
+                       float connectionIntervalMs, boolean pendingTransfer,
+                       int transferredBytes, int totalBytes) {
+        this.state = state;
+        this.negotiatedMtu = negotiatedMtu;
+        this.chunkSize = chunkSize;
+        this.txPhy = txPhy;
+        this.connectionIntervalMs = connectionIntervalMs;
+        this.pendingTransfer = pendingTransfer;
+        this.transferredBytes = transferredBytes;
+        this.totalBytes = totalBytes;
+    }
+
+    public BleManager.State getState() {
+        return state;
+    }
+
+    public int getNegotiatedMtu() {
+        return negotiatedMtu;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    public float getConnectionIntervalMs() {
+        return connectionIntervalMs;
+    }
+
+    public boolean hasPendingTransfer() {
+        return pendingTransfer;
+    }
+
+    public int getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    public int getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "状态=%s, MTU=%d, 块大小=%d, PHY=%s, 连接间隔=%.2fms, 进度=%d/%d",
+                state, negotiatedMtu, chunkSize, BleManager.getPhyName(txPhy), connectionIntervalMs,
+                transferredBytes, totalBytes);
+    }
+}
@@ -31,6 +31,7 @@ package gg.dmr.royz.m3.bluetooth;
 import android.util.Log;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -83,6 +84,15 @@ public class CommandHandler {
         return buffer.array();
     }
 
+    // 把旧格式命令帧 [命令ID, 负载长度, 负载] 转换为带序号的命令帧 [命令ID|0x80, 序号, 负载长度, 负载]
+    public static byte[] withSequence(byte[] command, int sequence) {
+        byte[] frame = new byte[command.length + 1];
+        frame[0] = (byte) (command[0] | Constants.CommandID.CMD_SEQ_FLAG);
+        frame[1] = (byte) sequence;
+        System.arraycopy(command, 1, frame, 2, command.length - 1);
+        return frame;
+    }
+
     // 解析响应数据
     public static void parseResponse(byte[] response, CommandCallback callback) {
         if (response == null || response.length < 3) {
@@ -90,9 +100,9 @@ public class CommandHandler {
             return;
         }
 
-        byte commandId = response[0];     // 命令ID
-        byte statusCode = response[1];    // 状态码
-        byte payloadLength = response[2]; // 负载长度
+        byte commandId = response[0];            // 命令ID
+        byte statusCode = response[1];           // 状态码
+        int payloadLength = response[2] & 0xFF;  // 负载长度（无符号）
 
         LogUtil.logHex("收到响应", response);
         Log.d(TAG, String.format("命令: %s, 状态: %s, 数据长度: %d",
@@ -102,8 +112,8 @@ public class CommandHandler {
 
         // 提取响应负载
         byte[] payload = null;
-        if (payloadLength > 0 && response.length >= 3 + payloadLength) {
-            payload = Arrays.copyOfRange(response, 3, 3 + payloadLength);
+        if (payloadLength > 0) {
+            payload = Arrays.copyOfRange(response, 3, Math.min(response.length, 3 + payloadLength));
         }
 
         // 回调处理
@@ -194,7 +204,8 @@ public class CommandHandler {
                 return;
             }
 
-            // 设备状态格式：[开机时长(4字节), 存储使用量(4字节), 当前显示索引(1字节)]
+            // 设备状态格式：[开机时长(4字节), 存储使用量(4字节), 当前显示索引(1字节), 存储总量(4字节，旧固件没有),
+            //              功能标志(1字节，旧固件没有)]
 
             // 读取开机时长(4字节，小端序)
             int uptime = ((payload[0] & 0xFF)) |
@@ -211,7 +222,19 @@ public class CommandHandler {
             // 获取当前显示的图片索引
             byte currentIndex = (payload.length > 8) ? payload[8] : -1;
 
-            DeviceStatus status = new DeviceStatus(uptime, storageUsed, currentIndex);
+            // 读取存储总量(4字节，小端序)，0表示未知
+            int storageTotal = 0;
+            if (payload.length >= 13) {
+                storageTotal = ((payload[9] & 0xFF)) |
+                        ((payload[10] & 0xFF) << 8) |
+                        ((payload[11] & 0xFF) << 16) |
+                        ((payload[12] & 0xFF) << 24);
+            }
+
+            // 读取功能标志，0表示只支持v1 GifPack和JPEG/PNG
+            byte features = (payload.length >= 14) ? payload[13] : 0;
+
+            DeviceStatus status = new DeviceStatus(uptime, storageUsed, currentIndex, storageTotal, features);
             callback.onStatusReceived(status);
 
         } catch (Exception e) {
@@ -227,6 +250,42 @@ public class CommandHandler {
         return packCommand(Constants.CommandID.CMD_START_TRANSFER, new byte[]{fileIndex});
     }
 
+    // 开始传输命令（带传输标志位）
+    public static byte[] cmdStartTransfer(byte fileIndex, byte flags) {
+        return packCommand(Constants.CommandID.CMD_START_TRANSFER, new byte[]{fileIndex, flags});
+    }
+
+    // 开始传输命令（带标志位、总大小和CRC32，设备据此记录续传会话）
+    public static byte[] cmdStartTransfer(byte fileIndex, byte flags, int totalSize, int crc32) {
+        return cmdStartTransfer(fileIndex, flags, totalSize, crc32, 0);
+    }
+
+    // 开始传输命令，rawSize不为0时表示数据经过压缩，为解压后的大小
+    public static byte[] cmdStartTransfer(byte fileIndex, byte flags, int totalSize, int crc32, int rawSize) {
+        return packCommand(Constants.CommandID.CMD_START_TRANSFER,
+                transferSessionPayload(fileIndex, flags, totalSize, crc32, rawSize));
+    }
+
+    // 续传命令，负载与开始传输相同，设备校验与未完成的会话一致后返回已提交的字节数
+    public static byte[] cmdResumeTransfer(byte fileIndex, byte flags, int totalSize, int crc32, int rawSize) {
+        return packCommand(Constants.CommandID.CMD_RESUME_TRANSFER,
+                transferSessionPayload(fileIndex, flags, totalSize, crc32, rawSize));
+    }
+
+    // [文件索引, 标志位, 总大小(4字节), CRC32(4字节), 解压后大小(4字节，仅压缩时)]，小端序
+    private static byte[] transferSessionPayload(byte fileIndex, byte flags, int totalSize, int crc32,
+                                                 int rawSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(rawSize > 0 ? 14 : 10).order(ByteOrder.LITTLE_ENDIAN)
+                .put(fileIndex)
+                .put(flags)
+                .putInt(totalSize)
+                .putInt(crc32);
+        if (rawSize > 0) {
+            buffer.putInt(rawSize);
+        }
+        return buffer.array();
+    }
+
     // 结束传输命令
     public static byte[] cmdEndTransfer() {
         return packCommand(Constants.CommandID.CMD_END_TRANSFER, null);
@@ -256,4 +315,21 @@ public class CommandHandler {
     public static byte[] cmdGetStatus() {
         return packCommand(Constants.CommandID.CMD_GET_STATUS, null);
     }
+
+    // 批量命令：负载为依次排列的旧格式子命令 [{命令ID, 负载长度, 负载}*n]
+    public static byte[] cmdBatch(byte[]... commands) {
+        int length = 0;
+        for (byte[] command : commands) {
+            length += command.length;
+        }
+        if (length > 0xFF) {
+            throw new IllegalArgumentException("批量命令过长: " + length + " 字节");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] command : commands) {
+            buffer.put(command);
+        }
+        return packCommand(Constants.CommandID.CMD_BATCH, buffer.array());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 命令响应
+ * 由BleManager.request返回的future携带，序号帧和旧格式响应统一解析为该对象
+ */
+public class CommandResponse {
+    public static final int NO_SEQUENCE = -1; // 旧格式响应没有序号
+
+    private final byte commandId;
+    private final byte statusCode;
+    private final byte[] payload;
+    private final int sequence;
+
+    public CommandResponse(byte commandId, byte statusCode, byte[] payload, int sequence) {
+        this.commandId = commandId;
+        this.statusCode = statusCode;
+        this.payload = payload != null ? payload : new byte[0];
+        this.sequence = sequence;
+    }
+
+    /**
+     * 解析命令特征通知
+     * 旧格式: [命令ID, 状态码, 负载长度, 负载]
+     * 序号帧: [命令ID|0x80, 序号, 状态码, 负载长度, 负载]
+     *
+     * @return 解析结果，格式不完整时返回null
+     */
+    public static CommandResponse parse(byte[] frame) {
+        if (frame == null || frame.length < 3) {
+            return null;
+        }
+
+        boolean sequenced = (frame[0] & Constants.CommandID.CMD_SEQ_FLAG) != 0;
+        int header = sequenced ? 4 : 3;
+        if (frame.length < header) {
+            return null;
+        }
+
+        int payloadLength = Math.min(frame[header - 1] & 0xFF, frame.length - header);
+        byte[] payload = Arrays.copyOfRange(frame, header, header + payloadLength);
+        byte commandId = (byte) (frame[0] & ~Constants.CommandID.CMD_SEQ_FLAG);
+        return new CommandResponse(commandId, frame[header - 2], payload,
+                sequenced ? frame[1] & 0xFF : NO_SEQUENCE);
+    }
+
+    /**
+     * 解析批量命令响应的负载 [{命令ID, 状态码, 负载长度(2字节), 负载}*n]
+     * 末尾不完整的子响应被丢弃
+     */
+    public static List<CommandResponse> parseBatch(byte[] payload) {
+        List<CommandResponse> responses = new ArrayList<>();
+        int pos = 0;
+        while (pos + 4 <= payload.length) {
+            int length = (payload[pos + 2] & 0xFF) | ((payload[pos + 3] & 0xFF) << 8);
+            if (pos + 4 + length > payload.length) {
+                break;
+            }
+            responses.add(new CommandResponse(payload[pos], payload[pos + 1],
+                    Arrays.copyOfRange(payload, pos + 4, pos + 4 + length), NO_SEQUENCE));
+            pos += 4 + length;
+        }
+        return responses;
+    }
+
+    public byte getCommandId() {
+        return commandId;
+    }
+
+    public byte getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isSuccess() {
+        return statusCode == Constants.ResponseCode.RESP_SUCCESS;
+    }
+
+    public String getStatusName() {
+        return Constants.ResponseCode.getStatusName(statusCode);
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    // 转换为旧格式响应 [命令ID, 状态码, 负载长度, 负载]，供传输流程按命令ID处理（负载超过255字节时截断）
+    public byte[] toLegacyFrame() {
+        int length = Math.min(payload.length, 0xFF);
+        byte[] frame = new byte[3 + length];
+        frame[0] = commandId;
+        frame[1] = statusCode;
+        frame[2] = (byte) length;
+        System.arraycopy(payload, 0, frame, 3, length);
+        return frame;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: %s, 负载%d字节%s", Constants.getCommandName(commandId),
+                getStatusName(), payload.length, sequence != NO_SEQUENCE ? ", 序号=" + sequence : "");
+    }
+}
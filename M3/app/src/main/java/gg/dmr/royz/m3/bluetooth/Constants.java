@@ -51,6 +51,15 @@ public class Constants {
         public static final byte CMD_GET_IMAGE_LIST = 0x06;  // 获取列表
         public static final byte CMD_SET_DISPLAY = 0x07;     // 设置显示
         public static final byte CMD_GET_STATUS = 0x08;      // 获取状态
+        public static final byte CMD_RESUME_TRANSFER = 0x09; // 续传
+        public static final byte CMD_BATCH = 0x0A;           // 批量命令
+
+        // 命令ID最高位表示带序号的命令帧: [命令ID|0x80, 序号, 负载长度, 负载]
+        // 对应响应: [命令ID|0x80, 序号, 状态码, 负载长度, 负载]
+        public static final byte CMD_SEQ_FLAG = (byte) 0x80;
+        // 带序号命令的响应放不下一个通知时分片发送，与序号标志同时置位:
+        // [命令ID|0xC0, 序号, 状态码, 总长度(2字节), 偏移量(2字节), 数据]
+        public static final byte CMD_FRAGMENT_FLAG = 0x40;
     }
 
     // 响应状态码定义 (对应commands.h中的ResponseCode)
@@ -60,6 +69,8 @@ public class Constants {
         public static final byte RESP_FS_ERROR = 0x02;       // 文件系统错误
         public static final byte RESP_TRANSFER_ERROR = 0x03; // 传输错误
         public static final byte RESP_PARAM_ERROR = 0x04;    // 参数错误
+        public static final byte RESP_INCOMPLETE = 0x05;     // 数据不完整，负载为缺失区间列表
+        public static final byte RESP_CRC_ERROR = 0x06;      // 整个文件CRC32校验失败
 
         // 获取状态码的描述文本
         public static String getStatusName(byte statusCode) {
@@ -69,11 +80,28 @@ public class Constants {
                 case RESP_FS_ERROR: return "文件系统错误";
                 case RESP_TRANSFER_ERROR: return "传输错误";
                 case RESP_PARAM_ERROR: return "参数错误";
+                case RESP_INCOMPLETE: return "数据不完整";
+                case RESP_CRC_ERROR: return "校验失败";
                 default: return "未知状态(" + statusCode + ")";
             }
         }
     }
 
+    // 传输标志位 (对应commands.h中的TransferFlag)
+    // 开始传输命令的第二个负载字节，设备在响应中回传实际接受的标志位
+    public static class TransferFlag {
+        public static final byte FLAG_STREAM = 0x01;  // 无响应写入 + 信用流控
+        public static final byte FLAG_SEQ = 0x02;     // 数据帧带偏移量和CRC32，结束时设备返回缺失区间
+        public static final byte FLAG_DEFLATE = 0x04; // 数据为raw DEFLATE压缩，设备解压后保存
+    }
+
+    // 设备功能标志位 (对应commands.h中的DeviceFeature)
+    // 设备状态负载的第14字节，旧固件没有这个字节，按全部不支持处理
+    public static class DeviceFeature {
+        public static final byte FEATURE_GIFPACK_V2 = 0x01; // 播放v2 GifPack：增量帧和帧时长表
+        public static final byte FEATURE_IBIN = 0x02;       // 显示原始RGB565图片
+    }
+
     // 命令名称查询 (对应commands.cpp中的getCommandName)
     public static String getCommandName(byte cmdId) {
         switch(cmdId) {
@@ -85,6 +113,8 @@ public class Constants {
             case CommandID.CMD_GET_IMAGE_LIST: return "获取列表";
             case CommandID.CMD_SET_DISPLAY: return "设置显示";
             case CommandID.CMD_GET_STATUS: return "获取状态";
+            case CommandID.CMD_RESUME_TRANSFER: return "续传";
+            case CommandID.CMD_BATCH: return "批量命令";
             default: return "未知命令(" + cmdId + ")";
         }
     }
@@ -92,5 +122,11 @@ public class Constants {
     // 图片传输参数
     public static final int IMAGE_WIDTH = 240;  // 图片宽度
     public static final int IMAGE_HEIGHT = 240; // 图片高度
-    public static final int CHUNK_SIZE = 512;   // BLE数据块大小
+    public static final int MAX_CHUNK_SIZE = 512; // BLE数据块上限（特征值最大长度）
+    public static final int REQUEST_MTU = 517;    // 请求的MTU大小（512字节负载 + 3字节ATT头）
+    public static final int DEFAULT_MTU = 23;     // MTU协商前的默认值
+    public static final int ATT_HEADER_SIZE = 3;  // ATT写请求头部(操作码1字节 + 句柄2字节)
+    public static final int DEFAULT_STREAM_WINDOW = 4096; // 流式传输默认信用窗口(字节)
+    public static final int DATA_FRAME_HEADER_SIZE = 8;   // 序号数据帧头: [偏移量(4字节), 数据CRC32(4字节)]
+    public static final int MAX_BATCH_COMMANDS = 8;       // 单个批量命令最多包含的子命令数
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+/**
+ * GATT传输接口
+ * BleManager只通过该接口收发命令和数据，具体实现可以是真实的BLE连接(AndroidGattTransport)，
+ * 也可以是进程内的模拟吊坠(SimulatedPendant)
+ *
+ * 所有Listener回调都在同一个线程上串行执行，实现负责保证这一点
+ */
+public interface GattTransport {
+
+    // 链路层常量，取值与BluetoothDevice/BluetoothGatt一致，便于在纯JVM环境中使用
+    int PHY_LE_1M = 1;
+    int PHY_LE_2M = 2;
+    int PHY_LE_CODED = 3;
+
+    // setPreferredPhy的PHY掩码，即 1 << (phy - 1)，与BluetoothDevice.PHY_LE_*_MASK一致
+    int PHY_LE_1M_MASK = 1;
+    int PHY_LE_2M_MASK = 2;
+    int PHY_LE_CODED_MASK = 4;
+
+    int CONNECTION_PRIORITY_BALANCED = 0;
+    int CONNECTION_PRIORITY_HIGH = 1;
+    int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+    // 传输事件监听
+    interface Listener {
+        // 链路已建立，开始发现服务
+        void onLinkUp();
+
+        // 服务发现完成且通知已启用，可以收发命令
+        void onReady();
+
+        // 命令特征写入完成
+        void onCommandWritten(boolean success);
+
+        // 数据特征写入完成（无响应写入表示已被协议栈接受）
+        void onDataWritten(boolean success);
+
+        // 命令特征通知
+        void onNotification(byte[] value);
+
+        void onMtuChanged(int mtu);
+
+        void onPhyUpdate(int txPhy, int rxPhy, boolean success);
+
+        // interval单位1.25ms，timeout单位10ms
+        void onConnectionUpdated(int interval, int latency, int timeout, boolean success);
+
+        // 设备不兼容等无法继续的错误，之后会断开连接
+        void onTransportError(String message);
+
+        // 连接断开，failed表示连接异常中断（可重试）
+        void onDisconnected(boolean failed);
+    }
+
+    // 开始连接，结果通过listener回报
+    boolean connect(Listener listener);
+
+    // 写入命令特征（有响应）
+    boolean writeCommand(byte[] value);
+
+    // 写入数据特征
+    boolean writeData(byte[] value, boolean withResponse);
+
+    boolean requestConnectionPriority(int priority);
+
+    // 本端是否支持LE 2M PHY
+    boolean isLe2MPhySupported();
+
+    // phyMask为PHY_LE_*_MASK的组合
+    void setPreferredPhy(int phyMask);
+
+    // 断开并释放连接，之后不再回调listener
+    void close();
+
+    // 设备描述，用于日志
+    String getDescription();
+}
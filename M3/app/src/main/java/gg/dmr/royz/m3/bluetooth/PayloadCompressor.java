@@ -0,0 +1,114 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 上传数据压缩
+ * 使用raw DEFLATE（无zlib头），设备端用ROM中的tinfl边收边解压；
+ * 只有压缩后明显变小时才使用，JPEG这类已压缩的数据保持原样发送
+ */
+public class PayloadCompressor {
+    private static final int MIN_INPUT_SIZE = 256;      // 太小的数据不值得压缩
+    private static final int MIN_SAVING_BYTES = 256;    // 至少节省的字节数
+    private static final double MIN_SAVING_RATIO = 0.1; // 至少节省的比例
+    private static final int PROBE_SIZE = 8 * 1024;     // 大数据先试压缩开头一段
+    private static final double PROBE_MIN_SAVING_RATIO = 0.02;
+
+    /**
+     * 压缩数据，收益不足时返回null
+     *
+     * @param data 原始数据
+     * @return raw DEFLATE数据，或null表示应按原样发送
+     */
+    public static byte[] compressIfWorthwhile(byte[] data) {
+        if (data == null || data.length < MIN_INPUT_SIZE) {
+            return null;
+        }
+
+        // 先用最快级别试压缩开头一段，几乎压不动（如JPEG）时跳过整体压缩
+        if (data.length > PROBE_SIZE * 2) {
+            int probed = deflate(data, PROBE_SIZE, Deflater.BEST_SPEED).length;
+            if (probed > PROBE_SIZE * (1 - PROBE_MIN_SAVING_RATIO)) {
+                return null;
+            }
+        }
+
+        byte[] compressed = deflate(data, data.length, Deflater.BEST_COMPRESSION);
+        int saving = data.length - compressed.length;
+        if (saving < MIN_SAVING_BYTES || saving < data.length * MIN_SAVING_RATIO) {
+            return null;
+        }
+        return compressed;
+    }
+
+    // 解压raw DEFLATE数据，长度与rawSize不一致时抛出异常
+    public static byte[] inflate(byte[] compressed, int rawSize) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawSize];
+            int length = 0;
+            while (length < rawSize && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawSize - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawSize || !inflater.finished()) {
+                throw new DataFormatException("解压后大小不符: " + length + "/" + rawSize);
+            }
+            return raw;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] data, int length, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 分片响应重组
+ * 负载放不下一个通知（或超过255字节）时，设备把带序号命令的响应拆成多个分片：
+ * [命令ID|0xC0, 序号, 状态码, 总长度(2字节), 偏移量(2字节), 数据]
+ * 分片按序号归入各自的缓冲区，收齐总长度后得到完整的响应
+ * 分片可以乱序到达，重复的分片只覆盖已收到的字节，不会提前凑满总长度
+ */
+public class ResponseReassembler {
+    public static final int FRAGMENT_HEADER_SIZE = 7;
+
+    private static class Partial {
+        final byte commandId;
+        final byte statusCode;
+        final byte[] payload;
+        final BitSet received; // 已收到的字节
+
+        Partial(byte commandId, byte statusCode, int totalLength) {
+            this.commandId = commandId;
+            this.statusCode = statusCode;
+            this.payload = new byte[totalLength];
+            this.received = new BitSet(totalLength);
+        }
+    }
+
+    private final Map<Integer, Partial> partials = new HashMap<>();
+
+    public static boolean isFragment(byte[] frame) {
+        return frame != null && frame.length >= FRAGMENT_HEADER_SIZE &&
+                (frame[0] & Constants.CommandID.CMD_SEQ_FLAG) != 0 &&
+                (frame[0] & Constants.CommandID.CMD_FRAGMENT_FLAG) != 0;
+    }
+
+    /**
+     * 处理一个分片
+     *
+     * @return 收齐后的完整响应，还有分片未到达或分片无效时返回null
+     */
+    public CommandResponse accept(byte[] frame) {
+        if (!isFragment(frame)) {
+            return null;
+        }
+
+        byte commandId = (byte) (frame[0] & ~(Constants.CommandID.CMD_SEQ_FLAG | Constants.CommandID.CMD_FRAGMENT_FLAG));
+        int sequence = frame[1] & 0xFF;
+        ByteBuffer header = ByteBuffer.wrap(frame, 3, 4).order(ByteOrder.LITTLE_ENDIAN);
+        int totalLength = header.getShort() & 0xFFFF;
+        int offset = header.getShort() & 0xFFFF;
+        int length = frame.length - FRAGMENT_HEADER_SIZE;
+
+        // 序号被新的响应复用时（旧的分片已不完整），丢弃旧缓冲区
+        Partial partial = partials.get(sequence);
+        if (partial == null || partial.commandId != commandId || partial.payload.length != totalLength) {
+            partial = new Partial(commandId, frame[2], totalLength);
+            partials.put(sequence, partial);
+        }
+
+        if (offset + length > totalLength) {
+            partials.remove(sequence);
+            return null;
+        }
+        System.arraycopy(frame, FRAGMENT_HEADER_SIZE, partial.payload, offset, length);
+        partial.received.set(offset, offset + length);
+
+        if (partial.received.cardinality() < totalLength) {
+            return null;
+        }
+        partials.remove(sequence);
+        return new CommandResponse(partial.commandId, partial.statusCode, partial.payload, sequence);
+    }
+
+    // 命令超时后丢弃已收到的分片
+    public void discard(int sequence) {
+        partials.remove(sequence);
+    }
+
+    public void clear() {
+        partials.clear();
+    }
+}
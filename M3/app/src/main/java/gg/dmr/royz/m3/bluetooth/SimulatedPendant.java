@@ -0,0 +1,1160 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * 进程内模拟的Mon3tr吊坠
+ * 按固件(commands.cpp / file_system.cpp)的行为实现命令协议，文件保存在内存中的LittleFS模型里，
+ * 并按连接间隔、每个连接事件可发送的包数和PHY模拟链路时序，
+ * 用于在没有真机的情况下测量和回归测试上传流程
+ *
+ * 不依赖任何Android类，可以在普通JVM上运行；所有设备端逻辑在内部单线程上执行，
+ * Listener回调通过构造时传入的Executor投递（接到BleManager时传入其getTransportExecutor()，即BLE I/O线程）
+ */
+public class SimulatedPendant implements GattTransport {
+
+    // 与固件一致的参数
+    public static final int MAX_IMAGES = 10;
+    public static final int MAX_MTU = 517;
+    private static final int MAX_RESPONSE_PAYLOAD = 1024; // 响应缓冲区大小，超过255字节或一个通知时分片发送
+    private static final int FRAGMENT_HEADER_SIZE = 7;
+    private static final int MAX_BATCH_COMMANDS = 8;
+    private static final int MAX_TRANSFER_GAPS = 32;
+    private static final int MAX_NACK_RANGES = 7;
+    private static final int RESPONSE_DELAY_MS = 20;     // sendBleResponse发送后的延迟
+    private static final int STREAM_WINDOW_BYTES = 4096;
+    private static final int STREAM_ACK_INTERVAL = 1024;
+    public static final String UPLOAD_PART_FILE = "/upload.part";
+    public static final String UPLOAD_INFLATE_FILE = "/upload.inf";
+    public static final String UPLOAD_META_FILE = "/upload.meta";
+
+    // 链路模型默认值
+    public static final int DEFAULT_FS_SIZE = 1536 * 1024;
+    private static final int DEFAULT_INTERVAL_UNITS = 24;    // 30ms，连接建立时的典型值
+    private static final int DEFAULT_PACKETS_PER_EVENT = 4;  // 1M PHY下每个连接事件的包数
+
+    private final Executor callbackExecutor;
+    private final ScheduledExecutorService device;
+    private final FileSystem fs;
+    private final long bootTime = System.nanoTime();
+
+    // 链路状态（每次connect重置）
+    private volatile Listener listener;
+    private volatile int generation = 0;
+    private volatile boolean linkUp = false;
+    private volatile int mtu = Constants.DEFAULT_MTU;
+    private volatile int phy = PHY_LE_1M;
+    private volatile int intervalUnits = DEFAULT_INTERVAL_UNITS;
+    private long airFreeAt = 0;   // 链路空闲时刻(ns)
+    private long deviceFreeAt = 0; // 设备命令任务空闲时刻(ns)
+
+    // 可调的模拟参数
+    private volatile int packetsPerEvent = DEFAULT_PACKETS_PER_EVENT;
+    private volatile boolean supports2M = true;
+    private volatile double frameCorruptionRate = 0;
+    private volatile boolean sequencedCommandsSupported = true;
+    private volatile boolean batchCommandsSupported = true;
+    private volatile int maxMtu = MAX_MTU;
+    private final Random random = new Random(1);
+
+    // 固件状态
+    private final List<ImageInfo> imageList = new ArrayList<>();
+    private int currentImage = -1;
+    private String currentImageName;
+    private ByteArrayOutputStream currentImageFile;
+    private boolean isTransferring = false;
+    private int totalBytesReceived = 0;
+    private int currentFileFormat = 0;
+    private boolean streamMode = false;
+    private int lastAckedBytes = 0;
+    private int expectedSize = 0;
+    private int expectedCrc = 0;
+    private int expectedRawSize = 0;
+    private int responseSeq = -1; // 当前命令的序号，-1表示旧格式命令
+    private ByteArrayOutputStream batchBuffer; // 批量命令执行期间收集子命令响应，null表示不在批量命令中
+    private boolean seqMode = false;
+    private final List<int[]> transferGaps = new ArrayList<>(); // 序号模式的缺失区间 {起始, 结束}
+    private int nextExpected = 0;
+
+    // 统计
+    private volatile int commandsReceived = 0;
+    private volatile int dataPacketsReceived = 0;
+
+    private static class ImageInfo {
+        String filename;
+        int format;
+        int fileIndex;
+        int fileSize;
+    }
+
+    public SimulatedPendant(Executor callbackExecutor) {
+        this(callbackExecutor, DEFAULT_FS_SIZE);
+    }
+
+    public SimulatedPendant(Executor callbackExecutor, int fsSize) {
+        this.callbackExecutor = callbackExecutor;
+        this.fs = new FileSystem(fsSize);
+        this.device = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SimulatedPendant");
+            thread.setDaemon(true);
+            return thread;
+        });
+        device.execute(this::updateImageList);
+    }
+
+    // ==== 模拟参数与检查接口 ====
+
+    // 每个连接事件可发送的数据包数（1M PHY下），2M PHY时加倍
+    public void setPacketsPerEvent(int packets) {
+        this.packetsPerEvent = Math.max(1, packets);
+    }
+
+    public void setSupports2M(boolean supported) {
+        this.supports2M = supported;
+    }
+
+    // 数据包在空中被破坏的概率（序号模式下设备按CRC丢弃，普通模式下直接写入文件）
+    public void setFrameCorruptionRate(double rate) {
+        this.frameCorruptionRate = Math.max(0, Math.min(rate, 1));
+    }
+
+    // 模拟不认识带序号命令帧的旧固件
+    public void setSequencedCommandsSupported(boolean supported) {
+        this.sequencedCommandsSupported = supported;
+    }
+
+    // 模拟MTU协商结果较小的手机（下次连接生效）
+    public void setMaxMtu(int mtu) {
+        this.maxMtu = Math.max(Constants.DEFAULT_MTU, Math.min(mtu, MAX_MTU));
+    }
+
+    // 模拟不支持批量命令的旧固件
+    public void setBatchCommandsSupported(boolean supported) {
+        this.batchCommandsSupported = supported;
+    }
+
+    public FileSystem getFileSystem() {
+        return fs;
+    }
+
+    public int getCommandsReceived() {
+        return commandsReceived;
+    }
+
+    public int getDataPacketsReceived() {
+        return dataPacketsReceived;
+    }
+
+    // 当前显示的文件名，没有时返回null
+    public String getDisplayedFile() {
+        return call(() -> currentImage >= 0 && currentImage < imageList.size() ?
+                imageList.get(currentImage).filename : null);
+    }
+
+    // 模拟链路异常断开（如超出距离），设备端状态保持不变
+    public void simulateLinkLoss() {
+        device.execute(() -> {
+            if (!linkUp) {
+                return;
+            }
+            linkUp = false;
+            int gen = generation;
+            callbackExecutor.execute(() -> {
+                if (gen == generation && listener != null) {
+                    listener.onDisconnected(true);
+                }
+            });
+        });
+    }
+
+    // 关闭模拟器线程，之后不能再连接
+    public void shutdown() {
+        close();
+        device.shutdownNow();
+    }
+
+    // ==== GattTransport实现 ====
+
+    @Override
+    public boolean connect(Listener listener) {
+        if (device.isShutdown()) {
+            return false;
+        }
+        this.listener = listener;
+        int gen = ++generation;
+        device.execute(() -> {
+            linkUp = true;
+            mtu = Constants.DEFAULT_MTU;
+            phy = PHY_LE_1M;
+            intervalUnits = DEFAULT_INTERVAL_UNITS;
+            airFreeAt = deviceFreeAt = System.nanoTime();
+
+            // 连接建立 -> 服务发现 -> 启用通知，各约一个连接间隔
+            long now = System.nanoTime();
+            deliver(gen, now + intervalNanos(), l -> l.onLinkUp());
+            deliver(gen, now + 3 * intervalNanos(), l -> l.onReady());
+            // AndroidGattTransport在服务发现后请求MTU，固件设置为517
+            atDevice(gen, now + 4 * intervalNanos(), () -> {
+                mtu = Math.min(Constants.REQUEST_MTU, maxMtu);
+                int negotiated = mtu;
+                deliver(gen, System.nanoTime(), l -> l.onMtuChanged(negotiated));
+            });
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeCommand(byte[] value) {
+        if (!linkUp) {
+            return false;
+        }
+        byte[] command = value.clone();
+        int gen = generation;
+        device.execute(() -> {
+            // 有响应写入：请求在一个连接事件中发出，写响应在下一个事件返回
+            long arrive = reserveAir(intervalNanos());
+            deliver(gen, arrive + intervalNanos(), l -> l.onCommandWritten(true));
+            atDevice(gen, Math.max(arrive, deviceFreeAt), () -> processCommand(command));
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeData(byte[] value, boolean withResponse) {
+        if (!linkUp || value.length > mtu - Constants.ATT_HEADER_SIZE) {
+            return false;
+        }
+        byte[] data = value.clone();
+        int gen = generation;
+        device.execute(() -> {
+            long arrive;
+            if (withResponse) {
+                arrive = reserveAir(intervalNanos());
+                deliver(gen, arrive + intervalNanos(), l -> l.onDataWritten(true));
+            } else {
+                // 无响应写入：多个包共享一个连接事件
+                int packets = packetsPerEvent * (phy == PHY_LE_2M ? 2 : 1);
+                arrive = reserveAir(intervalNanos() / packets);
+                deliver(gen, arrive, l -> l.onDataWritten(true));
+            }
+            atDevice(gen, arrive, () -> processImageData(data));
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        if (!linkUp) {
+            return false;
+        }
+        int gen = generation;
+        device.execute(() -> {
+            // 与Android各优先级的连接间隔范围下限一致
+            int units;
+            switch (priority) {
+                case CONNECTION_PRIORITY_HIGH: units = 9; break;        // 11.25ms
+                case CONNECTION_PRIORITY_LOW_POWER: units = 80; break;  // 100ms
+                default: units = 24; break;                             // 30ms
+            }
+            atDevice(gen, System.nanoTime() + 2 * intervalNanos(), () -> {
+                intervalUnits = units;
+                deliver(gen, System.nanoTime(), l -> l.onConnectionUpdated(units, 0, 500, true));
+            });
+        });
+        return true;
+    }
+
+    @Override
+    public boolean isLe2MPhySupported() {
+        return true;
+    }
+
+    @Override
+    public void setPreferredPhy(int phyMask) {
+        if (!linkUp) {
+            return;
+        }
+        int gen = generation;
+        device.execute(() -> {
+            boolean want2M = (phyMask & PHY_LE_2M_MASK) != 0;
+            int newPhy = want2M && supports2M ? PHY_LE_2M : PHY_LE_1M;
+            boolean success = !want2M || supports2M;
+            atDevice(gen, System.nanoTime() + 2 * intervalNanos(), () -> {
+                if (success) {
+                    phy = newPhy;
+                }
+                int current = phy;
+                deliver(gen, System.nanoTime(), l -> l.onPhyUpdate(current, current, success));
+            });
+        });
+    }
+
+    @Override
+    public void close() {
+        linkUp = false;
+        listener = null;
+        generation++;
+    }
+
+    @Override
+    public String getDescription() {
+        return "SimulatedPendant";
+    }
+
+    // ==== 链路时序 ====
+
+    private long intervalNanos() {
+        return intervalUnits * 1_250_000L;
+    }
+
+    // 占用链路duration纳秒，返回数据到达设备的时刻
+    private long reserveAir(long duration) {
+        long start = Math.max(System.nanoTime(), airFreeAt);
+        airFreeAt = start + duration;
+        return airFreeAt;
+    }
+
+    private interface ListenerEvent {
+        void run(Listener listener);
+    }
+
+    // 在指定时刻把事件投递给APP，连接已关闭或已重连时丢弃
+    private void deliver(int gen, long atNanos, ListenerEvent event) {
+        device.schedule(() -> {
+            if (gen != generation) {
+                return;
+            }
+            callbackExecutor.execute(() -> {
+                Listener l = listener;
+                if (gen == generation && l != null) {
+                    event.run(l);
+                }
+            });
+        }, Math.max(0, atNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    // 在指定时刻于设备线程执行任务
+    private void atDevice(int gen, long atNanos, Runnable task) {
+        device.schedule(() -> {
+            if (gen == generation) {
+                task.run();
+            }
+        }, Math.max(0, atNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    // 同步读取设备线程上的状态
+    private <T> T call(Callable<T> task) {
+        try {
+            return device.submit(task).get();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // ==== 固件行为 ====
+
+    private void sendResponse(int cmdId, int status) {
+        sendResponse(cmdId, status, new byte[0]);
+    }
+
+    private void sendResponse(int cmdId, int status, byte[] payload) {
+        int length = Math.min(payload.length, MAX_RESPONSE_PAYLOAD);
+
+        // 批量命令中的子命令：追加到合并响应中
+        if (batchBuffer != null) {
+            if (batchBuffer.size() + 4 + length > MAX_RESPONSE_PAYLOAD) {
+                status = Constants.ResponseCode.RESP_GENERAL_ERROR;
+                length = 0;
+                if (batchBuffer.size() + 4 > MAX_RESPONSE_PAYLOAD) {
+                    return;
+                }
+            }
+            batchBuffer.write(cmdId);
+            batchBuffer.write(status);
+            batchBuffer.write(length);
+            batchBuffer.write(length >> 8);
+            batchBuffer.write(payload, 0, length);
+            return;
+        }
+
+        int notifySize = mtu - Constants.ATT_HEADER_SIZE;
+        if (responseSeq >= 0 && (length > 0xFF || 4 + length > notifySize)) {
+            sendFragmentedResponse(cmdId, status, payload, length, notifySize);
+            return;
+        }
+
+        // 旧格式响应只有1字节长度，也无法分片
+        length = Math.min(length, 0xFF);
+        byte[] response;
+        if (responseSeq >= 0) {
+            response = new byte[4 + length];
+            response[0] = (byte) (cmdId | Constants.CommandID.CMD_SEQ_FLAG);
+            response[1] = (byte) responseSeq;
+            response[2] = (byte) status;
+            response[3] = (byte) length;
+            System.arraycopy(payload, 0, response, 4, length);
+        } else {
+            response = new byte[3 + length];
+            response[0] = (byte) cmdId;
+            response[1] = (byte) status;
+            response[2] = (byte) length;
+            System.arraycopy(payload, 0, response, 3, length);
+        }
+        sendNotification(response);
+
+        // sendBleResponse发送后阻塞命令任务20ms
+        deviceFreeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_DELAY_MS);
+    }
+
+    // 分片发送: [命令ID|0xC0, 序号, 状态码, 总长度(2字节), 偏移量(2字节), 数据]
+    private void sendFragmentedResponse(int cmdId, int status, byte[] payload, int length, int notifySize) {
+        int fragmentSize = Math.max(1, notifySize - FRAGMENT_HEADER_SIZE);
+        int fragments = 0;
+        for (int offset = 0; offset < length; offset += fragmentSize) {
+            fragments++;
+            int size = Math.min(fragmentSize, length - offset);
+            ByteBuffer fragment = ByteBuffer.allocate(FRAGMENT_HEADER_SIZE + size).order(ByteOrder.LITTLE_ENDIAN);
+            fragment.put((byte) (cmdId | Constants.CommandID.CMD_SEQ_FLAG | Constants.CommandID.CMD_FRAGMENT_FLAG));
+            fragment.put((byte) responseSeq);
+            fragment.put((byte) status);
+            fragment.putShort((short) length);
+            fragment.putShort((short) offset);
+            fragment.put(payload, offset, size);
+            sendNotification(fragment.array());
+        }
+        // 每个分片都经过sendBleResponse
+        deviceFreeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos((long) RESPONSE_DELAY_MS * fragments);
+    }
+
+    private void sendNotification(byte[] value) {
+        if (linkUp) {
+            deliver(generation, System.nanoTime() + intervalNanos(), l -> l.onNotification(value));
+        }
+    }
+
+    private void processCommand(byte[] data) {
+        if (data.length < 2) {
+            return;
+        }
+        commandsReceived++;
+
+        // 带序号的命令帧去掉序号后按旧格式处理，响应带回同样的序号
+        responseSeq = -1;
+        if ((data[0] & Constants.CommandID.CMD_SEQ_FLAG) != 0 && sequencedCommandsSupported) {
+            if (data.length < 3) {
+                return;
+            }
+            responseSeq = data[1] & 0xFF;
+            byte[] legacy = new byte[data.length - 1];
+            legacy[0] = (byte) (data[0] & ~Constants.CommandID.CMD_SEQ_FLAG);
+            System.arraycopy(data, 2, legacy, 1, data.length - 2);
+            data = legacy;
+        }
+
+        if (data[0] == Constants.CommandID.CMD_BATCH && batchCommandsSupported) {
+            int payloadLength = Math.min(data[1] & 0xFF, data.length - 2);
+            processBatch(Arrays.copyOfRange(data, 2, 2 + payloadLength));
+        } else {
+            executeCommand(data);
+        }
+        responseSeq = -1;
+    }
+
+    // 执行单条旧格式命令 [命令ID, 负载长度, 负载]
+    private void executeCommand(byte[] data) {
+        int cmdId = data[0];
+        int payloadLength = data[1] & 0xFF;
+        int available = Math.min(payloadLength, data.length - 2);
+
+        switch (cmdId) {
+            case Constants.CommandID.CMD_START_TRANSFER:
+                if (available >= 1) {
+                    int flags = available >= 2 ? data[3] & 0xFF : 0;
+                    int totalSize = 0;
+                    int crc32 = 0;
+                    int rawSize = 0;
+                    if (available >= 10) {
+                        ByteBuffer buffer = ByteBuffer.wrap(data, 4, 8).order(ByteOrder.LITTLE_ENDIAN);
+                        totalSize = buffer.getInt();
+                        crc32 = buffer.getInt();
+                    }
+                    if (available >= 14) {
+                        rawSize = ByteBuffer.wrap(data, 12, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                    }
+                    startImageTransfer(data[2] & 0xFF, flags, totalSize, crc32, rawSize);
+                } else {
+                    sendResponse(cmdId, Constants.ResponseCode.RESP_PARAM_ERROR);
+                }
+                break;
+            case Constants.CommandID.CMD_RESUME_TRANSFER:
+                if (available >= 10) {
+                    ByteBuffer buffer = ByteBuffer.wrap(data, 4, 8).order(ByteOrder.LITTLE_ENDIAN);
+                    int rawSize = available >= 14 ?
+                            ByteBuffer.wrap(data, 12, 4).order(ByteOrder.LITTLE_ENDIAN).getInt() : 0;
+                    resumeImageTransfer(data[2] & 0xFF, data[3] & 0xFF, buffer.getInt(), buffer.getInt(), rawSize);
+                } else {
+                    sendResponse(cmdId, Constants.ResponseCode.RESP_PARAM_ERROR);
+                }
+                break;
+            case Constants.CommandID.CMD_END_TRANSFER:
+                finishImageTransfer();
+                break;
+            case Constants.CommandID.CMD_DELETE_IMAGE:
+                if (available >= 1) {
+                    deleteImage(data[2] & 0xFF);
+                } else {
+                    sendResponse(cmdId, Constants.ResponseCode.RESP_PARAM_ERROR);
+                }
+                break;
+            case Constants.CommandID.CMD_REORDER_IMAGES:
+                if (available > 0) {
+                    byte[] order = new byte[available];
+                    System.arraycopy(data, 2, order, 0, available);
+                    reorderImages(order);
+                } else {
+                    sendResponse(cmdId, Constants.ResponseCode.RESP_PARAM_ERROR);
+                }
+                break;
+            case Constants.CommandID.CMD_GET_IMAGE_LIST:
+                sendImageList();
+                break;
+            case Constants.CommandID.CMD_SET_DISPLAY:
+                if (available >= 1) {
+                    setDisplayImage(data[2] & 0xFF);
+                } else {
+                    sendResponse(cmdId, Constants.ResponseCode.RESP_PARAM_ERROR);
+                }
+                break;
+            case Constants.CommandID.CMD_GET_STATUS:
+                sendDeviceStatus();
+                break;
+            default:
+                sendResponse(cmdId, Constants.ResponseCode.RESP_GENERAL_ERROR);
+                break;
+        }
+    }
+
+    private static boolean isBatchable(int cmdId) {
+        switch (cmdId) {
+            case Constants.CommandID.CMD_END_TRANSFER:
+            case Constants.CommandID.CMD_DELETE_IMAGE:
+            case Constants.CommandID.CMD_REORDER_IMAGES:
+            case Constants.CommandID.CMD_GET_IMAGE_LIST:
+            case Constants.CommandID.CMD_SET_DISPLAY:
+            case Constants.CommandID.CMD_GET_STATUS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // 批量命令：先检查全部子命令格式，再依次执行，合并响应一次发送
+    private void processBatch(byte[] payload) {
+        List<byte[]> commands = new ArrayList<>();
+        int pos = 0;
+        while (pos < payload.length) {
+            if (pos + 2 > payload.length || pos + 2 + (payload[pos + 1] & 0xFF) > payload.length ||
+                    !isBatchable(payload[pos])) {
+                sendResponse(Constants.CommandID.CMD_BATCH, Constants.ResponseCode.RESP_PARAM_ERROR);
+                return;
+            }
+            int end = pos + 2 + (payload[pos + 1] & 0xFF);
+            commands.add(Arrays.copyOfRange(payload, pos, end));
+            pos = end;
+        }
+        if (commands.isEmpty() || commands.size() > MAX_BATCH_COMMANDS) {
+            sendResponse(Constants.CommandID.CMD_BATCH, Constants.ResponseCode.RESP_PARAM_ERROR);
+            return;
+        }
+
+        batchBuffer = new ByteArrayOutputStream();
+        for (byte[] command : commands) {
+            executeCommand(command);
+        }
+        byte[] combined = batchBuffer.toByteArray();
+        batchBuffer = null;
+        sendResponse(Constants.CommandID.CMD_BATCH, Constants.ResponseCode.RESP_SUCCESS, combined);
+    }
+
+    private static String getFileExtensionFromFormat(int format) {
+        switch (format & 0xF0) {
+            case 0x10: return ".jpg";
+            case 0x20: return ".png";
+            case 0x30: return ".gfp";
+            default: return ".bin";
+        }
+    }
+
+    private void setTransferTarget(int fileIndex, int totalSize) {
+        int format = fileIndex & 0xF0;
+        currentImageName = "/img_" + (fileIndex & 0x0F) + getFileExtensionFromFormat(format);
+        currentFileFormat = format;
+        expectedSize = totalSize;
+    }
+
+    private void sendTransferAccepted(int cmdId) {
+        byte[] payload = new byte[7];
+        ByteBuffer buffer = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) ((streamMode ? Constants.TransferFlag.FLAG_STREAM : 0) |
+                (seqMode ? Constants.TransferFlag.FLAG_SEQ : 0) |
+                (expectedRawSize > 0 ? Constants.TransferFlag.FLAG_DEFLATE : 0)));
+        buffer.putShort((short) STREAM_WINDOW_BYTES);
+        buffer.putInt(totalBytesReceived);
+        sendResponse(cmdId, Constants.ResponseCode.RESP_SUCCESS, payload);
+    }
+
+    private void discardUpload() {
+        currentImageFile = null;
+        fs.remove(UPLOAD_PART_FILE);
+        fs.remove(UPLOAD_INFLATE_FILE);
+        fs.remove(UPLOAD_META_FILE);
+    }
+
+    private void startImageTransfer(int fileIndex, int flags, int totalSize, int crc32, int rawSize) {
+        setTransferTarget(fileIndex, totalSize);
+        expectedRawSize = (flags & Constants.TransferFlag.FLAG_DEFLATE) != 0 && totalSize > 0 ? rawSize : 0;
+
+        // 数据写入临时文件，结束传输时替换目标文件
+        fs.write(UPLOAD_PART_FILE, new byte[0]);
+        if (totalSize != 0) {
+            byte[] meta = new byte[13];
+            ByteBuffer.wrap(meta).order(ByteOrder.LITTLE_ENDIAN).put((byte) fileIndex).putInt(totalSize).putInt(crc32)
+                    .putInt(expectedRawSize);
+            fs.write(UPLOAD_META_FILE, meta);
+        } else {
+            fs.remove(UPLOAD_META_FILE);
+        }
+
+        currentImageFile = new ByteArrayOutputStream();
+        isTransferring = true;
+        totalBytesReceived = 0;
+        streamMode = (flags & Constants.TransferFlag.FLAG_STREAM) != 0;
+        seqMode = (flags & Constants.TransferFlag.FLAG_SEQ) != 0 && totalSize > 0;
+        expectedCrc = crc32;
+        lastAckedBytes = 0;
+        resetTransferGaps(0);
+        sendTransferAccepted(Constants.CommandID.CMD_START_TRANSFER);
+    }
+
+    private void resumeImageTransfer(int fileIndex, int flags, int totalSize, int crc32, int rawSize) {
+        if ((flags & Constants.TransferFlag.FLAG_DEFLATE) == 0) {
+            rawSize = 0;
+        }
+        // 断线前的接收进度仍在内存中时，已提交的数据截止到第一个缺失区间
+        int firstGap = isTransferring && seqMode && !transferGaps.isEmpty() ?
+                transferGaps.get(0)[0] : Integer.MAX_VALUE;
+        byte[] meta = fs.read(UPLOAD_META_FILE);
+        byte[] part = fs.read(UPLOAD_PART_FILE);
+        ByteBuffer buffer = meta != null && meta.length == 13 ?
+                ByteBuffer.wrap(meta).order(ByteOrder.LITTLE_ENDIAN) : null;
+        if (totalSize == 0 || buffer == null || part == null ||
+                (buffer.get() & 0xFF) != fileIndex || buffer.getInt() != totalSize || buffer.getInt() != crc32 ||
+                buffer.getInt() != rawSize) {
+            sendResponse(Constants.CommandID.CMD_RESUME_TRANSFER, Constants.ResponseCode.RESP_PARAM_ERROR);
+            return;
+        }
+        if (part.length > totalSize) {
+            discardUpload();
+            isTransferring = false;
+            sendResponse(Constants.CommandID.CMD_RESUME_TRANSFER, Constants.ResponseCode.RESP_PARAM_ERROR);
+            return;
+        }
+
+        setTransferTarget(fileIndex, totalSize);
+        expectedRawSize = rawSize;
+        int committed = Math.min(part.length, firstGap);
+        currentImageFile = new ByteArrayOutputStream();
+        currentImageFile.write(part, 0, part.length);
+        isTransferring = true;
+        totalBytesReceived = committed;
+        streamMode = (flags & Constants.TransferFlag.FLAG_STREAM) != 0;
+        seqMode = (flags & Constants.TransferFlag.FLAG_SEQ) != 0;
+        expectedCrc = crc32;
+        lastAckedBytes = totalBytesReceived;
+        resetTransferGaps(committed);
+        sendTransferAccepted(Constants.CommandID.CMD_RESUME_TRANSFER);
+    }
+
+    private void processImageData(byte[] data) {
+        dataPacketsReceived++;
+        if (!isTransferring || currentImageFile == null) {
+            return;
+        }
+
+        if (frameCorruptionRate > 0 && random.nextDouble() < frameCorruptionRate) {
+            data = data.clone();
+            data[data.length - 1] ^= 0x5A;
+        }
+
+        if (seqMode) {
+            processDataFrame(data);
+            // 信用按APP发送的数据量计算，校验失败的帧同样占用窗口
+            totalBytesReceived += Math.max(0, data.length - Constants.DATA_FRAME_HEADER_SIZE);
+        } else {
+            // 空间不足时LittleFS写入失败，固件直接丢弃该包
+            if (!fs.hasSpaceFor(UPLOAD_PART_FILE, totalBytesReceived + data.length)) {
+                return;
+            }
+            currentImageFile.write(data, 0, data.length);
+            totalBytesReceived += data.length;
+            fs.write(UPLOAD_PART_FILE, currentImageFile.toByteArray());
+        }
+
+        if (streamMode && totalBytesReceived - lastAckedBytes >= STREAM_ACK_INTERVAL) {
+            sendTransferAck();
+        }
+    }
+
+    private void resetTransferGaps(int committed) {
+        transferGaps.clear();
+        nextExpected = committed;
+    }
+
+    // 记录缺失区间，区间数已满时扩展最后一个区间
+    private void addTransferGap(int start, int end) {
+        if (transferGaps.size() < MAX_TRANSFER_GAPS) {
+            transferGaps.add(new int[]{start, end});
+        } else {
+            transferGaps.get(MAX_TRANSFER_GAPS - 1)[1] = end;
+        }
+    }
+
+    // 从缺失区间中移除已收到的[start, end)
+    private void fillTransferGap(int start, int end) {
+        for (int i = 0; i < transferGaps.size(); i++) {
+            int[] gap = transferGaps.get(i);
+            if (end <= gap[0] || start >= gap[1]) {
+                continue;
+            }
+            if (start <= gap[0] && end >= gap[1]) {
+                transferGaps.remove(i--);
+            } else if (start <= gap[0]) {
+                gap[0] = end;
+            } else if (end >= gap[1]) {
+                gap[1] = start;
+            } else if (transferGaps.size() < MAX_TRANSFER_GAPS) {
+                transferGaps.add(++i, new int[]{end, gap[1]});
+                gap[1] = start;
+            }
+        }
+    }
+
+    // 处理序号数据帧: [偏移量(4字节), 数据CRC32(4字节), 数据]
+    private void processDataFrame(byte[] frame) {
+        int header = Constants.DATA_FRAME_HEADER_SIZE;
+        if (frame.length <= header) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = buffer.getInt();
+        int crc = buffer.getInt();
+        int length = frame.length - header;
+        int end = offset + length;
+
+        CRC32 actual = new CRC32();
+        actual.update(frame, header, length);
+        if ((int) actual.getValue() != crc || offset < 0 || (expectedSize > 0 && end > expectedSize)) {
+            return;
+        }
+
+        // 按偏移量写入，跳过的部分由LittleFS补零
+        byte[] part = currentImageFile.toByteArray();
+        int newSize = Math.max(part.length, end);
+        if (!fs.hasSpaceFor(UPLOAD_PART_FILE, newSize)) {
+            return;
+        }
+        byte[] updated = new byte[newSize];
+        System.arraycopy(part, 0, updated, 0, part.length);
+        System.arraycopy(frame, header, updated, offset, length);
+        currentImageFile = new ByteArrayOutputStream(newSize);
+        currentImageFile.write(updated, 0, newSize);
+        fs.write(UPLOAD_PART_FILE, updated);
+
+        if (offset > nextExpected) {
+            addTransferGap(nextExpected, offset);
+        } else if (offset < nextExpected) {
+            fillTransferGap(offset, end);
+        }
+        nextExpected = Math.max(nextExpected, end);
+    }
+
+    // 返回缺失区间，没有缺失时返回false
+    private boolean sendMissingRanges() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + MAX_NACK_RANGES * 8).order(ByteOrder.LITTLE_ENDIAN);
+        int count = 0;
+        buffer.position(1);
+        for (int i = 0; i < transferGaps.size() && count < MAX_NACK_RANGES; i++, count++) {
+            int[] gap = transferGaps.get(i);
+            buffer.putInt(gap[0]).putInt(gap[1] - gap[0]);
+        }
+        if (expectedSize > nextExpected && count < MAX_NACK_RANGES) {
+            buffer.putInt(nextExpected).putInt(expectedSize - nextExpected);
+            count++;
+        }
+        if (count == 0) {
+            return false;
+        }
+
+        buffer.put(0, (byte) count);
+        byte[] payload = new byte[1 + count * 8];
+        System.arraycopy(buffer.array(), 0, payload, 0, payload.length);
+        sendResponse(Constants.CommandID.CMD_END_TRANSFER, Constants.ResponseCode.RESP_INCOMPLETE, payload);
+        return true;
+    }
+
+    private void sendTransferAck() {
+        byte[] ack = new byte[7];
+        ack[0] = Constants.CommandID.CMD_IMAGE_DATA;
+        ack[1] = Constants.ResponseCode.RESP_SUCCESS;
+        ack[2] = 4;
+        ByteBuffer.wrap(ack, 3, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(totalBytesReceived);
+        lastAckedBytes = totalBytesReceived;
+        sendNotification(ack);
+    }
+
+    private void finishImageTransfer() {
+        if (!isTransferring || currentImageFile == null) {
+            sendResponse(Constants.CommandID.CMD_END_TRANSFER, Constants.ResponseCode.RESP_TRANSFER_ERROR);
+            return;
+        }
+
+        if (seqMode && sendMissingRanges()) {
+            return;
+        }
+
+        int fileSize = currentImageFile.size();
+        byte[] received = currentImageFile.toByteArray();
+        currentImageFile = null;
+        isTransferring = false;
+        streamMode = false;
+        seqMode = false;
+
+        int minSize = currentFileFormat == 0x30 ? 50 : 100;
+        if ((expectedSize > 0 && fileSize != expectedSize) ||
+                (expectedRawSize > 0 ? expectedRawSize : fileSize) < minSize) {
+            discardUpload();
+            sendResponse(Constants.CommandID.CMD_END_TRANSFER, Constants.ResponseCode.RESP_TRANSFER_ERROR);
+            return;
+        }
+
+        // 整个文件CRC32校验（旧版APP不提供CRC，跳过）
+        CRC32 actual = new CRC32();
+        actual.update(received, 0, received.length);
+        if (expectedSize > 0 && (int) actual.getValue() != expectedCrc) {
+            discardUpload();
+            sendResponse(Constants.CommandID.CMD_END_TRANSFER, Constants.ResponseCode.RESP_CRC_ERROR);
+            return;
+        }
+
+        // 压缩数据已通过CRC校验，先解压到单独的临时文件，解压失败时目标位置原有的图片保持不变
+        String completedFile = UPLOAD_PART_FILE;
+        if (expectedRawSize > 0) {
+            byte[] raw;
+            try {
+                raw = PayloadCompressor.inflate(received, expectedRawSize);
+            } catch (DataFormatException e) {
+                raw = null;
+            }
+            if (raw == null || !fs.hasSpaceFor(UPLOAD_INFLATE_FILE, raw.length)) {
+                discardUpload();
+                sendResponse(Constants.CommandID.CMD_END_TRANSFER, Constants.ResponseCode.RESP_TRANSFER_ERROR);
+                return;
+            }
+            fs.write(UPLOAD_INFLATE_FILE, raw);
+            fileSize = expectedRawSize;
+            fs.remove(UPLOAD_PART_FILE);
+            completedFile = UPLOAD_INFLATE_FILE;
+        }
+
+        // 用完整的临时文件替换目标文件
+        fs.rename(completedFile, currentImageName);
+        fs.remove(UPLOAD_META_FILE);
+
+        updateImageList();
+
+        int newIndex = findImage(currentImageName);
+        if (newIndex >= 0) {
+            currentImage = newIndex;
+            ImageInfo info = imageList.get(newIndex);
+            byte[] payload = new byte[5];
+            payload[0] = (byte) (info.format | info.fileIndex);
+            ByteBuffer.wrap(payload, 1, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(fileSize);
+            sendResponse(Constants.CommandID.CMD_END_TRANSFER, Constants.ResponseCode.RESP_SUCCESS, payload);
+        } else {
+            sendResponse(Constants.CommandID.CMD_END_TRANSFER, Constants.ResponseCode.RESP_FS_ERROR);
+        }
+    }
+
+    private void deleteImage(int combinedIndex) {
+        int found = findImage(combinedIndex & 0xF0, combinedIndex & 0x0F);
+        if (found < 0) {
+            sendResponse(Constants.CommandID.CMD_DELETE_IMAGE, Constants.ResponseCode.RESP_PARAM_ERROR);
+            return;
+        }
+
+        if (fs.remove(imageList.get(found).filename)) {
+            updateImageList();
+            if (currentImage >= imageList.size()) {
+                currentImage = imageList.isEmpty() ? -1 : 0;
+            }
+            sendResponse(Constants.CommandID.CMD_DELETE_IMAGE, Constants.ResponseCode.RESP_SUCCESS);
+        } else {
+            sendResponse(Constants.CommandID.CMD_DELETE_IMAGE, Constants.ResponseCode.RESP_FS_ERROR);
+        }
+    }
+
+    private void reorderImages(byte[] order) {
+        if (order.length != imageList.size()) {
+            sendResponse(Constants.CommandID.CMD_REORDER_IMAGES, Constants.ResponseCode.RESP_PARAM_ERROR);
+            return;
+        }
+
+        List<ImageInfo> temp = new ArrayList<>(imageList);
+        for (int i = 0; i < order.length; i++) {
+            int from = order[i] & 0xFF;
+            if (from < temp.size()) {
+                imageList.set(i, temp.get(from));
+            }
+        }
+        saveImageOrder();
+        sendResponse(Constants.CommandID.CMD_REORDER_IMAGES, Constants.ResponseCode.RESP_SUCCESS);
+    }
+
+    private void sendImageList() {
+        byte[] response = new byte[1 + imageList.size() * 6];
+        ByteBuffer buffer = ByteBuffer.wrap(response).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) imageList.size());
+        for (int i = 0; i < imageList.size(); i++) {
+            ImageInfo info = imageList.get(i);
+            buffer.put((byte) i);
+            buffer.put((byte) (info.format | info.fileIndex));
+            buffer.putInt(info.fileSize);
+        }
+        sendResponse(Constants.CommandID.CMD_GET_IMAGE_LIST, Constants.ResponseCode.RESP_SUCCESS, response);
+    }
+
+    private void setDisplayImage(int combinedIndex) {
+        int found = findImage(combinedIndex & 0xF0, combinedIndex & 0x0F);
+        if (found >= 0) {
+            currentImage = found;
+            sendResponse(Constants.CommandID.CMD_SET_DISPLAY, Constants.ResponseCode.RESP_SUCCESS,
+                    new byte[]{(byte) combinedIndex});
+        } else {
+            sendResponse(Constants.CommandID.CMD_SET_DISPLAY, Constants.ResponseCode.RESP_PARAM_ERROR);
+        }
+    }
+
+    private void sendDeviceStatus() {
+        byte[] response = new byte[14];
+        ByteBuffer buffer = ByteBuffer.wrap(response).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt((int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - bootTime));
+        buffer.putInt(fs.usedBytes());
+        int current = 0;
+        if (currentImage >= 0 && currentImage < imageList.size()) {
+            ImageInfo info = imageList.get(currentImage);
+            current = info.format | info.fileIndex;
+        }
+        buffer.put((byte) current);
+        buffer.putInt(fs.totalBytes());
+        buffer.put((byte) (Constants.DeviceFeature.FEATURE_GIFPACK_V2 | Constants.DeviceFeature.FEATURE_IBIN));
+        sendResponse(Constants.CommandID.CMD_GET_STATUS, Constants.ResponseCode.RESP_SUCCESS, response);
+    }
+
+    private int findImage(String filename) {
+        for (int i = 0; i < imageList.size(); i++) {
+            if (imageList.get(i).filename.equals(filename)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findImage(int format, int fileIndex) {
+        for (int i = 0; i < imageList.size(); i++) {
+            ImageInfo info = imageList.get(i);
+            if (info.format == format && info.fileIndex == fileIndex) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 与固件一致：按目录顺序重建列表，之前的重排结果会被覆盖
+    private void updateImageList() {
+        imageList.clear();
+        for (Map.Entry<String, byte[]> entry : fs.list().entrySet()) {
+            if (imageList.size() >= MAX_IMAGES) {
+                break;
+            }
+            String filename = entry.getKey();
+            int dot = filename.lastIndexOf('.');
+            int underscore = filename.lastIndexOf('_') + 1;
+            if (dot < 0 || underscore <= 0 || dot <= underscore) {
+                continue;
+            }
+
+            String ext = filename.substring(dot).toLowerCase();
+            int format;
+            if (ext.equals(".jpg") || ext.equals(".jpeg")) {
+                format = 0x10;
+            } else if (ext.equals(".png")) {
+                format = 0x20;
+            } else if (ext.equals(".gfp")) {
+                format = 0x30;
+            } else if (ext.equals(".bin")) {
+                format = 0x00;
+            } else {
+                continue;
+            }
+
+            int index;
+            try {
+                index = Integer.parseInt(filename.substring(underscore, dot)) & 0x0F;
+            } catch (NumberFormatException e) {
+                index = 0;
+            }
+
+            ImageInfo info = new ImageInfo();
+            info.filename = filename;
+            info.format = format;
+            info.fileIndex = index;
+            info.fileSize = entry.getValue().length;
+            imageList.add(info);
+        }
+        saveImageOrder();
+    }
+
+    // 写入/order.bin，格式与固件saveImageOrder一致
+    private void saveImageOrder() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xA5);
+        out.write(0x02);
+        out.write(imageList.size());
+        for (ImageInfo info : imageList) {
+            byte[] name = info.filename.getBytes(StandardCharsets.UTF_8);
+            out.write(name.length);
+            out.write(name, 0, name.length);
+            out.write(info.format);
+            out.write(info.fileIndex);
+            byte[] size = new byte[4];
+            ByteBuffer.wrap(size).order(ByteOrder.LITTLE_ENDIAN).putInt(info.fileSize);
+            out.write(size, 0, 4);
+            out.write(1);
+        }
+        fs.write("/order.bin", out.toByteArray());
+    }
+
+    /**
+     * 内存中的LittleFS模型
+     * 文件按名称排序（与LittleFS目录遍历顺序一致），占用空间按4KB块计算
+     */
+    public static class FileSystem {
+        public static final int BLOCK_SIZE = 4096;
+        private static final int METADATA_BLOCKS = 2; // 根目录元数据对
+
+        private final int totalBytes;
+        private final TreeMap<String, byte[]> files = new TreeMap<>();
+
+        FileSystem(int totalBytes) {
+            this.totalBytes = totalBytes;
+        }
+
+        public synchronized int totalBytes() {
+            return totalBytes;
+        }
+
+        public synchronized int usedBytes() {
+            int blocks = METADATA_BLOCKS;
+            for (byte[] data : files.values()) {
+                blocks += blocksFor(data.length);
+            }
+            return blocks * BLOCK_SIZE;
+        }
+
+        public synchronized byte[] read(String name) {
+            byte[] data = files.get(name);
+            return data != null ? data.clone() : null;
+        }
+
+        public synchronized boolean exists(String name) {
+            return files.containsKey(name);
+        }
+
+        public synchronized void write(String name, byte[] data) {
+            files.put(name, data.clone());
+        }
+
+        public synchronized boolean remove(String name) {
+            return files.remove(name) != null;
+        }
+
+        public synchronized boolean rename(String from, String to) {
+            byte[] data = files.remove(from);
+            if (data == null) {
+                return false;
+            }
+            files.put(to, data);
+            return true;
+        }
+
+        // 文件name增长到size字节后是否仍有空间
+        synchronized boolean hasSpaceFor(String name, int size) {
+            byte[] existing = files.get(name);
+            int existingBlocks = existing != null ? blocksFor(existing.length) : 0;
+            return usedBytes() + (blocksFor(size) - existingBlocks) * BLOCK_SIZE <= totalBytes;
+        }
+
+        // 文件名到内容的快照，按名称排序，不含目录前缀以外的处理
+        synchronized Map<String, byte[]> list() {
+            return new TreeMap<>(files);
+        }
+
+        private static int blocksFor(int size) {
+            return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        }
+    }
+}
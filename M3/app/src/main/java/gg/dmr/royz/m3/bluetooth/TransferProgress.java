@@ -0,0 +1,96 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import java.util.Locale;
+
+/**
+ * 传输进度快照
+ * 由BleManager在I/O线程按设定的频率合并生成后投递到主线程，创建后不再修改
+ */
+public class TransferProgress {
+    private final int transferredBytes; // 已发送字节数
+    private final int totalBytes;       // 总字节数
+    private final long elapsedMs;       // 本次发送已用时间(毫秒)
+    private final double bytesPerSecond; // 平滑后的发送速率，0表示还没有足够的样本
+
+    public TransferProgress(int transferredBytes, int totalBytes, long elapsedMs, double bytesPerSecond) {
+        this.transferredBytes = transferredBytes;
+        this.totalBytes = totalBytes;
+        this.elapsedMs = elapsedMs;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public int getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    public int getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    // 获取进度百分比(0-100)
+    public int getPercent() {
+        if (totalBytes <= 0) {
+            return 0;
+        }
+        return (int) (transferredBytes * 100L / totalBytes);
+    }
+
+    // 预计剩余时间(毫秒)，速率未知时返回-1
+    public long getEtaMs() {
+        if (transferredBytes >= totalBytes) {
+            return 0;
+        }
+        if (bytesPerSecond <= 0) {
+            return -1;
+        }
+        return (long) ((totalBytes - transferredBytes) * 1000.0 / bytesPerSecond);
+    }
+
+    public boolean isComplete() {
+        return totalBytes > 0 && transferredBytes >= totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        long eta = getEtaMs();
+        return String.format(Locale.US, "%d/%d 字节 (%d%%), 速率=%.1fKB/s, 剩余=%s",
+                transferredBytes, totalBytes, getPercent(), bytesPerSecond / 1024.0,
+                eta < 0 ? "未知" : String.format(Locale.US, "%.1fs", eta / 1000.0));
+    }
+}
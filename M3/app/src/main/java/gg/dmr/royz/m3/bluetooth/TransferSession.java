@@ -0,0 +1,244 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * 图片传输会话
+ * 记录目标槽位、格式、总大小、内容CRC32和已确认的偏移量，并把待传数据保存在缓存目录，
+ * 连接中断（甚至应用重启）后可以向设备查询已提交的字节数并从该处继续传输
+ * 压缩传输时，大小、CRC32和偏移量都针对压缩后实际发送的数据
+ */
+public class TransferSession {
+    private static final String TAG = "TransferSession";
+    private static final String PREFS_NAME = "transfer_session";
+    private static final String PAYLOAD_FILE = "pending_transfer.bin";
+
+    private static final String KEY_INDEX = "combined_index";
+    private static final String KEY_SIZE = "total_size";
+    private static final String KEY_CRC = "crc32";
+    private static final String KEY_OFFSET = "confirmed_offset";
+    private static final String KEY_RAW_SIZE = "raw_size";
+
+    private final byte combinedIndex; // 高4位格式，低4位槽位
+    private final int totalSize;
+    private final int crc32;
+    private final int rawSize; // 解压后的大小，0表示未压缩
+    private int confirmedOffset;
+
+    // combinedIndex只取低8位，持久化时按int保存
+    private TransferSession(int combinedIndex, int totalSize, int crc32, int rawSize, int confirmedOffset) {
+        this.combinedIndex = (byte) combinedIndex;
+        this.totalSize = totalSize;
+        this.crc32 = crc32;
+        this.rawSize = rawSize;
+        this.confirmedOffset = confirmedOffset;
+    }
+
+    // 为待传数据创建新会话
+    public static TransferSession create(byte combinedIndex, byte[] data) {
+        return create(combinedIndex, data, 0);
+    }
+
+    // 为压缩后的数据创建新会话，rawSize为压缩前的大小
+    public static TransferSession create(byte combinedIndex, byte[] data, int rawSize) {
+        return new TransferSession(combinedIndex, data.length, crc32Of(data), rawSize, 0);
+    }
+
+    public static int crc32Of(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    public static int crc32Of(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return (int) crc.getValue();
+    }
+
+    // 把缓冲区的内容复制为数组（用于需要byte[]的接口，如解压）
+    public static byte[] toArray(ByteBuffer data) {
+        byte[] array = new byte[data.remaining()];
+        data.duplicate().get(array);
+        return array;
+    }
+
+    public byte getCombinedIndex() {
+        return combinedIndex;
+    }
+
+    public int getSlot() {
+        return combinedIndex & 0x0F;
+    }
+
+    public int getFormat() {
+        return combinedIndex & 0xF0;
+    }
+
+    public int getTotalSize() {
+        return totalSize;
+    }
+
+    public int getCrc32() {
+        return crc32;
+    }
+
+    public int getRawSize() {
+        return rawSize;
+    }
+
+    public boolean isCompressed() {
+        return rawSize > 0;
+    }
+
+    public int getConfirmedOffset() {
+        return confirmedOffset;
+    }
+
+    public void setConfirmedOffset(int offset) {
+        this.confirmedOffset = Math.max(0, Math.min(offset, totalSize));
+    }
+
+    // ==== 持久化 ====
+
+    // 保存会话和待传数据，数据写入失败时返回false（此时不可续传）
+    public boolean save(Context context, byte[] data) {
+        File file = new File(context.getCacheDir(), PAYLOAD_FILE);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        } catch (IOException e) {
+            Log.e(TAG, "保存待传数据失败: " + e.getMessage());
+            clear(context);
+            return false;
+        }
+
+        saveState(context);
+        return true;
+    }
+
+    private void saveState(Context context) {
+        prefs(context).edit()
+                .putInt(KEY_INDEX, combinedIndex)
+                .putInt(KEY_SIZE, totalSize)
+                .putInt(KEY_CRC, crc32)
+                .putInt(KEY_RAW_SIZE, rawSize)
+                .putInt(KEY_OFFSET, confirmedOffset)
+                .apply();
+    }
+
+    /**
+     * 以已写好的文件作为待传数据建立新会话并保存
+     * 文件被移动为会话数据文件，不读入内存；不压缩
+     *
+     * @return 新会话，文件无法移动或读取时返回null
+     */
+    public static TransferSession adopt(Context context, byte combinedIndex, File source) {
+        File file = new File(context.getCacheDir(), PAYLOAD_FILE);
+        if (!source.renameTo(file)) {
+            Log.e(TAG, "移动待传文件失败: " + source);
+            return null;
+        }
+
+        ByteBuffer data = map(file);
+        if (data == null) {
+            return null;
+        }
+        TransferSession session = new TransferSession(combinedIndex, data.remaining(), crc32Of(data), 0, 0);
+        session.saveState(context);
+        return session;
+    }
+
+    // 只更新已确认偏移量
+    public void saveProgress(Context context) {
+        prefs(context).edit().putInt(KEY_OFFSET, confirmedOffset).apply();
+    }
+
+    // 读取未完成的会话，不存在时返回null
+    public static TransferSession load(Context context) {
+        SharedPreferences prefs = prefs(context);
+        if (!prefs.contains(KEY_SIZE)) {
+            return null;
+        }
+        return new TransferSession(prefs.getInt(KEY_INDEX, 0), prefs.getInt(KEY_SIZE, 0),
+                prefs.getInt(KEY_CRC, 0), prefs.getInt(KEY_RAW_SIZE, 0), prefs.getInt(KEY_OFFSET, 0));
+    }
+
+    // 把待传数据文件只读映射到内存，缺失或与记录的大小/CRC不一致时返回null
+    public ByteBuffer loadPayload(Context context) {
+        File file = new File(context.getCacheDir(), PAYLOAD_FILE);
+        if (!file.exists() || file.length() != totalSize) {
+            return null;
+        }
+
+        ByteBuffer data = map(file);
+        return data != null && crc32Of(data) == crc32 ? data : null;
+    }
+
+    // 映射后即可关闭文件，映射在缓冲区被回收前一直有效
+    private static ByteBuffer map(File file) {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            Log.e(TAG, "读取待传数据失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static void clear(Context context) {
+        prefs(context).edit().clear().apply();
+        File file = new File(context.getCacheDir(), PAYLOAD_FILE);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "删除待传数据失败");
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "槽位=%d, 格式=0x%02X, 大小=%d字节%s, CRC32=%08X, 已确认=%d字节",
+                getSlot(), getFormat(), totalSize, isCompressed() ? "(压缩前" + rawSize + "字节)" : "",
+                crc32, confirmedOffset);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import java.util.Locale;
+
+/**
+ * 图片传输统计
+ * 记录单次传输的模式、数据量和耗时，便于对比不同传输模式的实际速率
+ */
+public class TransferStats {
+    private final BleManager.TransferMode mode; // 传输模式
+    private final int totalBytes;               // 传输字节数
+    private final long elapsedMs;               // 传输耗时(毫秒)
+    private final int chunkSize;                // 数据块大小(由MTU决定)
+    private final int phy;                      // 传输结束时的发送PHY
+    private final float connectionIntervalMs;   // 传输结束时的连接间隔(毫秒)，0表示未知
+
+    public TransferStats(BleManager.TransferMode mode, int totalBytes, long elapsedMs, int chunkSize,
+                         int phy, float connectionIntervalMs) {
+        this.mode = mode;
+        this.totalBytes = totalBytes;
+        this.elapsedMs = elapsedMs;
+        this.chunkSize = chunkSize;
+        this.phy = phy;
+        this.connectionIntervalMs = connectionIntervalMs;
+    }
+
+    public BleManager.TransferMode getMode() {
+        return mode;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getPhy() {
+        return phy;
+    }
+
+    public float getConnectionIntervalMs() {
+        return connectionIntervalMs;
+    }
+
+    public int getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    // 获取平均传输速率(KB/s)
+    public double getKilobytesPerSecond() {
+        if (elapsedMs <= 0) {
+            return 0;
+        }
+        return (totalBytes / 1024.0) / (elapsedMs / 1000.0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "模式=%s, 大小=%d字节, 块大小=%d字节, PHY=%s, 连接间隔=%.2fms, 耗时=%dms, 速率=%.1fKB/s",
+                mode, totalBytes, chunkSize, BleManager.getPhyName(phy), connectionIntervalMs,
+                elapsedMs, getKilobytesPerSecond());
+    }
+}
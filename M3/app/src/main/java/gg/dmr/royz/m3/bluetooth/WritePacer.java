@@ -0,0 +1,175 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Locale;
+
+/**
+ * 自适应写入节奏控制
+ * 根据有响应写入的回调延迟、写入超时和writeCharacteristic被拒绝的情况，动态调整包间隔和写超时：
+ * - 包间隔按AIMD调整：写入顺利时逐步减小，超时或被拒绝时成倍增大
+ * - 写超时按平滑延迟和延迟抖动估算（与TCP重传超时的计算方式相同）
+ * 学习到的值按设备地址保存，下次连接同一设备时从该值开始
+ */
+public class WritePacer {
+    private static final String PREFS_NAME = "write_pacer";
+
+    // 没有学习值时的初始值（与原先固定的间隔和超时一致）
+    public static final int DEFAULT_DELAY_MS = 30;
+    public static final int DEFAULT_TIMEOUT_MS = 250;
+
+    private static final double MIN_DELAY_MS = 0;
+    private static final double MAX_DELAY_MS = 200;
+    private static final double DELAY_DECREASE_MS = 1;   // 加性减小步长
+    private static final double DELAY_BACKOFF = 2;       // 乘性增大倍数
+    private static final double DELAY_BACKOFF_MIN_MS = 5; // 间隔为0时退避的起点
+    private static final double QUEUEING_RATIO = 1.5;    // 延迟超过平滑值的该倍数时认为设备开始积压
+    private static final double QUEUEING_BACKOFF = 1.25;
+
+    private static final int MIN_TIMEOUT_MS = 100;
+    private static final int MAX_TIMEOUT_MS = 2000;
+    private static final int RETRY_DELAY_MS = 100;       // 写入被拒绝后的最短重试间隔
+
+    private final String deviceKey;
+    private double delayMs;
+    private double smoothedLatencyMs; // 平滑后的写回调延迟，0表示还没有样本
+    private double latencyVarianceMs;
+    private int timeoutMs;
+
+    public WritePacer(String deviceKey, double delayMs, double smoothedLatencyMs, double latencyVarianceMs) {
+        this.deviceKey = deviceKey;
+        this.delayMs = clamp(delayMs, MIN_DELAY_MS, MAX_DELAY_MS);
+        this.smoothedLatencyMs = Math.max(0, smoothedLatencyMs);
+        this.latencyVarianceMs = Math.max(0, latencyVarianceMs);
+        updateTimeout();
+    }
+
+    // 未连接过的设备使用默认值
+    public static WritePacer createDefault(String deviceKey) {
+        return new WritePacer(deviceKey, DEFAULT_DELAY_MS, 0, 0);
+    }
+
+    // 包间隔(ms)，流式模式不使用
+    public long getDelayMs() {
+        return Math.round(delayMs);
+    }
+
+    // 写超时(ms)
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    // 写入被拒绝后的重试间隔(ms)
+    public long getRetryDelayMs() {
+        return Math.max(RETRY_DELAY_MS, getDelayMs());
+    }
+
+    // 有响应写入完成，latencyMs为从发起写入到回调的时间
+    public void onWriteComplete(long latencyMs) {
+        if (smoothedLatencyMs <= 0) {
+            smoothedLatencyMs = latencyMs;
+            latencyVarianceMs = latencyMs / 2.0;
+        } else {
+            latencyVarianceMs = 0.75 * latencyVarianceMs + 0.25 * Math.abs(smoothedLatencyMs - latencyMs);
+            smoothedLatencyMs = 0.875 * smoothedLatencyMs + 0.125 * latencyMs;
+        }
+
+        if (latencyMs > smoothedLatencyMs * QUEUEING_RATIO) {
+            // 延迟明显变长，设备处理不过来，放慢一些
+            delayMs = clamp(Math.max(delayMs, DELAY_BACKOFF_MIN_MS) * QUEUEING_BACKOFF, MIN_DELAY_MS, MAX_DELAY_MS);
+        } else {
+            delayMs = clamp(delayMs - DELAY_DECREASE_MS, MIN_DELAY_MS, MAX_DELAY_MS);
+        }
+        updateTimeout();
+    }
+
+    // 写超时，未收到回调
+    public void onWriteTimeout() {
+        backOff();
+        // 超时本身说明估算偏小，超时时间同样加倍
+        timeoutMs = (int) Math.min(MAX_TIMEOUT_MS, timeoutMs * 2L);
+    }
+
+    // writeCharacteristic返回false（协议栈忙）
+    public void onWriteRejected() {
+        backOff();
+    }
+
+    private void backOff() {
+        delayMs = clamp(Math.max(delayMs, DELAY_BACKOFF_MIN_MS) * DELAY_BACKOFF, MIN_DELAY_MS, MAX_DELAY_MS);
+    }
+
+    private void updateTimeout() {
+        if (smoothedLatencyMs <= 0) {
+            timeoutMs = DEFAULT_TIMEOUT_MS;
+            return;
+        }
+        timeoutMs = (int) clamp(smoothedLatencyMs + 4 * latencyVarianceMs, MIN_TIMEOUT_MS, MAX_TIMEOUT_MS);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    // ==== 持久化 ====
+
+    // 读取设备的学习值，没有时返回默认值
+    public static WritePacer load(Context context, String deviceKey) {
+        SharedPreferences prefs = prefs(context);
+        if (deviceKey == null || !prefs.contains(deviceKey + "_delay")) {
+            return createDefault(deviceKey);
+        }
+        return new WritePacer(deviceKey, prefs.getFloat(deviceKey + "_delay", DEFAULT_DELAY_MS),
+                prefs.getFloat(deviceKey + "_latency", 0), prefs.getFloat(deviceKey + "_variance", 0));
+    }
+
+    public void save(Context context) {
+        if (deviceKey == null) {
+            return;
+        }
+        prefs(context).edit()
+                .putFloat(deviceKey + "_delay", (float) delayMs)
+                .putFloat(deviceKey + "_latency", (float) smoothedLatencyMs)
+                .putFloat(deviceKey + "_variance", (float) latencyVarianceMs)
+                .apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "包间隔=%dms, 写超时=%dms, 平均延迟=%.1fms",
+                getDelayMs(), timeoutMs, smoothedLatencyMs);
+    }
+}
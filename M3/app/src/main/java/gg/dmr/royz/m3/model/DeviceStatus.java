@@ -35,11 +35,23 @@ public class DeviceStatus {
     private int uptime;          // 开机时长(秒)
     private int storageUsed;     // 已使用存储空间(字节)
     private byte currentImage;   // 当前显示的图片索引
+    private int storageTotal;    // 存储总量(字节)，0表示未知（旧固件）
+    private byte features;       // 设备功能标志位（Constants.DeviceFeature），旧固件为0
 
     public DeviceStatus(int uptime, int storageUsed, byte currentImage) {
+        this(uptime, storageUsed, currentImage, 0);
+    }
+
+    public DeviceStatus(int uptime, int storageUsed, byte currentImage, int storageTotal) {
+        this(uptime, storageUsed, currentImage, storageTotal, (byte) 0);
+    }
+
+    public DeviceStatus(int uptime, int storageUsed, byte currentImage, int storageTotal, byte features) {
         this.uptime = uptime;
         this.storageUsed = storageUsed;
         this.currentImage = currentImage;
+        this.storageTotal = storageTotal;
+        this.features = features;
     }
 
     public int getUptime() {
@@ -77,10 +89,31 @@ public class DeviceStatus {
         }
     }
 
+    public int getStorageTotal() {
+        return storageTotal;
+    }
+
+    // 获取剩余存储空间(字节)，存储总量未知时返回-1
+    public int getStorageFree() {
+        if (storageTotal <= 0) {
+            return -1;
+        }
+        return Math.max(0, storageTotal - storageUsed);
+    }
+
     public byte getCurrentImage() {
         return currentImage;
     }
 
+    public byte getFeatures() {
+        return features;
+    }
+
+    // 设备是否支持指定的功能，旧固件不上报功能标志，全部视为不支持
+    public boolean hasFeature(byte feature) {
+        return (features & feature) == feature;
+    }
+
     @Override
     public String toString() {
         return "DeviceStatus{" +
@@ -0,0 +1,118 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bitmap复用池
+ * 按尺寸和像素格式缓存用完的可变Bitmap，逐帧转换时重复使用同一批缓冲区，避免每帧分配新的Bitmap引起频繁GC
+ * 可以在多个线程中同时使用
+ */
+public class BitmapPool {
+    // 每种尺寸最多缓存的Bitmap数量
+    private static final int DEFAULT_MAX_PER_KEY = 4;
+
+    private final int maxPerKey;
+    private final Map<String, ArrayDeque<Bitmap>> pool = new HashMap<>();
+    private int allocated = 0; // 池中没有可用Bitmap而新分配的次数
+    private int reused = 0;    // 从池中复用的次数
+
+    public BitmapPool() {
+        this(DEFAULT_MAX_PER_KEY);
+    }
+
+    public BitmapPool(int maxPerKey) {
+        this.maxPerKey = maxPerKey;
+    }
+
+    private static String key(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    /**
+     * 取出一个指定尺寸和格式的可变Bitmap，池中没有时新建
+     * 取出的Bitmap内容未定义，使用前需要自行填充
+     */
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bitmaps = pool.get(key(width, height, config));
+        while (bitmaps != null && !bitmaps.isEmpty()) {
+            Bitmap bitmap = bitmaps.pop();
+            if (!bitmap.isRecycled()) {
+                reused++;
+                return bitmap;
+            }
+        }
+        allocated++;
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * 归还不再使用的Bitmap；不可变或已回收的Bitmap直接丢弃，池满时回收
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable()) {
+            bitmap.recycle();
+            return;
+        }
+        String key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = pool.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            pool.put(key, bitmaps);
+        }
+        if (bitmaps.size() < maxPerKey) {
+            bitmaps.push(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    // 回收池中所有Bitmap
+    public synchronized void clear() {
+        for (ArrayDeque<Bitmap> bitmaps : pool.values()) {
+            for (Bitmap bitmap : bitmaps) {
+                bitmap.recycle();
+            }
+        }
+        pool.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "新分配=" + allocated + ", 复用=" + reused;
+    }
+}
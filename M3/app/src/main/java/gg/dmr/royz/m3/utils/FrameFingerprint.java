@@ -0,0 +1,134 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import android.graphics.Bitmap;
+
+/**
+ * 帧指纹
+ * 包含整帧像素的64位哈希和16x16分块平均亮度的缩略图，用于判断相邻两帧是否相同或看起来相同
+ */
+public class FrameFingerprint {
+    public static final int GRID = 16; // 缩略图每边的分块数
+
+    // 看起来相同的阈值：分块亮度平均差和最大差（0-255）
+    private static final double MAX_MEAN_DIFFERENCE = 0.5;
+    private static final int MAX_BLOCK_DIFFERENCE = 2;
+
+    // 每个线程复用的像素缓冲区
+    private static final ThreadLocal<int[]> PIXELS = new ThreadLocal<>();
+
+    private final long hash;
+    private final int[] luma; // GRID*GRID个分块的平均亮度
+
+    private FrameFingerprint(long hash, int[] luma) {
+        this.hash = hash;
+        this.luma = luma;
+    }
+
+    // 计算Bitmap的指纹，忽略alpha通道
+    public static FrameFingerprint of(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = PIXELS.get();
+        if (pixels == null || pixels.length < width * height) {
+            pixels = new int[width * height];
+            PIXELS.set(pixels);
+        }
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return of(pixels, width, height);
+    }
+
+    // 根据已读取的像素计算指纹，pixels按行排列，每行width个ARGB值
+    public static FrameFingerprint of(int[] pixels, int width, int height) {
+        // FNV-1a哈希
+        long hash = 0xcbf29ce484222325L;
+        long[] sums = new long[GRID * GRID];
+        int[] counts = new int[GRID * GRID];
+        for (int y = 0; y < height; y++) {
+            int row = y * GRID / height * GRID;
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x] & 0xFFFFFF;
+                hash = (hash ^ pixel) * 0x100000001b3L;
+
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                int block = row + x * GRID / width;
+                sums[block] += (r * 77 + g * 150 + b * 29) >> 8;
+                counts[block]++;
+            }
+        }
+
+        int[] luma = new int[GRID * GRID];
+        for (int i = 0; i < luma.length; i++) {
+            luma[i] = counts[i] > 0 ? (int) (sums[i] / counts[i]) : 0;
+        }
+        return new FrameFingerprint(hash, luma);
+    }
+
+    public int getLuma(int block) {
+        return luma[block];
+    }
+
+    // 分块亮度的平均差（0-255）
+    public double meanDifference(FrameFingerprint other) {
+        long total = 0;
+        for (int i = 0; i < luma.length; i++) {
+            total += Math.abs(luma[i] - other.luma[i]);
+        }
+        return (double) total / luma.length;
+    }
+
+    // 分块亮度的最大差（0-255）
+    public int maxDifference(FrameFingerprint other) {
+        int max = 0;
+        for (int i = 0; i < luma.length; i++) {
+            max = Math.max(max, Math.abs(luma[i] - other.luma[i]));
+        }
+        return max;
+    }
+
+    // 相对前一帧的变化量，用于按变化量选帧：看起来相同时为0，
+    // 否则为分块亮度平均差加上最大差的分摊，小范围的运动也不会被平均掉
+    public double motionFrom(FrameFingerprint previous) {
+        if (isVisuallyIdentical(previous)) {
+            return 0;
+        }
+        return meanDifference(previous) + (double) maxDifference(previous) / GRID;
+    }
+
+    // 像素完全相同，或只有肉眼看不出的差别（如GIF抖动噪点）
+    public boolean isVisuallyIdentical(FrameFingerprint other) {
+        if (hash == other.hash) {
+            return true;
+        }
+        return maxDifference(other) <= MAX_BLOCK_DIFFERENCE && meanDifference(other) <= MAX_MEAN_DIFFERENCE;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+/**
+ * GIF帧时间轴重采样
+ * 按每帧的显示时长把源帧放到时间轴上，保留的帧一直显示到下一个保留帧开始，总播放时长不变
+ * 保留帧之间至少间隔minInterval，快于播放端帧率的连续短帧会被丢弃，长时间停留的帧只保存一次并带上较长的显示时长
+ * 提供每帧的变化量时按变化量选帧：从上一个保留帧开始累计变化量，达到阈值才保留，
+ * 阈值取总变化量除以帧数上限，变化大的片段保留得密，静止或几乎不动的片段合并成一帧
+ * 选出的帧超过上限时合并掉作用最小的帧，而不是截掉末尾，保留的帧仍然分布在整段动画上
+ */
+public class FrameTimeline {
+    // GIF中小于这个值的帧延迟按浏览器的习惯当作DEFAULT_GIF_DELAY处理
+    private static final int MIN_GIF_DELAY = 20;
+    private static final int DEFAULT_GIF_DELAY = 100;
+
+    private final int[] sourceIndices;
+    private final int[] durations;
+    private final int totalDuration;
+
+    private FrameTimeline(int[] sourceIndices, int[] durations, int totalDuration) {
+        this.sourceIndices = sourceIndices;
+        this.durations = durations;
+        this.totalDuration = totalDuration;
+    }
+
+    /**
+     * @param sourceDurations 源帧的显示时长（毫秒），直接来自GIF
+     * @param motion 每帧相对前一帧的变化量（第0帧不使用），0表示看不出变化；null表示只按时间选帧
+     * @param minInterval 保留帧之间的最小间隔（毫秒），即播放端最高帧率对应的间隔
+     * @param maxFrames 最多保留的帧数；只按时间选帧时，总时长过长会自动加大间隔
+     */
+    public static FrameTimeline resample(int[] sourceDurations, double[] motion, int minInterval, int maxFrames) {
+        int total = 0;
+        int[] delays = new int[sourceDurations.length];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = sourceDurations[i] < MIN_GIF_DELAY ? DEFAULT_GIF_DELAY : sourceDurations[i];
+            total += delays[i];
+        }
+
+        int interval = minInterval;
+        double threshold = 0;
+        if (motion == null) {
+            interval = Math.max(minInterval, (total + maxFrames - 1) / maxFrames);
+        } else {
+            double totalMotion = 0;
+            for (int i = 1; i < motion.length; i++) {
+                totalMotion += motion[i];
+            }
+            threshold = totalMotion / maxFrames;
+        }
+
+        int[] indices = new int[delays.length];
+        int[] starts = new int[delays.length];
+        double[] gains = new double[delays.length];
+        int count = select(delays, motion, interval, threshold, indices, starts, gains);
+
+        // 变化量累计的余量会让帧数略超上限，这时合并掉作用最小的保留帧（变化量最小，其次显示时间最短），
+        // 它的变化并入下一个保留帧；不能直接截掉末尾，否则最后一个保留帧会一直显示到动画结束
+        while (count > maxFrames) {
+            int drop = 1;
+            for (int k = 2; k < count; k++) {
+                if (gains[k] < gains[drop] || (gains[k] == gains[drop] &&
+                        shownTime(starts, count, total, k) < shownTime(starts, count, total, drop))) {
+                    drop = k;
+                }
+            }
+            if (drop + 1 < count) {
+                gains[drop + 1] += gains[drop];
+            }
+            System.arraycopy(indices, drop + 1, indices, drop, count - drop - 1);
+            System.arraycopy(starts, drop + 1, starts, drop, count - drop - 1);
+            System.arraycopy(gains, drop + 1, gains, drop, count - drop - 1);
+            count--;
+        }
+
+        int[] selected = new int[count];
+        int[] durations = new int[count];
+        for (int k = 0; k < count; k++) {
+            selected[k] = indices[k];
+            durations[k] = (k + 1 < count ? starts[k + 1] : total) - starts[k];
+        }
+        return new FrameTimeline(selected, durations, total);
+    }
+
+    // 扫描一遍选出保留帧，源帧序号、开始时刻和带来的变化量写入indices、starts和gains，返回保留的帧数
+    private static int select(int[] delays, double[] motion, int interval, double threshold,
+                              int[] indices, int[] starts, double[] gains) {
+        int count = 0;
+        int time = 0;
+        int nextStart = 0;
+        double accumulated = 0;
+        for (int i = 0; i < delays.length; i++) {
+            if (motion != null && i > 0) {
+                accumulated += motion[i];
+            }
+            // 第一帧总是保留；之后的帧要到了时间，并且（按变化量选帧时）累计了足够的变化
+            boolean keep = i == 0 || (time >= nextStart &&
+                    (motion == null || (accumulated > 0 && accumulated >= threshold)));
+            if (keep) {
+                indices[count] = i;
+                starts[count] = time;
+                gains[count] = accumulated;
+                count++;
+                nextStart = time + interval;
+                accumulated = 0;
+            }
+            time += delays[i];
+        }
+        return count;
+    }
+
+    // 第k个保留帧的显示时间
+    private static int shownTime(int[] starts, int count, int total, int k) {
+        return (k + 1 < count ? starts[k + 1] : total) - starts[k];
+    }
+
+    /**
+     * 每隔step帧取一帧，不看帧时长，旧格式按平均FPS播放时使用
+     * 保留帧的时长就是该源帧自己的时长
+     */
+    public static FrameTimeline everyNth(int[] sourceDurations, int step, int maxFrames) {
+        int count = Math.min(maxFrames, (sourceDurations.length + step - 1) / step);
+        int[] selected = new int[count];
+        int[] durations = new int[count];
+        int total = 0;
+        for (int k = 0; k < count; k++) {
+            selected[k] = k * step;
+            durations[k] = sourceDurations[k * step];
+            total += durations[k];
+        }
+        return new FrameTimeline(selected, durations, total);
+    }
+
+    public int getFrameCount() {
+        return sourceIndices.length;
+    }
+
+    // 第i个保留帧对应的源帧序号
+    public int getSourceIndex(int i) {
+        return sourceIndices[i];
+    }
+
+    // 第i个保留帧的显示时长（毫秒）
+    public int getDuration(int i) {
+        return durations[i];
+    }
+
+    public int getTotalDuration() {
+        return totalDuration;
+    }
+}
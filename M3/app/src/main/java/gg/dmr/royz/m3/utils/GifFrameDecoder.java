@@ -0,0 +1,126 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import android.graphics.Bitmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import pl.droidsonroids.gif.GifDecoder;
+import pl.droidsonroids.gif.GifOptions;
+import pl.droidsonroids.gif.InputSource;
+
+/**
+ * GIF逐帧顺序解码
+ * 每一帧都解码到同一个复用的Bitmap中，不为每帧复制一份完整画面
+ * 按帧序号递增读取时每帧只解码一次；读取更早的帧时解码器会从第一帧重新开始
+ * 解码时按inSampleSize降采样，大尺寸GIF直接解码到接近目标尺寸，不先解码原始分辨率再缩小
+ */
+public class GifFrameDecoder implements Closeable {
+    // GIF文件头: "GIF87a"/"GIF89a"，之后是小端序的画布宽高
+    private static final int HEADER_SIZE = 10;
+
+    private final GifDecoder decoder;
+    private final Bitmap buffer;
+    private final int originalWidth;
+    private final int originalHeight;
+    private final int sampleSize;
+    private int currentFrame = -1;
+
+    /**
+     * @param gifData GIF文件数据
+     * @param targetWidth 最终使用的宽度，用于选择降采样倍数
+     * @param targetHeight 最终使用的高度
+     */
+    public GifFrameDecoder(byte[] gifData, int targetWidth, int targetHeight) throws IOException {
+        if (gifData.length < HEADER_SIZE) {
+            throw new IOException("GIF数据不完整");
+        }
+        // 直接从文件头读取画布尺寸，不需要先完整打开一次
+        originalWidth = (gifData[6] & 0xFF) | ((gifData[7] & 0xFF) << 8);
+        originalHeight = (gifData[8] & 0xFF) | ((gifData[9] & 0xFF) << 8);
+        sampleSize = originalWidth > 0 && originalHeight > 0 ?
+                ImageConverter.calculateInSampleSize(originalWidth, originalHeight, targetWidth, targetHeight) : 1;
+
+        GifOptions options = new GifOptions();
+        options.setInSampleSize(sampleSize);
+        decoder = new GifDecoder(new InputSource.ByteArraySource(gifData), options);
+        buffer = Bitmap.createBitmap(decoder.getWidth(), decoder.getHeight(), Bitmap.Config.ARGB_8888);
+    }
+
+    public int getNumberOfFrames() {
+        return decoder.getNumberOfFrames();
+    }
+
+    // 帧显示时长（毫秒）
+    public int getFrameDuration(int frameIndex) {
+        return decoder.getFrameDuration(frameIndex);
+    }
+
+    public int getOriginalWidth() {
+        return originalWidth;
+    }
+
+    public int getOriginalHeight() {
+        return originalHeight;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * 解码指定帧
+     *
+     * @return 复用的帧缓冲区，下次调用后内容会被覆盖，需要保留时由调用方自行绘制或复制
+     */
+    public Bitmap decodeFrame(int frameIndex) {
+        if (frameIndex != currentFrame) {
+            decoder.seekToFrame(frameIndex, buffer);
+            currentFrame = frameIndex;
+        }
+        return buffer;
+    }
+
+    // 降采样后的帧尺寸
+    public int getWidth() {
+        return buffer.getWidth();
+    }
+
+    public int getHeight() {
+        return buffer.getHeight();
+    }
+
+    @Override
+    public void close() {
+        decoder.recycle();
+        buffer.recycle();
+    }
+}
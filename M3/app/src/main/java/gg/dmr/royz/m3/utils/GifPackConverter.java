@@ -30,16 +30,14 @@ package gg.dmr.royz.m3.utils;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.net.Uri;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.List;
-
-import pl.droidsonroids.gif.GifDrawable;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * GifPack转换工具类
@@ -48,11 +46,8 @@ import pl.droidsonroids.gif.GifDrawable;
 public class GifPackConverter {
     private static final String TAG = "GifPackConverter";
 
-    // GifPack魔术字节
-    private static final byte[] MAGIC_BYTES = {'G', 'F', 'P', 'K'};
-
-    // GifPack版本
-    private static final byte VERSION = 0x01;
+    // 转换结果保存在缓存目录中的文件名
+    private static final String OUTPUT_FILE = "converted.gifpack";
 
     // 目标尺寸
     private static final int TARGET_WIDTH = 240;
@@ -61,107 +56,172 @@ public class GifPackConverter {
     // 最大帧数量限制
     private static final int MAX_FRAMES = 500;
 
-    // 最大FPS限制
+    // 最大FPS限制，按帧时长重采样时也是保留帧之间的最小间隔
     private static final int MAX_FPS = 25;
 
-    // 最小FPS限制
+    // 最小FPS限制（旧格式）
     private static final int MIN_FPS = 15;
 
+    // 不限制大小时的JPEG质量
+    private static final int DEFAULT_QUALITY = 75;
+
+    // 有大小预算时每帧至少分到的字节数，预算不够时减少帧数而不是继续压低画质
+    private static final int MIN_FRAME_BYTES = 3 * 1024;
+
+    // 计算帧间变化量时的解码尺寸，指纹只有16x16分块，不需要按输出尺寸解码
+    private static final int MOTION_SIZE = FrameFingerprint.GRID * 4;
+
     /**
      * 将GIF文件转换为GifPack格式
+     * 帧数据边编码边写入缓存目录中的文件，不在内存中拼接整个GifPack
+     * @param context 上下文
+     * @param source 已读取的GIF文件内容
+     * @return 转换后的GifPack文件（下次转换时覆盖），如果转换失败则返回null
+     */
+    public static File convertGifToGifPack(Context context, ImageSource source) {
+        return convertGifToGifPack(context, source, 0);
+    }
+
+    /**
+     * 将GIF文件转换为不超过指定大小的GifPack
+     * 预算扣除文件头和偏移量表后平均分给每一帧，每帧按预算查找能用的最高JPEG质量
+     * 生成所有固件都能播放的v1格式，确认设备支持v2时改用四个参数的版本
+     * @param context 上下文
+     * @param source 已读取的GIF文件内容
+     * @param maxBytes 整个GifPack的字节预算，0表示不限制，使用固定质量
+     * @return 转换后的GifPack文件（下次转换时覆盖），如果转换失败则返回null
+     */
+    public static File convertGifToGifPack(Context context, ImageSource source, int maxBytes) {
+        return convertGifToGifPack(context, source, maxBytes, true);
+    }
+
+    /**
+     * 将GIF文件转换为GifPack
      * @param context 上下文
-     * @param gifUri GIF文件的Uri
-     * @return 转换后的GifPack格式的字节数组，如果转换失败则返回null
+     * @param source 已读取的GIF文件内容
+     * @param maxBytes 整个GifPack的字节预算，0表示不限制，使用固定质量
+     * @param legacyFormat true生成旧固件能播放的v1格式：等间隔取帧，按平均FPS播放，没有增量帧；
+     *                     false生成v2格式：按帧时长重采样并写入帧时长表，只发送变化的图块，
+     *                     只有设备状态带DeviceFeature.FEATURE_GIFPACK_V2时才能使用
+     * @return 转换后的GifPack文件（下次转换时覆盖），如果转换失败则返回null
      */
-    public static byte[] convertGifToGifPack(Context context, Uri gifUri) {
-        InputStream inputStream = null;
-        GifDrawable gifDrawable = null;
+    public static File convertGifToGifPack(Context context, ImageSource source, int maxBytes, boolean legacyFormat) {
+        GifFrameDecoder gifDecoder = null;
+        ExecutorService encoder = null;
+        GifPackWriter writer = null;
+        File output = new File(context.getCacheDir(), OUTPUT_FILE);
+        boolean success = false;
 
         try {
-            // 打开GIF文件
-            inputStream = context.getContentResolver().openInputStream(gifUri);
-            if (inputStream == null) {
-                LogUtil.logError("无法打开GIF文件");
+            if (!source.isGif()) {
+                LogUtil.logError("文件不是GIF格式");
                 return null;
             }
 
-            // 读取GIF数据
-            byte[] gifData = readStreamToByteArray(inputStream);
-
-            // 创建GIF可绘制对象
-            gifDrawable = new GifDrawable(gifData);
+            // 创建顺序解码器，按目标尺寸降采样解码，直接使用已读取的数据
+            gifDecoder = new GifFrameDecoder(source.getData(), TARGET_WIDTH, TARGET_HEIGHT);
 
             // 获取GIF信息
-            int originalFrameCount = gifDrawable.getNumberOfFrames();
+            int originalFrameCount = gifDecoder.getNumberOfFrames();
             if (originalFrameCount <= 0) {
                 LogUtil.logError("GIF没有有效帧");
                 return null;
             }
 
             LogUtil.log("原始GIF信息：" + originalFrameCount + "帧，" +
-                    gifDrawable.getIntrinsicWidth() + "x" +
-                    gifDrawable.getIntrinsicHeight());
-
-            // 计算帧采样率和FPS
-            int frameStep = Math.max(1, originalFrameCount / MAX_FRAMES);
-            int actualFrameCount = Math.min(MAX_FRAMES, (originalFrameCount + frameStep - 1) / frameStep);
+                    gifDecoder.getOriginalWidth() + "x" + gifDecoder.getOriginalHeight() +
+                    "，按1/" + gifDecoder.getSampleSize() + "解码为 " +
+                    gifDecoder.getWidth() + "x" + gifDecoder.getHeight());
+
+            // 读取每帧的显示时长（毫秒）
+            int[] sourceDurations = new int[originalFrameCount];
+            for (int i = 0; i < originalFrameCount; i++) {
+                sourceDurations[i] = gifDecoder.getFrameDuration(i);
+            }
 
-            // 计算总时长（毫秒）
-            int totalDuration = 0;
-            for (int i = 0; i < originalFrameCount; i += frameStep) {
-                totalDuration += gifDrawable.getFrameDuration(i);
+            // 选择要保留的帧
+            FrameTimeline timeline;
+            if (legacyFormat) {
+                // 旧格式只有一个FPS，等间隔取帧
+                int frameStep = Math.max(1, originalFrameCount / MAX_FRAMES);
+                timeline = FrameTimeline.everyNth(sourceDurations, frameStep, MAX_FRAMES);
+                LogUtil.log("采样步长=" + frameStep);
+            } else {
+                // 按时间轴和帧间变化量重采样：丢弃快于MAX_FPS的帧和几乎不动的帧，停留的帧带上自己的时长
+                int frameLimit = MAX_FRAMES;
+                if (maxBytes > 0) {
+                    frameLimit = Math.max(1, Math.min(MAX_FRAMES, maxBytes / MIN_FRAME_BYTES));
+                }
+                double[] motion = measureMotion(source.getData());
+                timeline = FrameTimeline.resample(sourceDurations, motion, 1000 / MAX_FPS, frameLimit);
+                LogUtil.log("按帧时长和变化量选帧：" + originalFrameCount + " 帧 -> " + timeline.getFrameCount() + " 帧");
             }
+            int actualFrameCount = timeline.getFrameCount();
+            int totalDuration = timeline.getTotalDuration();
 
-            // 计算目标FPS
+            // 计算目标FPS：旧格式按平均值播放；新格式只在没有帧时长表的固件上用到
             int fps;
             if (totalDuration > 0) {
                 fps = Math.round(actualFrameCount * 1000f / totalDuration);
-                fps = Math.min(MAX_FPS, Math.max(MIN_FPS, fps));
+                fps = Math.min(MAX_FPS, Math.max(legacyFormat ? MIN_FPS : 1, fps));
             } else {
                 fps = 10; // 默认FPS
             }
 
-            LogUtil.log("处理后参数：" + actualFrameCount + "帧，FPS=" + fps + "，采样步长=" + frameStep);
-
-            // 提取并处理帧
-            List<byte[]> jpegFrames = new ArrayList<>();
-            for (int i = 0; i < originalFrameCount && jpegFrames.size() < MAX_FRAMES; i += frameStep) {
-                // 获取该帧的图像
-                Bitmap frameBitmap = gifDrawable.seekToFrameAndGet(i);
-                if (frameBitmap == null) {
-                    LogUtil.logError("无法获取第" + i + "帧");
-                    continue;
-                }
-
-                // 调整尺寸为目标大小
-                Bitmap resizedBitmap = ImageConverter.resizeBitmap(
-                        frameBitmap.copy(Bitmap.Config.ARGB_8888, true),
-                        TARGET_WIDTH, TARGET_HEIGHT);
-
-                // 将帧转换为JPEG（提高压缩率）
-                ByteArrayOutputStream jpegOutput = new ByteArrayOutputStream();
-                resizedBitmap.compress(Bitmap.CompressFormat.JPEG, 75, jpegOutput);
-
-                // 添加到帧列表
-                jpegFrames.add(jpegOutput.toByteArray());
-
-                // 释放资源
-                resizedBitmap.recycle();
-
-                LogUtil.log("处理帧 " + (jpegFrames.size()) + "/" + actualFrameCount +
-                        "，大小：" + jpegOutput.size() + " 字节");
+            LogUtil.log("处理后参数：" + actualFrameCount + "帧，总时长 " + totalDuration + " 毫秒，FPS=" + fps);
+
+            // 提取并处理帧：GIF解码必须按顺序进行，缩放和JPEG压缩交给线程池并行处理
+            // 留一个核心给按顺序解码的当前线程
+            int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            int maxInFlight = workers * 2;
+            encoder = Executors.newFixedThreadPool(workers);
+            BitmapPool bitmapPool = new BitmapPool(maxInFlight);
+            writer = new GifPackWriter(output, actualFrameCount,
+                    legacyFormat ? GifPackWriter.VERSION : GifPackWriter.VERSION_DELTA, !legacyFormat);
+            int tableSize = actualFrameCount * GifPackWriter.getTableEntrySize(writer.hasFrameDurations());
+            int frameBudget = maxBytes > 0 ?
+                    Math.max(1, (maxBytes - GifPackWriter.HEADER_SIZE - tableSize) / actualFrameCount) : 0;
+            if (frameBudget > 0) {
+                LogUtil.log("GifPack大小预算: " + maxBytes + " 字节，每帧 " + frameBudget + " 字节");
+            }
+            FramePipeline pipeline = new FramePipeline(encoder, bitmapPool, writer, maxInFlight,
+                    frameBudget, !legacyFormat, actualFrameCount);
+            long decodeTime = 0;
+            for (int k = 0; k < actualFrameCount; k++) {
+                // 保留的帧序号递增，解码器顺序向后解码，每帧只解码一次
+                long start = System.nanoTime();
+                Bitmap frameBitmap = gifDecoder.decodeFrame(timeline.getSourceIndex(k));
+                decodeTime += System.nanoTime() - start;
+
+                pipeline.submit(frameBitmap, timeline.getDuration(k));
             }
+            pipeline.finish();
+            LogUtil.log("GIF解码耗时 " + decodeTime / 1000000 + " 毫秒，平均每帧 " +
+                    decodeTime / 1000 / actualFrameCount + " 微秒");
+            LogUtil.log("帧缓冲区: " + bitmapPool + "，编码线程: " + workers);
+            bitmapPool.clear();
 
             // 检查是否成功获取帧
-            if (jpegFrames.isEmpty()) {
+            if (writer.getFrameCount() == 0) {
                 LogUtil.logError("未能转换任何GIF帧");
                 return null;
             }
 
-            LogUtil.log("成功转换 " + jpegFrames.size() + " 帧");
+            LogUtil.log("成功转换 " + writer.getFrameCount() + " 帧");
+            pipeline.logSavings();
 
-            // 构建GifPack文件
-            return createGifPackFile(jpegFrames, fps, TARGET_WIDTH, TARGET_HEIGHT);
+            // 回填GifPack文件头和帧偏移量表
+            long fileSize = writer.finish(fps, TARGET_WIDTH, TARGET_HEIGHT);
+            if (maxBytes > 0 && fileSize > maxBytes) {
+                LogUtil.logError("最低质量下GifPack仍超出预算: " + fileSize + "/" + maxBytes + " 字节");
+            }
+            LogUtil.log("创建GifPack文件成功：" +
+                    fileSize + "字节，" +
+                    writer.getFrameCount() + "帧，" +
+                    TARGET_WIDTH + "x" + TARGET_HEIGHT +
+                    " FPS:" + fps);
+            success = true;
+            return output;
 
         } catch (Exception e) {
             LogUtil.logError("GIF转换失败: " + e.getMessage());
@@ -169,95 +229,253 @@ public class GifPackConverter {
             return null;
         } finally {
             try {
-                if (inputStream != null) inputStream.close();
-                if (gifDrawable != null) gifDrawable.recycle();
+                if (encoder != null) encoder.shutdownNow();
+                if (writer != null) writer.close();
+                if (gifDecoder != null) gifDecoder.close();
             } catch (IOException e) {
                 // 忽略关闭错误
             }
+            if (!success && output.exists() && !output.delete()) {
+                LogUtil.logError("删除未完成的GifPack文件失败");
+            }
         }
     }
 
     /**
-     * 创建GifPack文件
-     * @param jpegFrames JPEG格式的帧列表
-     * @param fps 每秒帧数
-     * @param width 图像宽度
-     * @param height 图像高度
-     * @return GifPack格式的字节数组
+     * 缩放后的帧：目标画布、像素、用于去重的指纹和显示时长
      */
-    private static byte[] createGifPackFile(List<byte[]> jpegFrames, int fps, int width, int height) {
-        // 计算帧索引表大小
-        int frameCount = jpegFrames.size();
-        int indexTableSize = frameCount * 4;
-
-        // 计算所有JPEG帧的总大小
-        int totalJpegSize = 0;
-        for (byte[] jpegFrame : jpegFrames) {
-            totalJpegSize += jpegFrame.length;
+    private static class PreparedFrame {
+        final Bitmap bitmap;
+        final int[] pixels;
+        final FrameFingerprint fingerprint;
+        final int duration;
+
+        PreparedFrame(Bitmap bitmap, int[] pixels, FrameFingerprint fingerprint, int duration) {
+            this.bitmap = bitmap;
+            this.pixels = pixels;
+            this.fingerprint = fingerprint;
+            this.duration = duration;
         }
+    }
 
-        // 计算文件总大小
-        int fileSize = 16 + indexTableSize + totalJpegSize; // 头部 + 索引表 + 帧数据
-
-        // 使用小端序ByteBuffer确保字节序一致
-        ByteBuffer buffer = ByteBuffer.allocate(fileSize);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * 编码后的帧记录，changedTiles为增量帧发送的图块数，关键帧为-1；record为null表示重复帧
+     */
+    private static class EncodedFrame {
+        final byte[] record;
+        final int changedTiles;
+        final int duration;
+
+        EncodedFrame(byte[] record, int changedTiles, int duration) {
+            this.record = record;
+            this.changedTiles = changedTiles;
+            this.duration = duration;
+        }
+    }
 
-        // 创建文件头 (16字节)
-        // 魔术字节 "GFPK"
-        buffer.put(MAGIC_BYTES);
+    /**
+     * 帧处理流水线
+     * 1. 编码线程并行缩放帧，读取像素并计算指纹
+     * 2. 当前线程按顺序去重、与参考画面比较图块，决定关键帧还是增量帧（依赖前面的帧，必须按顺序）
+     * 3. 编码线程并行压缩JPEG，当前线程按顺序写入GifPack文件
+     * 两个阶段各自最多maxInFlight帧在途，满了就先按顺序处理最早的一帧，内存占用有上限
+     */
+    private static class FramePipeline {
+        private final ExecutorService encoder;
+        private final BitmapPool bitmapPool;
+        private final GifPackWriter writer;
+        private final int maxInFlight;
+        private final int frameBudget;
+        private final int frameCount;
+        private final TileDeltaEncoder deltaEncoder; // null表示v1格式，每帧都是完整JPEG
+        private final ArrayDeque<Future<PreparedFrame>> prepared = new ArrayDeque<>();
+        private final ArrayDeque<Future<EncodedFrame>> encoded = new ArrayDeque<>();
+        private FrameFingerprint lastStored; // 最近保存了数据的帧
+
+        // 统计
+        private int keyFrames = 0;
+        private int deltaFrames = 0;
+        private int duplicateFrames = 0;
+        private long keyBytes = 0;
+        private long deltaBytes = 0;
+        private long deltaTiles = 0;
+
+        FramePipeline(ExecutorService encoder, BitmapPool bitmapPool, GifPackWriter writer, int maxInFlight,
+                      int frameBudget, boolean deltaFrames, int frameCount) {
+            this.encoder = encoder;
+            this.bitmapPool = bitmapPool;
+            this.writer = writer;
+            this.maxInFlight = maxInFlight;
+            this.frameBudget = frameBudget;
+            this.frameCount = frameCount;
+            this.deltaEncoder = deltaFrames ? new TileDeltaEncoder(TARGET_WIDTH, TARGET_HEIGHT) : null;
+        }
 
-        // 版本
-        buffer.put(VERSION);
+        // 提交一帧图像和显示时长
+        // 解码器的帧缓冲区会被下一帧覆盖，所以在当前线程缩放到目标画布，之后的处理交给编码线程
+        void submit(Bitmap frameBitmap, int duration) throws InterruptedException, ExecutionException, IOException {
+            if (prepared.size() >= maxInFlight) {
+                process(prepared.poll().get());
+            }
+            Bitmap resizedBitmap = bitmapPool.acquire(TARGET_WIDTH, TARGET_HEIGHT, Bitmap.Config.ARGB_8888);
+            // 直接缩放绘制到复用的目标画布上，降采样解码后的原帧不超过目标尺寸的2倍，缩放开销很小
+            ImageConverter.resizeInto(frameBitmap, resizedBitmap);
+            prepared.add(encoder.submit(() -> prepareFrame(resizedBitmap, duration)));
+        }
 
-        // 帧数 (2字节，小端序)
-        buffer.putShort((short)frameCount);
+        // 处理并写入所有剩余的帧
+        void finish() throws InterruptedException, ExecutionException, IOException {
+            while (!prepared.isEmpty()) {
+                process(prepared.poll().get());
+            }
+            while (!encoded.isEmpty()) {
+                write(encoded.poll());
+            }
+        }
 
-        // FPS (1字节)
-        buffer.put((byte)fps);
+        // 在编码线程中读取缩放后的像素并计算指纹，画布来自共享的BitmapPool
+        private PreparedFrame prepareFrame(Bitmap resizedBitmap, int duration) {
+            int[] pixels = new int[TARGET_WIDTH * TARGET_HEIGHT];
+            resizedBitmap.getPixels(pixels, 0, TARGET_WIDTH, 0, 0, TARGET_WIDTH, TARGET_HEIGHT);
+            return new PreparedFrame(resizedBitmap, pixels, FrameFingerprint.of(pixels, TARGET_WIDTH, TARGET_HEIGHT),
+                    duration);
+        }
 
-        // 宽度 (2字节，小端序)
-        buffer.putShort((short)width);
+        // 按顺序决定一帧的编码方式，提交压缩任务
+        private void process(PreparedFrame frame) throws InterruptedException, ExecutionException, IOException {
+            // 与上一个保存的帧比较而不是与上一帧比较，缓慢渐变不会被累积吞掉
+            if (lastStored != null && frame.fingerprint.isVisuallyIdentical(lastStored)) {
+                bitmapPool.release(frame.bitmap);
+                enqueue(CompletableFuture.completedFuture(new EncodedFrame(null, -1, frame.duration)));
+                return;
+            }
+            lastStored = frame.fingerprint;
+
+            if (deltaEncoder == null) {
+                enqueue(encoder.submit(() -> {
+                    try {
+                        // 将帧转换为JPEG（提高压缩率），有预算时按预算选择质量
+                        return new EncodedFrame(JpegEncoder.compress(frame.bitmap, frameBudget, DEFAULT_QUALITY), -1,
+                                frame.duration);
+                    } finally {
+                        bitmapPool.release(frame.bitmap);
+                    }
+                }));
+                return;
+            }
 
-        // 高度 (2字节，小端序)
-        buffer.putShort((short)height);
+            int[] tiles = deltaEncoder.findChangedTiles(frame.pixels);
+            if (deltaEncoder.shouldUseKeyframe(tiles.length)) {
+                deltaEncoder.setKeyframe(frame.pixels);
+                enqueue(encoder.submit(() -> {
+                    try {
+                        return new EncodedFrame(TileDeltaEncoder.encodeKeyframe(frame.bitmap, frameBudget, DEFAULT_QUALITY), -1,
+                                frame.duration);
+                    } finally {
+                        bitmapPool.release(frame.bitmap);
+                    }
+                }));
+            } else {
+                // 增量帧只用到像素，画布可以马上还回去
+                deltaEncoder.applyTiles(frame.pixels, tiles);
+                bitmapPool.release(frame.bitmap);
+                int budget = deltaEncoder.deltaBudget(frameBudget, tiles.length);
+                enqueue(encoder.submit(() -> new EncodedFrame(
+                        deltaEncoder.encodeDelta(frame.pixels, tiles, bitmapPool, budget, DEFAULT_QUALITY), tiles.length,
+                        frame.duration)));
+            }
+        }
 
-        // 预留 (4字节)
-        buffer.putInt(0);
+        // 加入写入队列
+        private void enqueue(Future<EncodedFrame> future) throws InterruptedException, ExecutionException, IOException {
+            if (encoded.size() >= maxInFlight) {
+                write(encoded.poll());
+            }
+            encoded.add(future);
+        }
 
-        // 计算每帧在文件中的偏移量
-        int currentOffset = 16 + indexTableSize; // 头部16字节 + 偏移量表大小
+        // 等待一帧编码完成并写入
+        private void write(Future<EncodedFrame> future) throws InterruptedException, ExecutionException, IOException {
+            EncodedFrame frame = future.get();
+            if (frame.record == null) {
+                if (writer.hasFrameDurations()) {
+                    // 有帧时长表时直接延长上一帧，不再占用帧数
+                    duplicateFrames++;
+                    writer.extendLastFrame(frame.duration);
+                    LogUtil.log("处理帧，与上一帧相同，合并为一帧显示");
+                } else {
+                    // 与上一个保存的帧相同或看起来相同：v2共用上一帧的偏移量，v1（旧固件）复制一份数据，只省去编码
+                    int copied = writer.addDuplicateFrame(frame.duration);
+                    if (copied > 0) {
+                        keyFrames++;
+                        keyBytes += copied;
+                    } else {
+                        duplicateFrames++;
+                    }
+                    LogUtil.log("处理帧 " + writer.getFrameCount() + "/" + frameCount + "，与上一帧相同，" +
+                            (copied > 0 ? "复制上一帧数据" : "共用数据"));
+                }
+                return;
+            }
 
-        // 写入偏移量表
-        for (byte[] jpegFrame : jpegFrames) {
-            buffer.putInt(currentOffset);
-            currentOffset += jpegFrame.length;
+            writer.addFrame(frame.record, frame.duration);
+            if (frame.changedTiles < 0) {
+                keyFrames++;
+                keyBytes += frame.record.length;
+                LogUtil.log("处理帧 " + writer.getFrameCount() + "/" + frameCount + "，大小：" + frame.record.length + " 字节");
+            } else {
+                deltaFrames++;
+                deltaBytes += frame.record.length;
+                deltaTiles += frame.changedTiles;
+                LogUtil.log("处理帧 " + writer.getFrameCount() + "/" + frameCount + "，增量帧 " +
+                        frame.changedTiles + " 个图块，大小：" + frame.record.length + " 字节");
+            }
         }
 
-        // 写入JPEG帧数据
-        for (byte[] jpegFrame : jpegFrames) {
-            buffer.put(jpegFrame);
+        // 记录去重和增量帧节省的数据量，按每帧都是平均大小的完整JPEG估算，传输时间与数据量成正比
+        void logSavings() {
+            if (keyFrames == 0 || duplicateFrames + deltaFrames == 0) {
+                return;
+            }
+            long averageKey = keyBytes / keyFrames;
+            long full = averageKey * (keyFrames + deltaFrames + duplicateFrames);
+            long saved = Math.max(0, full - keyBytes - deltaBytes);
+            StringBuilder message = new StringBuilder();
+            message.append("关键帧 ").append(keyFrames).append(" 帧（平均 ").append(averageKey).append(" 字节）");
+            if (deltaFrames > 0) {
+                message.append("，增量帧 ").append(deltaFrames).append(" 帧（平均 ")
+                        .append(deltaTiles / deltaFrames).append(" 个图块，")
+                        .append(deltaBytes / deltaFrames).append(" 字节）");
+            }
+            message.append("，重复帧 ").append(duplicateFrames).append(" 帧；约节省 ").append(saved)
+                    .append(" 字节，数据量和传输时间减少 ").append(saved * 100 / full).append("%");
+            LogUtil.log(message.toString());
         }
-
-        LogUtil.log("创建GifPack文件成功：" +
-                fileSize + "字节，" +
-                frameCount + "帧，" +
-                width + "x" + height +
-                " FPS:" + fps);
-
-        return buffer.array();
     }
 
     /**
-     * 读取输入流到字节数组
+     * 逐帧计算相对前一帧的变化量，只保留每帧的指纹
+     * 选帧需要整段动画的总变化量，必须在正式解码之前单独扫描一遍；这一遍用单独的解码器按MOTION_SIZE降采样解码，
+     * 比按输出尺寸解码快得多，正式解码的解码器仍然从第一帧开始顺序解码
+     * 和整个转换一样在后台线程执行
+     * @return 每帧的变化量，第0帧为0
      */
-    private static byte[] readStreamToByteArray(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        byte[] buffer = new byte[4096];
-        int bytesRead;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
+    private static double[] measureMotion(byte[] gifData) throws IOException {
+        long start = System.currentTimeMillis();
+        try (GifFrameDecoder motionDecoder = new GifFrameDecoder(gifData, MOTION_SIZE, MOTION_SIZE)) {
+            int frameCount = motionDecoder.getNumberOfFrames();
+            double[] motion = new double[frameCount];
+            FrameFingerprint previous = null;
+            for (int i = 0; i < frameCount; i++) {
+                FrameFingerprint current = FrameFingerprint.of(motionDecoder.decodeFrame(i));
+                if (previous != null) {
+                    motion[i] = current.motionFrom(previous);
+                }
+                previous = current;
+            }
+            LogUtil.log("帧间变化量计算完成：" + frameCount + " 帧，按 " + motionDecoder.getWidth() + "x" +
+                    motionDecoder.getHeight() + " 解码，耗时 " + (System.currentTimeMillis() - start) + " 毫秒");
+            return motion;
         }
-        return outputStream.toByteArray();
     }
 }
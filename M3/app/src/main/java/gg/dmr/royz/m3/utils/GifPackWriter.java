@@ -0,0 +1,219 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * GifPack文件流式写入器
+ * 文件格式: [头部16字节][帧偏移量表 4字节*帧数][帧时长表 2字节*帧数，可选][JPEG帧数据...]，多字节字段均为小端序
+ * 头部的标志字节带FLAG_DURATIONS时有帧时长表，设备按每帧时长播放，否则按头部的FPS匀速播放
+ * 只认识v1的旧固件会拒绝v2文件；v1文件带帧时长表时旧固件忽略标志字节，按FPS播放
+ * 设备是否支持v2和帧时长表由设备状态的功能标志决定（Constants.DeviceFeature.FEATURE_GIFPACK_V2）
+ * 先按最大帧数预留头部和偏移量表，帧数据边生成边追加到文件末尾，结束时回填头部和偏移量表，
+ * 整个文件不需要同时放在内存里
+ * 实际帧数少于预留数量时，偏移量表之后会留下未使用的空隙，设备按偏移量读取帧，不受影响
+ * v2文件中重复帧与上一帧共用偏移量，只保存一份数据；旧固件按相邻偏移量之差计算帧大小，
+ * 共用偏移量会被当成0字节的帧，所以v1文件中的重复帧再写一份数据，偏移量严格递增
+ */
+public class GifPackWriter implements Closeable {
+    // GifPack魔术字节
+    private static final byte[] MAGIC_BYTES = {'G', 'F', 'P', 'K'};
+
+    // GifPack版本：v1每帧是完整JPEG，v2每帧记录带类型字节，支持增量帧（见TileDeltaEncoder）
+    public static final byte VERSION = 0x01;
+    public static final byte VERSION_DELTA = 0x02;
+
+    public static final int HEADER_SIZE = 16;
+
+    // 标志位（头部第12字节，原预留字段）
+    public static final byte FLAG_DURATIONS = 0x01;
+
+    // 单帧时长上限（毫秒），帧时长表每项2字节
+    private static final int MAX_DURATION = 0xFFFF;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int maxFrames;
+    private final int[] frameOffsets;
+    private final byte version;
+    private final int[] frameDurations; // null表示不写帧时长表
+    private int frameCount = 0;
+    private long position; // 下一帧的写入位置
+
+    /**
+     * @param output 输出文件，已存在时覆盖
+     * @param maxFrames 最多写入的帧数，用于预留偏移量表
+     * @param version 文件版本，VERSION或VERSION_DELTA
+     * @param frameDurations 是否写入帧时长表，只有支持v2的固件会读取
+     */
+    public GifPackWriter(File output, int maxFrames, byte version, boolean frameDurations) throws IOException {
+        this.version = version;
+        this.file = new RandomAccessFile(output, "rw");
+        this.channel = file.getChannel();
+        this.maxFrames = maxFrames;
+        this.frameOffsets = new int[maxFrames];
+        this.frameDurations = frameDurations ? new int[maxFrames] : null;
+        channel.truncate(0);
+        position = HEADER_SIZE + (long) maxFrames * getTableEntrySize(frameDurations);
+    }
+
+    // 每帧在头部之后占用的表项字节数
+    public static int getTableEntrySize(boolean frameDurations) {
+        return frameDurations ? 6 : 4;
+    }
+
+    // 追加一帧数据：v1为JPEG，v2为带类型字节的帧记录，durationMs为显示时长（不写帧时长表时忽略）
+    public void addFrame(byte[] jpegFrame, int durationMs) throws IOException {
+        checkCapacity();
+        setDuration(frameCount, durationMs);
+        frameOffsets[frameCount++] = (int) position;
+        ByteBuffer data = ByteBuffer.wrap(jpegFrame);
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    /**
+     * 追加一个与上一帧相同的帧：v2直接指向上一帧的数据，v1从文件中读回上一帧再写一份
+     *
+     * @return 新写入的字节数，共用数据时为0
+     */
+    public int addDuplicateFrame(int durationMs) throws IOException {
+        if (frameCount == 0) {
+            throw new IOException("没有可以复用的帧");
+        }
+        checkCapacity();
+        if (version == VERSION) {
+            // v1的帧总是按顺序追加，上一帧的数据就是文件末尾这一段
+            int start = frameOffsets[frameCount - 1];
+            ByteBuffer previous = ByteBuffer.allocate((int) (position - start));
+            while (previous.hasRemaining()) {
+                if (channel.read(previous, start + previous.position()) < 0) {
+                    throw new IOException("读取上一帧数据失败");
+                }
+            }
+            addFrame(previous.array(), durationMs);
+            return previous.capacity();
+        }
+        setDuration(frameCount, durationMs);
+        frameOffsets[frameCount] = frameOffsets[frameCount - 1];
+        frameCount++;
+        return 0;
+    }
+
+    // 延长上一帧的显示时长，用于合并相同的帧，只在写帧时长表时有效
+    public void extendLastFrame(int durationMs) throws IOException {
+        if (frameCount == 0 || frameDurations == null) {
+            throw new IOException("没有可以延长的帧");
+        }
+        setDuration(frameCount - 1, frameDurations[frameCount - 1] + durationMs);
+    }
+
+    public boolean hasFrameDurations() {
+        return frameDurations != null;
+    }
+
+    private void setDuration(int frame, int durationMs) {
+        if (frameDurations != null) {
+            frameDurations[frame] = Math.min(MAX_DURATION, Math.max(1, durationMs));
+        }
+    }
+
+    private void checkCapacity() throws IOException {
+        if (frameCount >= maxFrames) {
+            throw new IOException("帧数超过预留数量: " + maxFrames);
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * 回填头部和偏移量表并写入磁盘
+     *
+     * @return 文件总大小
+     */
+    public long finish(int fps, int width, int height) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + frameCount * getTableEntrySize(frameDurations != null));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        // 魔术字节 "GFPK"
+        header.put(MAGIC_BYTES);
+
+        // 版本
+        header.put(version);
+
+        // 帧数 (2字节)
+        header.putShort((short) frameCount);
+
+        // FPS (1字节)
+        header.put((byte) fps);
+
+        // 宽度和高度 (各2字节)
+        header.putShort((short) width);
+        header.putShort((short) height);
+
+        // 标志 (1字节) 和预留 (3字节)
+        header.put(frameDurations != null ? FLAG_DURATIONS : 0);
+        header.put(new byte[3]);
+
+        // 偏移量表
+        for (int i = 0; i < frameCount; i++) {
+            header.putInt(frameOffsets[i]);
+        }
+
+        // 帧时长表紧跟在实际帧数的偏移量表之后，预留空间按最大帧数计算，一定放得下
+        if (frameDurations != null) {
+            for (int i = 0; i < frameCount; i++) {
+                header.putShort((short) frameDurations[i]);
+            }
+        }
+
+        header.flip();
+        long at = 0;
+        while (header.hasRemaining()) {
+            at += channel.write(header, at);
+        }
+        channel.force(false);
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
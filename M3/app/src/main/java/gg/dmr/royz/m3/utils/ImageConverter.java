@@ -33,8 +33,8 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.util.Log;
 
@@ -42,7 +42,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
  * 图片转换工具类
@@ -53,6 +52,7 @@ public class ImageConverter {
     private static final String TAG = "ImageConverter";
 
     // 图片格式常量，与ESP32的格式定义对应
+    public static final byte FORMAT_IBIN = 0x00; // 原始RGB565格式（见Rgb565Encoder）
     public static final byte FORMAT_JPEG = 0x10; // JPEG格式
     public static final byte FORMAT_PNG = 0x20; // PNG格式
     public static final byte FORMAT_GIF = 0x30; // GIF格式
@@ -61,82 +61,8 @@ public class ImageConverter {
     public static final int TARGET_WIDTH = 240;
     public static final int TARGET_HEIGHT = 240;
 
-    /**
-     * 从Uri直接加载GIF文件的字节数据
-     * 保持原始GIF格式，不做转换
-     *
-     * @param context 上下文
-     * @param uri 图片Uri
-     * @return GIF文件的原始字节数据，如果不是GIF文件则返回null
-     */
-    public static byte[] loadGifFromUri(Context context, Uri uri) {
-        InputStream inputStream = null;
-        ByteArrayOutputStream outputStream = null;
-        try {
-            // 检查文件扩展名是否为GIF
-            // 使用 MIME 类型判断是否为 GIF
-            byte formatType = getFormatType(context, uri);
-            if (formatType != FORMAT_GIF) {
-                LogUtil.logError("选择的文件不是GIF格式");
-                return null;
-            }
-
-            // 打开输入流
-            inputStream = context.getContentResolver().openInputStream(uri);
-            if (inputStream == null) {
-                LogUtil.logError("无法打开GIF文件流");
-                return null;
-            }
-
-            // 检查GIF文件头
-            byte[] header = new byte[6];
-            if (inputStream.read(header) != 6) {
-                LogUtil.logError("读取GIF头失败");
-                return null;
-            }
-
-            // 验证GIF文件头
-            if (header[0] != 'G' || header[1] != 'I' || header[2] != 'F' ||
-                    header[3] != '8' || (header[4] != '7' && header[4] != '9') || header[5] != 'a') {
-                LogUtil.logError("无效的GIF文件头");
-                return null;
-            }
-
-            // 重新打开流以获取全部数据
-            inputStream.close();
-            inputStream = context.getContentResolver().openInputStream(uri);
-
-            // 读取所有字节
-            outputStream = new ByteArrayOutputStream();
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
-
-            byte[] gifData = outputStream.toByteArray();
-
-            // 检查文件大小是否合理
-            if (gifData.length < 50) {
-                LogUtil.logError("GIF文件太小，可能不是有效的GIF");
-                return null;
-            }
-
-            // 记录GIF文件信息
-            LogUtil.log("读取GIF文件成功: " + gifData.length + " 字节");
-            return gifData;
-        } catch (Exception e) {
-            LogUtil.logError("处理GIF文件失败: " + e.getMessage());
-            return null;
-        } finally {
-            try {
-                if (inputStream != null) inputStream.close();
-                if (outputStream != null) outputStream.close();
-            } catch (IOException e) {
-                // 忽略关闭错误
-            }
-        }
-    }
+    // 缩放绘制用的画笔，开启双线性过滤，与之前createBitmap(..., filter=true)的效果一致
+    private static final Paint SCALE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
 
     /**
      * 将Bitmap转换为JPEG格式
@@ -164,42 +90,65 @@ public class ImageConverter {
     }
 
     /**
-     * 从Uri加载图片并调整大小为240x240
-     * PNG图片会自动去除透明度（透明部分变为黑色）
+     * 从Uri加载图片并调整大小为240x240，Uri只打开一次
      *
      * @param context 上下文
      * @param uri 图片Uri
-     * @return 调整大小后的Bitmap（PNG已去除透明度）
+     * @return 调整大小后的Bitmap（PNG已去除透明度），失败时返回null
      */
     public static Bitmap loadImageFromUri(Context context, Uri uri) {
         try {
-            InputStream input = context.getContentResolver().openInputStream(uri);
+            return loadImage(ImageSource.open(context, uri));
+        } catch (IOException e) {
+            LogUtil.logError("读取图片失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 加载图片并调整大小为240x240
+     * 先读取图片尺寸再按inSampleSize降采样解码，解码出的图片最长边不超过目标尺寸的2倍，
+     * 避免大尺寸照片解码成上百MB的Bitmap；读取尺寸和解码使用同一份数据
+     * PNG图片会自动去除透明度（透明部分变为黑色）
+     *
+     * @param source 已读取的图片内容
+     * @return 调整大小后的Bitmap（PNG已去除透明度），失败时返回null
+     */
+    public static Bitmap loadImage(ImageSource source) {
+        try {
+            byte[] data = source.getData();
 
             // 先解码图片尺寸
             BitmapFactory.Options options = new BitmapFactory.Options();
             options.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(input, null, options);
-            input.close();
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
 
-            // 重新打开流
-            input = context.getContentResolver().openInputStream(uri);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                LogUtil.logError("无法读取图片尺寸");
+                return null;
+            }
+            int sampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                    TARGET_WIDTH, TARGET_HEIGHT);
 
-            // 解码完整图片
+            // 按采样率解码，图片整体缩放后居中放置，所以需要完整画面而不是局部区域
             options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
             options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-            Bitmap originalBitmap = BitmapFactory.decodeStream(input, null, options);
-            input.close();
+            Bitmap originalBitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
 
             if (originalBitmap == null) {
                 LogUtil.logError("无法解码图片");
                 return null;
             }
+            if (sampleSize > 1) {
+                LogUtil.log("原图 " + options.outWidth + "x" + options.outHeight + "，按1/" + sampleSize +
+                        "采样解码为 " + originalBitmap.getWidth() + "x" + originalBitmap.getHeight());
+            }
 
             // 检查是否为PNG格式，如果是则去除透明度
-            byte formatType = getFormatType(context, uri);
             Bitmap processedBitmap;
 
-            if (formatType == FORMAT_PNG) {
+            if (source.getFormat() == FORMAT_PNG) {
                 LogUtil.log("检测到PNG格式，正在去除透明度...");
                 processedBitmap = removeTransparency(originalBitmap);
                 // 回收原图
@@ -218,6 +167,27 @@ public class ImageConverter {
         }
     }
 
+    /**
+     * 计算解码采样率
+     * 图片按较长的一边缩放到目标尺寸内，取不小于1的最大2的幂，使采样后的图片仍不小于缩放结果，
+     * 因此解码尺寸在缩放结果的1到2倍之间，不会损失最终画质
+     *
+     * @param width 原图宽度
+     * @param height 原图高度
+     * @param targetWidth 目标宽度
+     * @param targetHeight 目标高度
+     * @return BitmapFactory.Options.inSampleSize
+     */
+    public static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        // 与resizeBitmap一致：缩放比例由较难放下的一边决定
+        float ratio = Math.max((float) width / targetWidth, (float) height / targetHeight);
+        int sampleSize = 1;
+        while (sampleSize * 2 <= ratio) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
     /**
      * 去除PNG图片的透明度，透明部分填充为黑色
      *
@@ -252,70 +222,41 @@ public class ImageConverter {
      * @return 调整后的图片
      */
     public static Bitmap resizeBitmap(Bitmap bitmap, int targetWidth, int targetHeight) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-
-        // 创建画布居中绘制
         Bitmap result = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(result);
-        canvas.drawColor(Color.BLACK); // 填充黑色背景
-
-        // 计算缩放比例，保持原始宽高比
-        float scaleWidth = (float) targetWidth / width;
-        float scaleHeight = (float) targetHeight / height;
-        float scale = Math.min(scaleWidth, scaleHeight);
-
-        // 计算居中位置
-        int scaledWidth = (int) (width * scale);
-        int scaledHeight = (int) (height * scale);
-        int offsetX = (targetWidth - scaledWidth) / 2;
-        int offsetY = (targetHeight - scaledHeight) / 2;
-
-        // 创建缩放矩阵
-        Matrix matrix = new Matrix();
-        matrix.postScale(scale, scale);
-
-        // 缩放原图
-        Bitmap scaledBitmap = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, true);
+        resizeInto(bitmap, result);
 
-        // 将缩放后的图片绘制到目标画布上
-        canvas.drawBitmap(scaledBitmap, offsetX, offsetY, null);
-
-        // 回收不需要的Bitmap
-        if (scaledBitmap != bitmap) {
-            scaledBitmap.recycle();
-        }
+        // 回收原图
         bitmap.recycle();
 
         return result;
     }
 
     /**
-     * 获取图片格式类型
+     * 将图片等比缩放后居中绘制到已有的目标Bitmap上，空白部分填充黑色
+     * 缩放和绘制在一次drawBitmap中完成，不生成中间的缩放图，也不修改或回收原图，
+     * 目标Bitmap可以来自BitmapPool反复使用
      *
-     * @param context 上下文
-     * @param uri 图片的 URI
-     * @return 图片格式类型
+     * @param source 原始图片
+     * @param target 可变的目标Bitmap
      */
-    public static byte getFormatType(Context context, Uri uri) {
-        try {
-            // 获取文件的 MIME 类型
-            String mimeType = context.getContentResolver().getType(uri);
-            if (mimeType == null) {
-                return FORMAT_JPEG; // 如果无法获取类型，默认使用 JPEG
-            }
+    public static void resizeInto(Bitmap source, Bitmap target) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int targetWidth = target.getWidth();
+        int targetHeight = target.getHeight();
 
-            // 根据 MIME 类型判断文件格式
-            switch (mimeType.toLowerCase()) {
-                case "image/png":
-                    return FORMAT_PNG;
-                case "image/gif":
-                    return FORMAT_GIF;
-                default:
-                    return FORMAT_JPEG;
-            }
-        } catch (Exception e) {
-            return FORMAT_JPEG; // 发生错误时默认使用 JPEG
-        }
+        // 计算缩放比例，保持原始宽高比
+        float scale = Math.min((float) targetWidth / width, (float) targetHeight / height);
+
+        // 计算居中位置
+        int scaledWidth = (int) (width * scale);
+        int scaledHeight = (int) (height * scale);
+        int offsetX = (targetWidth - scaledWidth) / 2;
+        int offsetY = (targetHeight - scaledHeight) / 2;
+
+        Canvas canvas = new Canvas(target);
+        canvas.drawColor(Color.BLACK); // 填充黑色背景
+        canvas.drawBitmap(source, new Rect(0, 0, width, height),
+                new Rect(offsetX, offsetY, offsetX + scaledWidth, offsetY + scaledHeight), SCALE_PAINT);
     }
 }
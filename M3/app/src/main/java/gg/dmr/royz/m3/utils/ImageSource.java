@@ -0,0 +1,132 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 用户选择的图片内容
+ * Uri只打开一次，内容读入内存，格式由文件头的魔术字节判断，不依赖ContentResolver提供的MIME类型
+ * 读取尺寸、解码和GIF转换都使用同一份数据，云端文件不会因为多次打开而重复下载
+ */
+public class ImageSource {
+    // 读入内存的文件大小上限，设备上的图片最终只有240x240，超过这个大小的文件不再继续读取
+    public static final int MAX_SIZE = 20 * 1024 * 1024;
+
+    private final byte[] data;
+    private final byte format;
+
+    private ImageSource(byte[] data) {
+        this.data = data;
+        this.format = detectFormat(data);
+    }
+
+    /**
+     * 打开Uri并读取全部内容
+     *
+     * @throws IOException 无法打开或读取，或文件超过MAX_SIZE时抛出
+     */
+    public static ImageSource open(Context context, Uri uri) throws IOException {
+        InputStream inputStream = context.getContentResolver().openInputStream(uri);
+        if (inputStream == null) {
+            throw new IOException("无法打开文件: " + uri);
+        }
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                // 边读边检查，不先把过大的文件整个读进内存
+                if (outputStream.size() + bytesRead > MAX_SIZE) {
+                    throw new IOException("文件超过 " + MAX_SIZE / (1024 * 1024) + " MB，无法处理");
+                }
+                outputStream.write(buffer, 0, bytesRead);
+            }
+            ImageSource source = new ImageSource(outputStream.toByteArray());
+            LogUtil.log("读取文件: " + source.data.length + " 字节，格式: " + formatName(source.format));
+            return source;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * 根据文件头判断格式
+     * GIF和PNG有专门的处理；其余格式（JPEG、WebP、HEIF等）交给BitmapFactory解码，按JPEG上传
+     */
+    public static byte detectFormat(byte[] header) {
+        // GIF87a / GIF89a
+        if (header.length >= 6 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' &&
+                header[3] == '8' && (header[4] == '7' || header[4] == '9') && header[5] == 'a') {
+            return ImageConverter.FORMAT_GIF;
+        }
+        // PNG: 89 50 4E 47 0D 0A 1A 0A
+        if (header.length >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' &&
+                header[3] == 'G' && header[4] == 0x0D && header[5] == 0x0A && header[6] == 0x1A && header[7] == 0x0A) {
+            return ImageConverter.FORMAT_PNG;
+        }
+        return ImageConverter.FORMAT_JPEG;
+    }
+
+    private static String formatName(byte format) {
+        switch (format) {
+            case ImageConverter.FORMAT_GIF: return "GIF";
+            case ImageConverter.FORMAT_PNG: return "PNG";
+            default: return "JPEG/其他";
+        }
+    }
+
+    public byte getFormat() {
+        return format;
+    }
+
+    public boolean isGif() {
+        return format == ImageConverter.FORMAT_GIF;
+    }
+
+    // 原始数据，调用方不能修改
+    public byte[] getData() {
+        return data;
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    // 每次返回从头开始的新输入流，支持mark/reset
+    public InputStream openStream() {
+        return new ByteArrayInputStream(data);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 按字节预算压缩JPEG
+ * 在质量区间内二分查找，取压缩后不超过预算的最高质量：
+ * 细节多的照片自动降低质量控制大小，简单的表情图则用更高的质量，不浪费预算
+ */
+public class JpegEncoder {
+    public static final int MIN_QUALITY = 30; // 低于这个质量画面已明显失真
+    public static final int MAX_QUALITY = 95; // 再高体积增长很快，屏幕上看不出区别
+
+    /**
+     * 压缩为不超过maxBytes的JPEG
+     * 最低质量仍超出预算时返回最低质量的结果，由调用方决定是否继续
+     *
+     * @param bitmap 源图片
+     * @param maxBytes 字节预算，小于等于0表示不限制，直接使用defaultQuality
+     * @param defaultQuality 不限制大小时使用的质量
+     * @param output 复用的输出缓冲区，结果写入其中
+     * @return 实际使用的质量
+     */
+    public static int compress(Bitmap bitmap, int maxBytes, int defaultQuality, ByteArrayOutputStream output) {
+        output.reset();
+        if (maxBytes <= 0) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, defaultQuality, output);
+            return defaultQuality;
+        }
+
+        // 先试默认质量，多数情况下一次就落在预算内，再向上找更高的可用质量
+        int low = MIN_QUALITY;
+        int high = MAX_QUALITY;
+        int best = -1;
+        int tried = -1;
+        int quality = Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, defaultQuality));
+        while (low <= high) {
+            output.reset();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, output);
+            tried = quality;
+            if (output.size() <= maxBytes) {
+                best = quality;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+            quality = (low + high) >>> 1;
+        }
+
+        // 最后一次尝试的不一定是最佳质量，需要重新压缩一次
+        int result = best >= 0 ? best : MIN_QUALITY;
+        if (result != tried) {
+            output.reset();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, result, output);
+        }
+        return result;
+    }
+
+    /**
+     * 压缩为不超过maxBytes的JPEG
+     *
+     * @return JPEG数据
+     */
+    public static byte[] compress(Bitmap bitmap, int maxBytes, int defaultQuality) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        compress(bitmap, maxBytes, defaultQuality, output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import android.graphics.Bitmap;
+
+/**
+ * 原始RGB565图片编码（.ibin，格式ID 0x00）
+ * 像素按屏幕接收的字节顺序（每个像素高字节在前）保存，设备读出后直接推送到屏幕，不需要解码
+ * 文件格式: [魔术字节"IBIN"][标志1字节][预留3字节][宽度2字节][高度2字节][像素数据]，宽高为小端序
+ * 带FLAG_RLE时像素数据按像素游程编码:
+ * 控制字节c < 0x80时后面跟c+1个像素原样保存；c >= 0x80时后面跟1个像素，重复c-0x7E次（2-129次）
+ */
+public class Rgb565Encoder {
+    private static final byte[] MAGIC_BYTES = {'I', 'B', 'I', 'N'};
+    public static final int HEADER_SIZE = 12;
+    public static final byte FLAG_RLE = 0x01;
+
+    // 游程编码的长度限制
+    private static final int MAX_LITERAL = 128;
+    private static final int MIN_RUN = 2;
+    private static final int MAX_RUN = 129;
+
+    // 8位通道到RGB565各分量的查找表（四舍五入，已移到对应的位置）
+    private static final char[] RED = new char[256];
+    private static final char[] GREEN = new char[256];
+    private static final char[] BLUE = new char[256];
+
+    static {
+        for (int v = 0; v < 256; v++) {
+            RED[v] = (char) (((v * 31 + 127) / 255) << 11);
+            GREEN[v] = (char) (((v * 63 + 127) / 255) << 5);
+            BLUE[v] = (char) ((v * 31 + 127) / 255);
+        }
+    }
+
+    /**
+     * 编码为.ibin文件数据
+     * 逐行读取像素并查表转换，整个过程只分配一行像素缓冲区和输出数组
+     *
+     * @param bitmap 已缩放到目标尺寸的图片
+     * @param rle 是否尝试游程编码，编码后不比原始数据小时仍保存原始数据
+     */
+    public static byte[] encode(Bitmap bitmap, boolean rle) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        char[] pixels = new char[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            int base = y * width;
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                pixels[base + x] = (char) (RED[(argb >> 16) & 0xFF] | GREEN[(argb >> 8) & 0xFF] | BLUE[argb & 0xFF]);
+            }
+        }
+        return encode(pixels, width, height, rle);
+    }
+
+    // 编码已转换好的RGB565像素，按行排列
+    static byte[] encode(char[] pixels, int width, int height, boolean rle) {
+        if (rle) {
+            byte[] compressed = encodeRle(pixels, width, height);
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+
+        byte[] output = new byte[HEADER_SIZE + pixels.length * 2];
+        int position = writeHeader(output, (byte) 0, width, height);
+        for (char pixel : pixels) {
+            output[position++] = (byte) (pixel >> 8);
+            output[position++] = (byte) pixel;
+        }
+        return output;
+    }
+
+    // 游程编码，结果不比原始数据小时返回null
+    private static byte[] encodeRle(char[] pixels, int width, int height) {
+        int rawSize = HEADER_SIZE + pixels.length * 2;
+        byte[] output = new byte[rawSize];
+        int position = writeHeader(output, FLAG_RLE, width, height);
+        int i = 0;
+        while (i < pixels.length) {
+            // 统计从i开始的重复次数
+            int run = 1;
+            while (i + run < pixels.length && run < MAX_RUN && pixels[i + run] == pixels[i]) {
+                run++;
+            }
+            if (run >= MIN_RUN) {
+                if (position + 3 > rawSize) {
+                    return null;
+                }
+                output[position++] = (byte) (run + 0x7E);
+                output[position++] = (byte) (pixels[i] >> 8);
+                output[position++] = (byte) pixels[i];
+                i += run;
+                continue;
+            }
+
+            // 原样保存直到出现重复像素
+            int literal = 1;
+            while (i + literal < pixels.length && literal < MAX_LITERAL &&
+                    !(i + literal + 1 < pixels.length && pixels[i + literal] == pixels[i + literal + 1])) {
+                literal++;
+            }
+            if (position + 1 + literal * 2 > rawSize) {
+                return null;
+            }
+            output[position++] = (byte) (literal - 1);
+            for (int k = 0; k < literal; k++) {
+                output[position++] = (byte) (pixels[i + k] >> 8);
+                output[position++] = (byte) pixels[i + k];
+            }
+            i += literal;
+        }
+
+        byte[] result = new byte[position];
+        System.arraycopy(output, 0, result, 0, position);
+        return result;
+    }
+
+    private static int writeHeader(byte[] output, byte flags, int width, int height) {
+        System.arraycopy(MAGIC_BYTES, 0, output, 0, MAGIC_BYTES.length);
+        output[4] = flags;
+        // 5-7为预留字节
+        output[8] = (byte) width;
+        output[9] = (byte) (width >> 8);
+        output[10] = (byte) height;
+        output[11] = (byte) (height >> 8);
+        return HEADER_SIZE;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ * 
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ * 
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ * 
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * GifPack v2增量帧编码
+ * 画面分成16x16的图块，与参考画面比较找出变化的图块；变化的图块按顺序排成与画面同宽的条带，
+ * 压缩为一张JPEG，设备解码后把每个图块写回原来的位置，其余部分保留上一帧的内容
+ * 图块边长与JPEG 4:2:0采样的MCU一致，条带中相邻的图块压缩时互不影响
+ * 参考画面是设备当前显示内容对应的原图，只在图块被发送时更新，细微的渐变不会因为逐帧比较而丢失
+ *
+ * 帧记录: 关键帧 [0x00, JPEG]；增量帧 [0x01, 图块位图, 条带JPEG]，图块位图第i位（字节i/8的第i%8位）对应按行排列的第i个图块
+ */
+public class TileDeltaEncoder {
+    public static final int TILE_SIZE = 16;
+    public static final byte FRAME_KEY = 0x00;
+    public static final byte FRAME_DELTA = 0x01;
+
+    // 变化的图块超过这个比例时改用关键帧，条带JPEG不比整帧小多少，还要额外的图块位图
+    private static final double KEYFRAME_RATIO = 0.6;
+
+    // 图块变化阈值：任一像素的通道差超过MAX_PIXEL_DIFFERENCE，或平均通道差超过MAX_MEAN_DIFFERENCE
+    private static final int MAX_PIXEL_DIFFERENCE = 32;
+    private static final int MAX_MEAN_DIFFERENCE = 2;
+
+    // 增量帧JPEG的固定开销（文件头和量化/霍夫曼表），按图块比例分配预算时额外加上
+    private static final int JPEG_OVERHEAD = 700;
+
+    private final int width;
+    private final int tilesPerRow;
+    private final int tileCount;
+    private int[] reference; // 参考画面像素，null表示还没有关键帧
+
+    public TileDeltaEncoder(int width, int height) {
+        if (width % TILE_SIZE != 0 || height % TILE_SIZE != 0) {
+            throw new IllegalArgumentException("画面尺寸必须是" + TILE_SIZE + "的整数倍: " + width + "x" + height);
+        }
+        this.width = width;
+        this.tilesPerRow = width / TILE_SIZE;
+        this.tileCount = tilesPerRow * (height / TILE_SIZE);
+    }
+
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    // 图块位图的字节数
+    public int getTileMapSize() {
+        return (tileCount + 7) / 8;
+    }
+
+    /**
+     * 找出与参考画面相比变化的图块
+     *
+     * @param pixels 当前帧像素，width*height个ARGB值
+     * @return 变化的图块编号（升序）；还没有参考画面时返回全部图块
+     */
+    public int[] findChangedTiles(int[] pixels) {
+        int[] changed = new int[tileCount];
+        int count = 0;
+        for (int tile = 0; tile < tileCount; tile++) {
+            if (reference == null || isTileChanged(pixels, tile)) {
+                changed[count++] = tile;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(changed, 0, result, 0, count);
+        return result;
+    }
+
+    private boolean isTileChanged(int[] pixels, int tile) {
+        int origin = (tile / tilesPerRow) * TILE_SIZE * width + (tile % tilesPerRow) * TILE_SIZE;
+        long total = 0;
+        for (int y = 0; y < TILE_SIZE; y++) {
+            int index = origin + y * width;
+            for (int x = 0; x < TILE_SIZE; x++, index++) {
+                int a = pixels[index];
+                int b = reference[index];
+                if (a == b) {
+                    continue;
+                }
+                int dr = Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF));
+                int dg = Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF));
+                int db = Math.abs((a & 0xFF) - (b & 0xFF));
+                if (dr > MAX_PIXEL_DIFFERENCE || dg > MAX_PIXEL_DIFFERENCE || db > MAX_PIXEL_DIFFERENCE) {
+                    return true;
+                }
+                total += dr + dg + db;
+            }
+        }
+        return total > (long) MAX_MEAN_DIFFERENCE * 3 * TILE_SIZE * TILE_SIZE;
+    }
+
+    // 变化的图块数量决定是否改用关键帧
+    public boolean shouldUseKeyframe(int changedTiles) {
+        return reference == null || changedTiles > tileCount * KEYFRAME_RATIO;
+    }
+
+    // 以关键帧作为新的参考画面，之后不能再修改pixels
+    public void setKeyframe(int[] pixels) {
+        reference = pixels;
+    }
+
+    // 把发送的图块更新到参考画面
+    public void applyTiles(int[] pixels, int[] tiles) {
+        for (int tile : tiles) {
+            int origin = (tile / tilesPerRow) * TILE_SIZE * width + (tile % tilesPerRow) * TILE_SIZE;
+            for (int y = 0; y < TILE_SIZE; y++) {
+                System.arraycopy(pixels, origin + y * width, reference, origin + y * width, TILE_SIZE);
+            }
+        }
+    }
+
+    // 增量帧的字节预算：按图块比例分配，加上JPEG固定开销，不超过整帧预算
+    public int deltaBudget(int frameBudget, int changedTiles) {
+        if (frameBudget <= 0) {
+            return 0;
+        }
+        return (int) Math.min(frameBudget, (long) frameBudget * changedTiles / tileCount + JPEG_OVERHEAD);
+    }
+
+    /**
+     * 编码关键帧记录
+     */
+    public static byte[] encodeKeyframe(Bitmap frame, int maxBytes, int defaultQuality) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegEncoder.compress(frame, maxBytes, defaultQuality, output);
+        byte[] record = new byte[1 + output.size()];
+        record[0] = FRAME_KEY;
+        System.arraycopy(output.toByteArray(), 0, record, 1, output.size());
+        return record;
+    }
+
+    /**
+     * 编码增量帧记录：变化的图块排成条带后压缩
+     * 可以在任意线程调用，只读取pixels和tiles
+     *
+     * @param pixels 当前帧像素
+     * @param tiles 变化的图块编号（升序）
+     * @param bitmapPool 条带Bitmap的复用池
+     */
+    public byte[] encodeDelta(int[] pixels, int[] tiles, BitmapPool bitmapPool, int maxBytes, int defaultQuality) {
+        byte[] map = new byte[getTileMapSize()];
+        for (int tile : tiles) {
+            map[tile / 8] |= (byte) (1 << (tile % 8));
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (tiles.length > 0) {
+            int rows = (tiles.length + tilesPerRow - 1) / tilesPerRow;
+            Bitmap strip = bitmapPool.acquire(width, rows * TILE_SIZE, Bitmap.Config.ARGB_8888);
+            try {
+                // 最后一行没用到的位置填黑色
+                strip.eraseColor(Color.BLACK);
+                for (int k = 0; k < tiles.length; k++) {
+                    int tile = tiles[k];
+                    int origin = (tile / tilesPerRow) * TILE_SIZE * width + (tile % tilesPerRow) * TILE_SIZE;
+                    strip.setPixels(pixels, origin, width, (k % tilesPerRow) * TILE_SIZE,
+                            (k / tilesPerRow) * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+                }
+                JpegEncoder.compress(strip, maxBytes, defaultQuality, output);
+            } finally {
+                bitmapPool.release(strip);
+            }
+        }
+
+        byte[] record = new byte[1 + map.length + output.size()];
+        record[0] = FRAME_DELTA;
+        System.arraycopy(map, 0, record, 1, map.length);
+        System.arraycopy(output.toByteArray(), 0, record, 1 + map.length, output.size());
+        return record;
+    }
+}
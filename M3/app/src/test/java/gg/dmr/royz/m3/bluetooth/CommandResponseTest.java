@@ -0,0 +1,142 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandResponseTest {
+
+    @Test
+    public void parsesLegacyAndSequencedFrames() {
+        CommandResponse legacy = CommandResponse.parse(new byte[]{0x08, 0x00, 2, 0x11, 0x22});
+        assertEquals(Constants.CommandID.CMD_GET_STATUS, legacy.getCommandId());
+        assertTrue(legacy.isSuccess());
+        assertEquals(CommandResponse.NO_SEQUENCE, legacy.getSequence());
+        assertArrayEquals(new byte[]{0x11, 0x22}, legacy.getPayload());
+
+        CommandResponse sequenced = CommandResponse.parse(new byte[]{(byte) 0x84, 7, 0x02, 1, 0x33});
+        assertEquals(Constants.CommandID.CMD_DELETE_IMAGE, sequenced.getCommandId());
+        assertEquals(Constants.ResponseCode.RESP_FS_ERROR, sequenced.getStatusCode());
+        assertEquals(7, sequenced.getSequence());
+        assertArrayEquals(new byte[]{0x33}, sequenced.getPayload());
+    }
+
+    @Test
+    public void parseClampsDeclaredLengthAndRejectsShortFrames() {
+        assertNull(CommandResponse.parse(null));
+        assertNull(CommandResponse.parse(new byte[]{0x08, 0x00}));
+        CommandResponse truncated = CommandResponse.parse(new byte[]{0x06, 0x00, 10, 1, 2});
+        assertArrayEquals(new byte[]{1, 2}, truncated.getPayload());
+    }
+
+    @Test
+    public void parseBatchSplitsSubResponses() {
+        byte[] list = new byte[300]; // 超过255字节，需要2字节长度
+        for (int i = 0; i < list.length; i++) {
+            list[i] = (byte) i;
+        }
+        byte[] payload = concat(
+                entry(Constants.CommandID.CMD_END_TRANSFER, Constants.ResponseCode.RESP_SUCCESS, new byte[]{0x13, 1, 2, 3, 4}),
+                entry(Constants.CommandID.CMD_GET_IMAGE_LIST, Constants.ResponseCode.RESP_SUCCESS, list),
+                entry(Constants.CommandID.CMD_GET_STATUS, Constants.ResponseCode.RESP_GENERAL_ERROR, new byte[0]));
+
+        List<CommandResponse> responses = CommandResponse.parseBatch(payload);
+        assertEquals(3, responses.size());
+        assertEquals(Constants.CommandID.CMD_END_TRANSFER, responses.get(0).getCommandId());
+        assertArrayEquals(new byte[]{0x13, 1, 2, 3, 4}, responses.get(0).getPayload());
+        assertEquals(Constants.CommandID.CMD_GET_IMAGE_LIST, responses.get(1).getCommandId());
+        assertArrayEquals(list, responses.get(1).getPayload());
+        assertEquals(Constants.CommandID.CMD_GET_STATUS, responses.get(2).getCommandId());
+        assertEquals(Constants.ResponseCode.RESP_GENERAL_ERROR, responses.get(2).getStatusCode());
+        assertEquals(0, responses.get(2).getPayload().length);
+        for (CommandResponse response : responses) {
+            assertEquals(CommandResponse.NO_SEQUENCE, response.getSequence());
+        }
+    }
+
+    @Test
+    public void parseBatchDropsIncompleteTail() {
+        byte[] complete = entry(Constants.CommandID.CMD_SET_DISPLAY, Constants.ResponseCode.RESP_SUCCESS, new byte[]{0x21});
+        byte[] partial = entry(Constants.CommandID.CMD_GET_IMAGE_LIST, Constants.ResponseCode.RESP_SUCCESS, new byte[20]);
+        byte[] payload = concat(complete, Arrays.copyOf(partial, 10));
+
+        List<CommandResponse> responses = CommandResponse.parseBatch(payload);
+        assertEquals(1, responses.size());
+        assertEquals(Constants.CommandID.CMD_SET_DISPLAY, responses.get(0).getCommandId());
+
+        assertEquals(0, CommandResponse.parseBatch(new byte[0]).size());
+        assertEquals(0, CommandResponse.parseBatch(new byte[]{0x06, 0x00, 0x01}).size());
+    }
+
+    @Test
+    public void cmdBatchConcatenatesLegacyCommands() {
+        byte[] delete = CommandHandler.cmdDeleteImage((byte) 0x12);
+        byte[] status = CommandHandler.cmdGetStatus();
+        byte[] batch = CommandHandler.cmdBatch(delete, status);
+
+        assertEquals(Constants.CommandID.CMD_BATCH, batch[0]);
+        assertEquals(delete.length + status.length, batch[1] & 0xFF);
+        assertArrayEquals(concat(delete, status), Arrays.copyOfRange(batch, 2, batch.length));
+
+        try {
+            CommandHandler.cmdBatch(new byte[200], new byte[100]);
+            fail("超过255字节的批量命令应被拒绝");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // 批量响应中的子响应 [命令ID, 状态码, 负载长度(2字节), 负载]
+    private static byte[] entry(byte cmdId, byte status, byte[] payload) {
+        byte[] entry = new byte[4 + payload.length];
+        entry[0] = cmdId;
+        entry[1] = status;
+        entry[2] = (byte) payload.length;
+        entry[3] = (byte) (payload.length >> 8);
+        System.arraycopy(payload, 0, entry, 4, payload.length);
+        return entry;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PayloadCompressorTest {
+
+    @Test
+    public void compressibleDataRoundTrips() throws DataFormatException {
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / 64);
+        }
+
+        byte[] compressed = PayloadCompressor.compressIfWorthwhile(data);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < data.length / 10);
+        assertArrayEquals(data, PayloadCompressor.inflate(compressed, data.length));
+    }
+
+    @Test
+    public void outputIsRawDeflateWithoutZlibHeader() throws DataFormatException {
+        byte[] data = new byte[4096];
+        Arrays.fill(data, (byte) 0x5A);
+
+        byte[] compressed = PayloadCompressor.compressIfWorthwhile(data);
+        assertNotNull(compressed);
+        // zlib流以0x78开头，设备端的tinfl按raw DEFLATE解压，不能带这个头
+        assertTrue(compressed[0] != 0x78);
+        Inflater raw = new Inflater(true);
+        raw.setInput(compressed);
+        byte[] output = new byte[data.length];
+        assertTrue(raw.inflate(output) == data.length && raw.finished());
+        raw.end();
+        assertArrayEquals(data, output);
+    }
+
+    @Test
+    public void incompressibleDataIsSentAsIs() {
+        byte[] data = new byte[32 * 1024];
+        new Random(7).nextBytes(data);
+        assertNull(PayloadCompressor.compressIfWorthwhile(data));
+    }
+
+    @Test
+    public void smallDataIsNotCompressed() {
+        assertNull(PayloadCompressor.compressIfWorthwhile(new byte[100]));
+        assertNull(PayloadCompressor.compressIfWorthwhile(null));
+    }
+
+    @Test
+    public void inflateRejectsWrongRawSize() {
+        byte[] data = new byte[4096];
+        byte[] compressed = PayloadCompressor.compressIfWorthwhile(data);
+        assertNotNull(compressed);
+        try {
+            PayloadCompressor.inflate(compressed, data.length + 1);
+            fail("解压后大小不符时应抛出异常");
+        } catch (DataFormatException expected) {
+        }
+        try {
+            PayloadCompressor.inflate(compressed, data.length - 1);
+            fail("解压后大小不符时应抛出异常");
+        } catch (DataFormatException expected) {
+        }
+    }
+}
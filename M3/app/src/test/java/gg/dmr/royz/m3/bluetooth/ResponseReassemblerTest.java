@@ -0,0 +1,185 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseReassemblerTest {
+    private static final byte CMD = Constants.CommandID.CMD_GET_IMAGE_LIST;
+
+    @Test
+    public void inOrderFragmentsAreReassembled() {
+        byte[] payload = payload(700, 1);
+        List<byte[]> fragments = split(CMD, 5, payload, 200);
+        ResponseReassembler reassembler = new ResponseReassembler();
+
+        for (int i = 0; i < fragments.size() - 1; i++) {
+            assertNull(reassembler.accept(fragments.get(i)));
+        }
+        CommandResponse response = reassembler.accept(fragments.get(fragments.size() - 1));
+        assertNotNull(response);
+        assertEquals(CMD, response.getCommandId());
+        assertEquals(5, response.getSequence());
+        assertTrue(response.isSuccess());
+        assertArrayEquals(payload, response.getPayload());
+    }
+
+    @Test
+    public void outOfOrderFragmentsAreReassembled() {
+        byte[] payload = payload(1000, 2);
+        List<byte[]> fragments = split(CMD, 9, payload, 120);
+        Collections.shuffle(fragments, new Random(3));
+        ResponseReassembler reassembler = new ResponseReassembler();
+
+        CommandResponse response = null;
+        for (int i = 0; i < fragments.size(); i++) {
+            response = reassembler.accept(fragments.get(i));
+            assertEquals(i == fragments.size() - 1, response != null);
+        }
+        assertArrayEquals(payload, response.getPayload());
+    }
+
+    @Test
+    public void repeatedFragmentDoesNotCompleteEarly() {
+        byte[] payload = payload(300, 4);
+        List<byte[]> fragments = split(CMD, 1, payload, 150);
+        ResponseReassembler reassembler = new ResponseReassembler();
+
+        // 第一个分片重复到达，累计长度已等于总长度，但第二个分片还没收到
+        assertNull(reassembler.accept(fragments.get(0)));
+        assertNull(reassembler.accept(fragments.get(0)));
+        CommandResponse response = reassembler.accept(fragments.get(1));
+        assertNotNull(response);
+        assertArrayEquals(payload, response.getPayload());
+
+        // 完成后再收到的重复分片开始新的缓冲区，不会再产生响应
+        assertNull(reassembler.accept(fragments.get(1)));
+    }
+
+    @Test
+    public void interleavedSequencesAreKeptApart() {
+        byte[] first = payload(400, 5);
+        byte[] second = payload(500, 6);
+        List<byte[]> a = split(CMD, 1, first, 200);
+        List<byte[]> b = split(Constants.CommandID.CMD_BATCH, 2, second, 200);
+        ResponseReassembler reassembler = new ResponseReassembler();
+
+        assertNull(reassembler.accept(a.get(0)));
+        assertNull(reassembler.accept(b.get(0)));
+        assertNull(reassembler.accept(b.get(1)));
+        CommandResponse responseA = reassembler.accept(a.get(1));
+        CommandResponse responseB = reassembler.accept(b.get(2));
+        assertArrayEquals(first, responseA.getPayload());
+        assertArrayEquals(second, responseB.getPayload());
+        assertEquals(Constants.CommandID.CMD_BATCH, responseB.getCommandId());
+    }
+
+    @Test
+    public void reusedSequenceDiscardsStaleFragments() {
+        byte[] stale = payload(400, 7);
+        byte[] fresh = payload(300, 8);
+        ResponseReassembler reassembler = new ResponseReassembler();
+
+        // 旧响应只收到一半就超时，序号被新的响应复用
+        assertNull(reassembler.accept(split(CMD, 3, stale, 200).get(0)));
+        List<byte[]> fragments = split(CMD, 3, fresh, 200);
+        assertNull(reassembler.accept(fragments.get(0)));
+        CommandResponse response = reassembler.accept(fragments.get(1));
+        assertNotNull(response);
+        assertArrayEquals(fresh, response.getPayload());
+    }
+
+    @Test
+    public void discardDropsPartialResponse() {
+        byte[] payload = payload(400, 9);
+        List<byte[]> fragments = split(CMD, 4, payload, 200);
+        ResponseReassembler reassembler = new ResponseReassembler();
+
+        assertNull(reassembler.accept(fragments.get(0)));
+        reassembler.discard(4);
+        assertNull(reassembler.accept(fragments.get(1)));
+    }
+
+    @Test
+    public void invalidFramesAreIgnored() {
+        ResponseReassembler reassembler = new ResponseReassembler();
+        assertFalse(ResponseReassembler.isFragment(new byte[]{CMD, 0, 0}));
+        assertFalse(ResponseReassembler.isFragment(new byte[]{(byte) (CMD | 0x80), 1, 0, 3, 0, 0, 0}));
+        assertNull(reassembler.accept(new byte[]{(byte) (CMD | 0x80), 1, 0, 3}));
+
+        // 分片超出声明的总长度
+        byte[] overflow = fragment(CMD, 1, 0, 10, 8, new byte[4]);
+        assertNull(reassembler.accept(overflow));
+    }
+
+    private static byte[] payload(int length, long seed) {
+        byte[] payload = new byte[length];
+        new Random(seed).nextBytes(payload);
+        return payload;
+    }
+
+    // 按固件的方式把响应拆成分片
+    private static List<byte[]> split(byte cmdId, int sequence, byte[] payload, int fragmentSize) {
+        List<byte[]> fragments = new ArrayList<>();
+        for (int offset = 0; offset < payload.length; offset += fragmentSize) {
+            int size = Math.min(fragmentSize, payload.length - offset);
+            byte[] data = new byte[size];
+            System.arraycopy(payload, offset, data, 0, size);
+            fragments.add(fragment(cmdId, sequence, Constants.ResponseCode.RESP_SUCCESS, payload.length, offset, data));
+        }
+        return fragments;
+    }
+
+    // [命令ID|0xC0, 序号, 状态码, 总长度(2字节), 偏移量(2字节), 数据]
+    private static byte[] fragment(byte cmdId, int sequence, int status, int totalLength, int offset, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(ResponseReassembler.FRAGMENT_HEADER_SIZE + data.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) (cmdId | Constants.CommandID.CMD_SEQ_FLAG | Constants.CommandID.CMD_FRAGMENT_FLAG));
+        buffer.put((byte) sequence);
+        buffer.put((byte) status);
+        buffer.putShort((short) totalLength);
+        buffer.putShort((short) offset);
+        buffer.put(data);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.bluetooth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通过SimulatedPendant走完整的上传流程
+ * 测试直接按GattTransport协议收发，按BleManager的做法发送序号数据帧，覆盖流式、有响应写入和断线续传
+ */
+public class SimulatedPendantTest {
+    private static final long TIMEOUT_MS = 10000;
+    private static final byte SLOT = 0x13; // JPEG格式，3号位
+    private static final String TARGET_FILE = "/img_3.jpg";
+
+    private ExecutorService callbackExecutor;
+    private SimulatedPendant pendant;
+    private Client client;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        callbackExecutor = Executors.newSingleThreadExecutor();
+        pendant = new SimulatedPendant(callbackExecutor);
+        client = connect();
+    }
+
+    @After
+    public void tearDown() {
+        pendant.shutdown();
+        callbackExecutor.shutdownNow();
+    }
+
+    @Test
+    public void streamingUploadIsStored() throws InterruptedException {
+        byte[] data = randomData(20000, 1);
+        byte flags = Constants.TransferFlag.FLAG_STREAM | Constants.TransferFlag.FLAG_SEQ;
+
+        CommandResponse accepted = client.request(CommandHandler.cmdStartTransfer(SLOT, flags, data.length, crc32(data)));
+        assertTrue(accepted.isSuccess());
+        assertEquals(flags, accepted.getPayload()[0]);
+        int window = ByteBuffer.wrap(accepted.getPayload(), 1, 2).order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
+        assertTrue(window > 0);
+
+        client.sendStreaming(data, 0, data.length, window);
+        assertUploadComplete(data);
+    }
+
+    @Test
+    public void ackedUploadIsStored() throws InterruptedException {
+        byte[] data = randomData(6000, 2);
+
+        CommandResponse accepted = client.request(CommandHandler.cmdStartTransfer(
+                SLOT, Constants.TransferFlag.FLAG_SEQ, data.length, crc32(data)));
+        assertTrue(accepted.isSuccess());
+        assertEquals(Constants.TransferFlag.FLAG_SEQ, accepted.getPayload()[0]);
+
+        client.sendAcked(data, 0, data.length);
+        assertUploadComplete(data);
+    }
+
+    @Test
+    public void missingFramesAreReportedAndResent() throws InterruptedException {
+        byte[] data = randomData(6000, 3);
+        assertTrue(client.request(CommandHandler.cmdStartTransfer(
+                SLOT, Constants.TransferFlag.FLAG_SEQ, data.length, crc32(data))).isSuccess());
+
+        // 跳过中间一段，设备结束传输时返回缺失区间
+        client.sendAcked(data, 0, 2000);
+        client.sendAcked(data, 3000, data.length);
+        CommandResponse incomplete = client.request(CommandHandler.cmdEndTransfer());
+        assertEquals(Constants.ResponseCode.RESP_INCOMPLETE, incomplete.getStatusCode());
+        ByteBuffer ranges = ByteBuffer.wrap(incomplete.getPayload()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(1, ranges.get());
+        assertEquals(2000, ranges.getInt());
+        assertEquals(1000, ranges.getInt());
+
+        client.sendAcked(data, 2000, 3000);
+        assertUploadComplete(data);
+    }
+
+    @Test
+    public void streamingUploadResumesAfterLinkLoss() throws InterruptedException {
+        byte[] data = randomData(20000, 4);
+        byte flags = Constants.TransferFlag.FLAG_STREAM | Constants.TransferFlag.FLAG_SEQ;
+        CommandResponse accepted = client.request(CommandHandler.cmdStartTransfer(SLOT, flags, data.length, crc32(data)));
+        assertTrue(accepted.isSuccess());
+        int window = ByteBuffer.wrap(accepted.getPayload(), 1, 2).order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF;
+
+        client.sendStreaming(data, 0, data.length / 2, window);
+        pendant.simulateLinkLoss();
+        assertTrue(client.awaitDisconnect());
+        pendant.close();
+        assertFalse(pendant.getFileSystem().exists(TARGET_FILE));
+
+        // 重新连接，设备返回已提交的位置，从这里继续发送
+        client = connect();
+        CommandResponse resumed = client.request(CommandHandler.cmdResumeTransfer(SLOT, flags, data.length, crc32(data), 0));
+        assertTrue(resumed.isSuccess());
+        int committed = ByteBuffer.wrap(resumed.getPayload(), 3, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        assertTrue("已提交 " + committed, committed > 0 && committed <= data.length / 2);
+
+        client.sendStreaming(data, committed, data.length, window);
+        assertUploadComplete(data);
+    }
+
+    @Test
+    public void resumeIsRejectedForDifferentPayload() throws InterruptedException {
+        byte[] data = randomData(6000, 5);
+        assertTrue(client.request(CommandHandler.cmdStartTransfer(
+                SLOT, Constants.TransferFlag.FLAG_SEQ, data.length, crc32(data))).isSuccess());
+        client.sendAcked(data, 0, 3000);
+        pendant.simulateLinkLoss();
+        assertTrue(client.awaitDisconnect());
+        pendant.close();
+
+        // 续传信息与设备保存的会话不一致时不能接着写
+        client = connect();
+        CommandResponse resumed = client.request(CommandHandler.cmdResumeTransfer(
+                SLOT, Constants.TransferFlag.FLAG_SEQ, data.length, crc32(data) ^ 1, 0));
+        assertEquals(Constants.ResponseCode.RESP_PARAM_ERROR, resumed.getStatusCode());
+    }
+
+    @Test
+    public void failedInflateKeepsExistingImage() throws InterruptedException {
+        byte[] original = randomData(3000, 6);
+        assertTrue(client.request(CommandHandler.cmdStartTransfer(
+                SLOT, Constants.TransferFlag.FLAG_SEQ, original.length, crc32(original))).isSuccess());
+        client.sendAcked(original, 0, original.length);
+        assertUploadComplete(original);
+
+        // CRC32正确但不是有效的DEFLATE数据，解压失败，目标位置原有的图片保持不变
+        byte[] garbage = new byte[2000];
+        Arrays.fill(garbage, (byte) 0xFF);
+        byte flags = Constants.TransferFlag.FLAG_SEQ | Constants.TransferFlag.FLAG_DEFLATE;
+        assertTrue(client.request(CommandHandler.cmdStartTransfer(
+                SLOT, flags, garbage.length, crc32(garbage), 8000)).isSuccess());
+        client.sendAcked(garbage, 0, garbage.length);
+        CommandResponse end = client.request(CommandHandler.cmdEndTransfer());
+        assertEquals(Constants.ResponseCode.RESP_TRANSFER_ERROR, end.getStatusCode());
+
+        assertArrayEquals(original, pendant.getFileSystem().read(TARGET_FILE));
+        assertFalse(pendant.getFileSystem().exists(SimulatedPendant.UPLOAD_PART_FILE));
+        assertFalse(pendant.getFileSystem().exists(SimulatedPendant.UPLOAD_INFLATE_FILE));
+    }
+
+    // 结束传输成功后文件内容与发送的数据一致，临时文件已清理
+    private void assertUploadComplete(byte[] data) throws InterruptedException {
+        CommandResponse end = client.request(CommandHandler.cmdEndTransfer());
+        assertTrue("结束传输: " + end, end.isSuccess());
+        assertEquals(SLOT, end.getPayload()[0]);
+        assertEquals(data.length, ByteBuffer.wrap(end.getPayload(), 1, 4).order(ByteOrder.LITTLE_ENDIAN).getInt());
+
+        SimulatedPendant.FileSystem fs = pendant.getFileSystem();
+        assertArrayEquals(data, fs.read(TARGET_FILE));
+        assertFalse(fs.exists(SimulatedPendant.UPLOAD_PART_FILE));
+        assertFalse(fs.exists(SimulatedPendant.UPLOAD_META_FILE));
+        assertEquals(TARGET_FILE, pendant.getDisplayedFile());
+    }
+
+    private Client connect() throws InterruptedException {
+        Client newClient = new Client();
+        assertTrue(pendant.connect(newClient));
+        assertNotNull("MTU协商超时", newClient.mtu.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // 与BleManager一致，传输前切换到高优先级连接参数，缩短测试时间
+        assertTrue(pendant.requestConnectionPriority(GattTransport.CONNECTION_PRIORITY_HIGH));
+        assertNotNull("连接参数更新超时", newClient.connectionUpdates.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        return newClient;
+    }
+
+    private static byte[] randomData(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static int crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 测试用的APP端：记录传输层回调，按BleManager的方式发送命令和数据帧
+     */
+    private class Client implements GattTransport.Listener {
+        final BlockingQueue<Integer> mtu = new LinkedBlockingQueue<>();
+        final BlockingQueue<Boolean> connectionUpdates = new LinkedBlockingQueue<>();
+        final BlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+        final BlockingQueue<Boolean> dataWrites = new LinkedBlockingQueue<>();
+        final BlockingQueue<Boolean> disconnects = new LinkedBlockingQueue<>();
+        private int negotiatedMtu = Constants.DEFAULT_MTU;
+        private int ackedBytes = 0; // 流式传输中设备确认的字节数
+
+        CommandResponse request(byte[] command) throws InterruptedException {
+            assertTrue(pendant.writeCommand(command));
+            byte[] frame = responses.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("命令响应超时: " + Constants.getCommandName(command[0]), frame);
+            CommandResponse response = CommandResponse.parse(frame);
+            assertEquals(command[0], response.getCommandId());
+            return response;
+        }
+
+        // 有响应写入：每帧等待写回调后再发送下一帧
+        void sendAcked(byte[] data, int from, int to) throws InterruptedException {
+            for (int offset = from; offset < to; ) {
+                int size = Math.min(chunkPayload(), to - offset);
+                assertTrue(pendant.writeData(frame(data, offset, size), true));
+                assertEquals(Boolean.TRUE, dataWrites.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+                offset += size;
+            }
+        }
+
+        // 无响应写入：未确认的字节数不超过设备授予的信用窗口
+        void sendStreaming(byte[] data, int from, int to, int window) throws InterruptedException {
+            synchronized (this) {
+                ackedBytes = from;
+            }
+            for (int offset = from; offset < to; ) {
+                int size = Math.min(chunkPayload(), to - offset);
+                awaitCredit(offset + size - window);
+                assertTrue(pendant.writeData(frame(data, offset, size), false));
+                assertEquals(Boolean.TRUE, dataWrites.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+                offset += size;
+            }
+        }
+
+        boolean awaitDisconnect() throws InterruptedException {
+            return Boolean.TRUE.equals(disconnects.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+
+        private synchronized void awaitCredit(int needed) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (ackedBytes < needed) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("等待信用超时，已确认 " + ackedBytes, remaining > 0);
+                wait(remaining);
+            }
+        }
+
+        private int chunkPayload() {
+            return Math.min(Constants.MAX_CHUNK_SIZE, negotiatedMtu - Constants.ATT_HEADER_SIZE) -
+                    Constants.DATA_FRAME_HEADER_SIZE;
+        }
+
+        // 序号数据帧: [偏移量(4字节), 数据CRC32(4字节), 数据]
+        private byte[] frame(byte[] data, int offset, int size) {
+            CRC32 crc = new CRC32();
+            crc.update(data, offset, size);
+            byte[] frame = new byte[Constants.DATA_FRAME_HEADER_SIZE + size];
+            ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN).putInt(offset).putInt((int) crc.getValue());
+            System.arraycopy(data, offset, frame, Constants.DATA_FRAME_HEADER_SIZE, size);
+            return frame;
+        }
+
+        @Override
+        public void onLinkUp() {
+        }
+
+        @Override
+        public void onReady() {
+        }
+
+        @Override
+        public void onCommandWritten(boolean success) {
+        }
+
+        @Override
+        public void onDataWritten(boolean success) {
+            dataWrites.add(success);
+        }
+
+        @Override
+        public void onNotification(byte[] value) {
+            // 流式传输的信用确认: [CMD_IMAGE_DATA, 状态码, 4, 已接收字节数(4字节)]
+            if (value.length == 7 && value[0] == Constants.CommandID.CMD_IMAGE_DATA) {
+                synchronized (this) {
+                    ackedBytes = ByteBuffer.wrap(value, 3, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                    notifyAll();
+                }
+                return;
+            }
+            responses.add(value);
+        }
+
+        @Override
+        public void onMtuChanged(int mtu) {
+            negotiatedMtu = mtu;
+            this.mtu.add(mtu);
+        }
+
+        @Override
+        public void onPhyUpdate(int txPhy, int rxPhy, boolean success) {
+        }
+
+        @Override
+        public void onConnectionUpdated(int interval, int latency, int timeout, boolean success) {
+            connectionUpdates.add(success);
+        }
+
+        @Override
+        public void onTransportError(String message) {
+        }
+
+        @Override
+        public void onDisconnected(boolean failed) {
+            disconnects.add(failed);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameTimelineTest {
+
+    @Test
+    public void shortGifDelaysBecomeDefaultDelay() {
+        // 小于20毫秒（包括0）的延迟按100毫秒处理，20毫秒本身保持不变
+        int[] delays = {0, 10, 19, 20, 150};
+        FrameTimeline timeline = FrameTimeline.resample(delays, null, 0, 100);
+
+        assertEquals(5, timeline.getFrameCount());
+        assertArrayEquals(new int[]{100, 100, 100, 20, 150}, durations(timeline));
+        assertTotalPreserved(timeline, 470);
+    }
+
+    @Test
+    public void keptFramesCoverShortFramesThatAreDropped() {
+        // 快于最小间隔的帧被丢弃，时长并入前一个保留帧
+        int[] delays = {30, 30, 30, 30, 200};
+        FrameTimeline timeline = FrameTimeline.resample(delays, null, 50, 100);
+
+        assertArrayEquals(new int[]{0, 2, 4}, sourceIndices(timeline));
+        assertArrayEquals(new int[]{60, 60, 200}, durations(timeline));
+    }
+
+    @Test
+    public void timeOnlySelectionRespectsMaxFrames() {
+        int[] delays = new int[1000];
+        Arrays.fill(delays, 40);
+
+        FrameTimeline timeline = FrameTimeline.resample(delays, null, 40, 50);
+        assertEquals(50, timeline.getFrameCount());
+        // 间隔加大到总时长/帧数上限，保留的帧均匀覆盖整段动画
+        for (int k = 0; k < timeline.getFrameCount(); k++) {
+            assertEquals(k * 20, timeline.getSourceIndex(k));
+            assertEquals(800, timeline.getDuration(k));
+        }
+        assertTotalPreserved(timeline, 40000);
+    }
+
+    @Test
+    public void motionSelectionRespectsMaxFrames() {
+        int[] delays = new int[400];
+        double[] motion = new double[400];
+        Arrays.fill(delays, 40);
+        for (int i = 1; i < motion.length; i++) {
+            motion[i] = (i * 7919) % 13; // 不均匀的变化量
+        }
+
+        for (int maxFrames : new int[]{1, 2, 7, 30, 100}) {
+            FrameTimeline timeline = FrameTimeline.resample(delays, motion, 40, maxFrames);
+            assertTrue(timeline.getFrameCount() <= maxFrames);
+            assertEquals(0, timeline.getSourceIndex(0));
+            for (int k = 1; k < timeline.getFrameCount(); k++) {
+                assertTrue(timeline.getSourceIndex(k) > timeline.getSourceIndex(k - 1));
+            }
+            assertTotalPreserved(timeline, 16000);
+        }
+    }
+
+    @Test
+    public void staticClipCollapsesToOneFrame() {
+        int[] delays = {100, 100, 100};
+        FrameTimeline timeline = FrameTimeline.resample(delays, new double[3], 40, 10);
+        assertEquals(1, timeline.getFrameCount());
+        assertEquals(300, timeline.getDuration(0));
+    }
+
+    @Test
+    public void everyNthKeepsSourceDurations() {
+        int[] delays = {10, 20, 30, 40, 50};
+        FrameTimeline timeline = FrameTimeline.everyNth(delays, 2, 10);
+        assertArrayEquals(new int[]{0, 2, 4}, sourceIndices(timeline));
+        assertArrayEquals(new int[]{10, 30, 50}, durations(timeline));
+        assertEquals(90, timeline.getTotalDuration());
+    }
+
+    @Test
+    public void frameBudgetIsSpreadOverWholeClip() {
+        // 变化量均匀分布时按阈值会选出上限+1帧，多出的帧不能靠截掉末尾去掉
+        int[] delays = new int[101];
+        double[] motion = new double[101];
+        Arrays.fill(delays, 50);
+        Arrays.fill(motion, 1);
+
+        FrameTimeline timeline = FrameTimeline.resample(delays, motion, 0, 10);
+        assertEquals(10, timeline.getFrameCount());
+        assertTotalPreserved(timeline, 101 * 50);
+        assertTrue("最后一帧停留 " + timeline.getDuration(9) + " 毫秒",
+                timeline.getDuration(9) <= 2 * timeline.getDuration(0));
+        assertTrue(timeline.getSourceIndex(9) >= 85);
+    }
+
+    @Test
+    public void motionAtEndStillGetsFrames() {
+        // 前半段静止，后半段每帧都在动：保留帧集中在后半段，一直分布到最后
+        int n = 60;
+        int[] delays = new int[n];
+        double[] motion = new double[n];
+        Arrays.fill(delays, 40);
+        for (int i = n / 2; i < n; i++) {
+            motion[i] = 1;
+        }
+
+        FrameTimeline timeline = FrameTimeline.resample(delays, motion, 40, 8);
+        assertTrue(timeline.getFrameCount() <= 8);
+        int last = timeline.getFrameCount() - 1;
+        assertTrue("最后保留的源帧 " + timeline.getSourceIndex(last), timeline.getSourceIndex(last) >= n - 6);
+        assertTotalPreserved(timeline, n * 40);
+    }
+
+    @Test
+    public void lastMovingFrameIsNotDroppedAtCap() {
+        // 最后一帧有变化并且停留很久，帧数超出上限时不能把它截掉，让前一帧多停留3秒
+        int[] delays = {50, 50, 50, 50, 50, 50, 50, 50, 3000};
+        double[] motion = {0, 1, 1, 1, 1, 1, 1, 1, 1};
+
+        FrameTimeline timeline = FrameTimeline.resample(delays, motion, 0, 4);
+        assertEquals(4, timeline.getFrameCount());
+        assertEquals(8, timeline.getSourceIndex(3));
+        assertEquals(3000, timeline.getDuration(3));
+        assertTotalPreserved(timeline, 3400);
+    }
+
+    private static int[] sourceIndices(FrameTimeline timeline) {
+        int[] indices = new int[timeline.getFrameCount()];
+        for (int k = 0; k < indices.length; k++) {
+            indices[k] = timeline.getSourceIndex(k);
+        }
+        return indices;
+    }
+
+    private static int[] durations(FrameTimeline timeline) {
+        int[] durations = new int[timeline.getFrameCount()];
+        for (int k = 0; k < durations.length; k++) {
+            durations[k] = timeline.getDuration(k);
+        }
+        return durations;
+    }
+
+    private static void assertTotalPreserved(FrameTimeline timeline, int total) {
+        int sum = 0;
+        for (int k = 0; k < timeline.getFrameCount(); k++) {
+            assertTrue(timeline.getDuration(k) > 0);
+            sum += timeline.getDuration(k);
+        }
+        assertEquals(total, sum);
+        assertEquals(total, timeline.getTotalDuration());
+    }
+}
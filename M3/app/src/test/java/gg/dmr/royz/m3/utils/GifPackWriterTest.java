@@ -0,0 +1,200 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GifPackWriterTest {
+    private File output;
+
+    @Before
+    public void setUp() throws IOException {
+        output = File.createTempFile("gifpack", ".gfp");
+    }
+
+    @After
+    public void tearDown() {
+        output.delete();
+    }
+
+    @Test
+    public void writesV1HeaderAndOffsetTable() throws IOException {
+        byte[] first = frame(40, 1);
+        byte[] second = frame(25, 2);
+        long size;
+        try (GifPackWriter writer = new GifPackWriter(output, 3, GifPackWriter.VERSION, false)) {
+            assertFalse(writer.hasFrameDurations());
+            writer.addFrame(first, 100);
+            writer.addFrame(second, 100);
+            assertEquals(second.length, writer.addDuplicateFrame(100));
+            size = writer.finish(12, 240, 240);
+        }
+
+        ByteBuffer file = read();
+        assertEquals(file.capacity(), size);
+        assertHeader(file, GifPackWriter.VERSION, 3, 12, 0);
+
+        // 偏移量表按最大帧数预留，帧数据从预留空间之后开始，v1的重复帧再写一份数据
+        int dataStart = GifPackWriter.HEADER_SIZE + 3 * 4;
+        assertEquals(dataStart, file.getInt(16));
+        assertEquals(dataStart + first.length, file.getInt(20));
+        assertEquals(dataStart + first.length + second.length, file.getInt(24));
+        assertArrayEquals(first, slice(file, dataStart, first.length));
+        assertArrayEquals(second, slice(file, dataStart + first.length, second.length));
+        assertArrayEquals(second, slice(file, dataStart + first.length + second.length, second.length));
+        assertEquals(dataStart + first.length + 2 * second.length, size);
+    }
+
+    @Test
+    public void v1OffsetsStrictlyIncreaseWithDuplicates() throws IOException {
+        // 旧固件按相邻偏移量之差计算帧大小，任何两帧共用偏移量都会被当成0字节的帧
+        long size;
+        try (GifPackWriter writer = new GifPackWriter(output, 6, GifPackWriter.VERSION, false)) {
+            writer.addFrame(frame(20, 1), 100);
+            writer.addDuplicateFrame(100);
+            writer.addDuplicateFrame(100);
+            writer.addFrame(frame(15, 2), 100);
+            writer.addDuplicateFrame(100);
+            size = writer.finish(10, 240, 240);
+        }
+
+        ByteBuffer file = read();
+        assertHeader(file, GifPackWriter.VERSION, 5, 10, 0);
+        int previous = -1;
+        for (int i = 0; i < 5; i++) {
+            int offset = file.getInt(GifPackWriter.HEADER_SIZE + i * 4);
+            assertTrue("帧" + i + "的偏移量没有递增", offset > previous);
+            previous = offset;
+        }
+        assertTrue(previous < size);
+        assertArrayEquals(frame(15, 2), slice(file, previous, 15));
+    }
+
+    @Test
+    public void writesDurationTableAfterActualOffsets() throws IOException {
+        byte[] first = frame(30, 3);
+        byte[] second = frame(30, 4);
+        try (GifPackWriter writer = new GifPackWriter(output, 5, GifPackWriter.VERSION_DELTA, true)) {
+            assertTrue(writer.hasFrameDurations());
+            writer.addFrame(first, 150);
+            writer.extendLastFrame(50);
+            writer.addFrame(second, 0);
+            writer.addDuplicateFrame(70000);
+            writer.finish(25, 240, 240);
+        }
+
+        ByteBuffer file = read();
+        assertHeader(file, GifPackWriter.VERSION_DELTA, 3, 25, GifPackWriter.FLAG_DURATIONS);
+
+        // 预留5帧的表项（每帧4字节偏移量 + 2字节时长），实际只写了3帧
+        int dataStart = GifPackWriter.HEADER_SIZE + 5 * GifPackWriter.getTableEntrySize(true);
+        int offsets = GifPackWriter.HEADER_SIZE;
+        assertEquals(dataStart, file.getInt(offsets));
+        assertEquals(dataStart + first.length, file.getInt(offsets + 4));
+        assertEquals(dataStart + first.length, file.getInt(offsets + 8));
+
+        // 帧时长表紧跟在实际帧数的偏移量表之后，时长限制在1到65535毫秒
+        int durations = offsets + 3 * 4;
+        assertEquals(200, file.getShort(durations) & 0xFFFF);
+        assertEquals(1, file.getShort(durations + 2) & 0xFFFF);
+        assertEquals(65535, file.getShort(durations + 4) & 0xFFFF);
+
+        assertArrayEquals(first, slice(file, dataStart, first.length));
+        assertArrayEquals(second, slice(file, dataStart + first.length, second.length));
+    }
+
+    @Test
+    public void tableEntrySizeDependsOnDurations() {
+        assertEquals(4, GifPackWriter.getTableEntrySize(false));
+        assertEquals(6, GifPackWriter.getTableEntrySize(true));
+    }
+
+    @Test
+    public void rejectsInvalidFrameSequences() throws IOException {
+        try (GifPackWriter writer = new GifPackWriter(output, 1, GifPackWriter.VERSION, false)) {
+            try {
+                writer.addDuplicateFrame(100);
+                fail("没有帧时不能添加重复帧");
+            } catch (IOException expected) {
+            }
+            writer.addFrame(frame(10, 5), 100);
+            try {
+                writer.extendLastFrame(100);
+                fail("没有帧时长表时不能延长帧");
+            } catch (IOException expected) {
+            }
+            try {
+                writer.addFrame(frame(10, 6), 100);
+                fail("超过预留帧数时应抛出异常");
+            } catch (IOException expected) {
+            }
+            assertEquals(1, writer.getFrameCount());
+        }
+    }
+
+    private static void assertHeader(ByteBuffer file, byte version, int frames, int fps, int flags) {
+        assertArrayEquals(new byte[]{'G', 'F', 'P', 'K'}, slice(file, 0, 4));
+        assertEquals(version, file.get(4));
+        assertEquals(frames, file.getShort(5));
+        assertEquals(fps, file.get(7));
+        assertEquals(240, file.getShort(8));
+        assertEquals(240, file.getShort(10));
+        assertEquals(flags, file.get(12));
+        assertArrayEquals(new byte[3], slice(file, 13, 3));
+    }
+
+    private static byte[] frame(int length, int fill) {
+        byte[] frame = new byte[length];
+        Arrays.fill(frame, (byte) fill);
+        return frame;
+    }
+
+    private static byte[] slice(ByteBuffer file, int offset, int length) {
+        return Arrays.copyOfRange(file.array(), offset, offset + length);
+    }
+
+    private ByteBuffer read() throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(output.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Mon3tr Emoji - ESP32-C3 BLE Project and Android APP for custom display
+ * Copyright (C) 2025  RoyZ-iwnl
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * 本程序是自由软件，在自由软件联盟发布的GNU通用公共许可证条款下，
+ * 你可以对其进行再发布及修改。协议版本为第三版或（随你）更新的版本。
+ *
+ * 本程序的发布是希望它能够有用，但不负任何担保责任；
+ * 具体详情请参见GNU通用公共许可证。
+ *
+ * 你理当已收到一份GNU通用公共许可证的副本。
+ * 如果没有，请查阅<https://www.gnu.org/licenses/>
+ *
+ * Contact/联系方式: Roy@DMR.gg
+ */
+package gg.dmr.royz.m3.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Rgb565EncoderTest {
+
+    @Test
+    public void runOfTwoUsesShortestRunCode() {
+        char[] pixels = {0x1234, 0x1234};
+        byte[] data = encodeRle(pixels);
+        // 控制字节0x80表示重复2次
+        assertArrayEquals(new byte[]{(byte) 0x80, 0x12, 0x34}, body(data));
+        assertArrayEquals(pixels, decode(data));
+    }
+
+    @Test
+    public void runOf129FitsOneControlByte() {
+        char[] pixels = filled(129, 0xF800);
+        assertArrayEquals(new byte[]{(byte) 0xFF, (byte) 0xF8, 0x00}, body(encodeRle(pixels)));
+    }
+
+    @Test
+    public void runOf130SplitsIntoRunAndLiteral() {
+        char[] pixels = filled(130, 0x07E0);
+        byte[] data = encodeRle(pixels);
+        assertArrayEquals(new byte[]{(byte) 0xFF, 0x07, (byte) 0xE0, 0x00, 0x07, (byte) 0xE0}, body(data));
+        assertArrayEquals(pixels, decode(data));
+    }
+
+    @Test
+    public void runOf131SplitsIntoTwoRuns() {
+        char[] pixels = filled(131, 0x001F);
+        byte[] data = encodeRle(pixels);
+        assertArrayEquals(new byte[]{(byte) 0xFF, 0x00, 0x1F, (byte) 0x80, 0x00, 0x1F}, body(data));
+        assertArrayEquals(pixels, decode(data));
+    }
+
+    @Test
+    public void literalOf128FitsOneControlByte() {
+        // 128个互不相同的像素后跟一段长重复，保证游程编码比原始数据小
+        char[] pixels = new char[128 + 400];
+        for (int i = 0; i < 128; i++) {
+            pixels[i] = (char) (i + 1);
+        }
+        byte[] data = encodeRle(pixels);
+        byte[] body = body(data);
+        assertEquals(0x7F, body[0]);
+        assertEquals((byte) 0xFF, body[1 + 128 * 2]);
+        assertArrayEquals(pixels, decode(data));
+    }
+
+    @Test
+    public void literalOf129SplitsAfter128() {
+        char[] pixels = new char[129 + 400];
+        for (int i = 0; i < 129; i++) {
+            pixels[i] = (char) (i + 1);
+        }
+        byte[] body = body(encodeRle(pixels));
+        assertEquals(0x7F, body[0]);
+        // 第129个像素单独成为长度为1的原样段
+        assertEquals(0x00, body[1 + 128 * 2]);
+        assertEquals(0x00, body[2 + 128 * 2]);
+        assertEquals((byte) 129, body[3 + 128 * 2]);
+    }
+
+    @Test
+    public void literalStopsBeforeRepeatedPair() {
+        char[] pixels = {1, 2, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3};
+        byte[] body = body(encodeRle(pixels));
+        assertArrayEquals(new byte[]{0x01, 0x00, 0x01, 0x00, 0x02, (byte) (10 + 0x7E), 0x00, 0x03}, body);
+    }
+
+    @Test
+    public void randomImagesRoundTrip() {
+        Random random = new Random(11);
+        for (int round = 0; round < 200; round++) {
+            int width = 1 + random.nextInt(40);
+            int height = 1 + random.nextInt(40);
+            char[] pixels = new char[width * height];
+            // 少量颜色产生长短不一的游程
+            int colors = 1 + random.nextInt(4);
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = random.nextInt(3) == 0 || i == 0 ? (char) random.nextInt(colors) : pixels[i - 1];
+            }
+            byte[] data = Rgb565Encoder.encode(pixels, width, height, true);
+            assertEquals(width, (data[8] & 0xFF) | ((data[9] & 0xFF) << 8));
+            assertEquals(height, (data[10] & 0xFF) | ((data[11] & 0xFF) << 8));
+            assertArrayEquals(pixels, decode(data));
+        }
+    }
+
+    @Test
+    public void incompressibleImageIsStoredRaw() {
+        char[] pixels = {0x0102, 0x0304, 0x0506};
+        byte[] data = Rgb565Encoder.encode(pixels, 3, 1, true);
+        assertEquals(0, data[4]);
+        assertArrayEquals(new byte[]{'I', 'B', 'I', 'N'}, Arrays.copyOf(data, 4));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06}, body(data));
+    }
+
+    private static byte[] encodeRle(char[] pixels) {
+        byte[] data = Rgb565Encoder.encode(pixels, pixels.length, 1, true);
+        assertEquals(Rgb565Encoder.FLAG_RLE, data[4]);
+        return data;
+    }
+
+    private static char[] filled(int count, int pixel) {
+        char[] pixels = new char[count];
+        Arrays.fill(pixels, (char) pixel);
+        return pixels;
+    }
+
+    private static byte[] body(byte[] data) {
+        return Arrays.copyOfRange(data, Rgb565Encoder.HEADER_SIZE, data.length);
+    }
+
+    // 按固件decodeIbinRle的规则解码
+    private static char[] decode(byte[] data) {
+        int width = (data[8] & 0xFF) | ((data[9] & 0xFF) << 8);
+        int height = (data[10] & 0xFF) | ((data[11] & 0xFF) << 8);
+        char[] pixels = new char[width * height];
+        int position = Rgb565Encoder.HEADER_SIZE;
+        if ((data[4] & Rgb565Encoder.FLAG_RLE) == 0) {
+            for (int i = 0; i < pixels.length; i++, position += 2) {
+                pixels[i] = (char) (((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF));
+            }
+            return pixels;
+        }
+        int i = 0;
+        while (i < pixels.length) {
+            int control = data[position++] & 0xFF;
+            if (control < 0x80) {
+                for (int k = 0; k <= control; k++, position += 2) {
+                    pixels[i++] = (char) (((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF));
+                }
+            } else {
+                char pixel = (char) (((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF));
+                position += 2;
+                for (int k = 0; k < control - 0x7E; k++) {
+                    pixels[i++] = pixel;
+                }
+            }
+        }
+        assertEquals(data.length, position);
+        return pixels;
+    }
+}
@@ -30,6 +30,7 @@
 #include "commands.h"
 #include "file_system.h"
 #include <esp_bt_device.h>
+#include <esp_gap_ble_api.h>
 
 
 // 全局变量定义
@@ -135,6 +136,14 @@ void setupBLE() {
   // 设置最大传输单元 - 协议要求设置为512字节以提高传输效率
   BLEDevice::setMTU(517);  // 设置最大传输单元
   
+  // 允许LE 2M PHY，APP在批量传输时发起切换
+  // 未启用BLE 5.0特性时，控制器仍会按默认偏好响应APP的PHY切换请求
+#if CONFIG_BT_BLE_50_FEATURES_SUPPORTED
+  esp_ble_gap_set_preferred_default_phy(
+    ESP_BLE_GAP_PHY_1M_PREF_MASK | ESP_BLE_GAP_PHY_2M_PREF_MASK,
+    ESP_BLE_GAP_PHY_1M_PREF_MASK | ESP_BLE_GAP_PHY_2M_PREF_MASK);
+#endif
+  
   // 设置发送功率
   esp_ble_tx_power_set(ESP_BLE_PWR_TYPE_DEFAULT, ESP_PWR_LVL_P9);
   esp_ble_tx_power_set(ESP_BLE_PWR_TYPE_ADV, ESP_PWR_LVL_P9);
@@ -153,7 +162,7 @@ void setupBLE() {
   
   pDataCharacteristic = pService->createCharacteristic(
     CHAR_DATA_UUID,
-    BLECharacteristic::PROPERTY_WRITE);
+    BLECharacteristic::PROPERTY_WRITE | BLECharacteristic::PROPERTY_WRITE_NR);
 
   // 设置回调
   pCommandCharacteristic->setCallbacks(new CommandCallbacks());
@@ -203,13 +212,29 @@ void processCommandTask(void* param) {
 
 // 发送BLE响应
 void sendBleResponse(uint8_t* data, size_t length) {
+  if (pCommandCharacteristic && isConnected) {
+    sendBleNotification(data, length);
+    delay(20); // 短暂延迟确保通知发送
+  }
+}
+
+// 发送BLE通知（无延迟，用于数据回调中的信用确认）
+void sendBleNotification(uint8_t* data, size_t length) {
   if (pCommandCharacteristic && isConnected) {
     pCommandCharacteristic->setValue(data, length);
     pCommandCharacteristic->notify();
-    delay(20); // 短暂延迟确保通知发送
   }
 }
 
+// 单个通知可携带的字节数（协商的MTU减去ATT头）
+uint16_t getNotifyPayloadSize() {
+  uint16_t mtu = 23;
+  if (pServer != nullptr && isConnected) {
+    mtu = pServer->getPeerMTU(pServer->getConnId());
+  }
+  return (mtu > 23 ? mtu : 23) - 3;
+}
+
 // 处理BLE状态
 void handleBleStatus() {
   static unsigned long lastBleCheck = 0;
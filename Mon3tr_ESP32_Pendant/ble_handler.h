@@ -61,6 +61,8 @@ extern bool enableLogging;
 void setupBLE();
 void handleBleStatus();
 void sendBleResponse(uint8_t* data, size_t length);
+void sendBleNotification(uint8_t* data, size_t length);
+uint16_t getNotifyPayloadSize();
 void processCommandTask(void* param);
 void processImageData(uint8_t* data, size_t length);
 
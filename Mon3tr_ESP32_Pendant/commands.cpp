@@ -43,6 +43,8 @@ const char* getCommandName(uint8_t cmdId) {
     case CMD_GET_IMAGE_LIST: return "获取列表";
     case CMD_SET_DISPLAY: return "设置显示";
     case CMD_GET_STATUS: return "获取状态";
+    case CMD_RESUME_TRANSFER: return "续传";
+    case CMD_BATCH: return "批量命令";
     default: return "未知命令";
   }
 }
@@ -55,6 +57,8 @@ const char* getStatusName(uint8_t statusCode) {
     case RESP_FS_ERROR: return "文件系统错误";
     case RESP_TRANSFER_ERROR: return "传输错误";
     case RESP_PARAM_ERROR: return "参数错误";
+    case RESP_INCOMPLETE: return "数据不完整";
+    case RESP_CRC_ERROR: return "校验失败";
     default: return "未知状态";
   }
 }
@@ -70,36 +74,101 @@ const char* getFormatName(uint8_t format) {
   }
 }
 
+// 当前命令的序号，-1表示旧格式命令（命令在同一个任务中串行处理）
+static int responseSeq = -1;
+
+// 批量命令执行期间，子命令的响应追加到这里而不是直接发送；-1表示不在批量命令中
+static uint8_t batchBuffer[MAX_RESPONSE_PAYLOAD];
+static int batchLength = -1;
+
+static void executeCommand(uint8_t cmdId, uint8_t* payload, uint8_t payloadLength);
+static void processBatch(uint8_t* payload, uint8_t payloadLength);
+
 // 处理接收到的命令
 void processCommand(uint8_t* data, size_t length) {
   if (length < 2) return; // 命令至少需要2字节(命令ID+长度)
   
-  uint8_t cmdId = data[0];
-  uint8_t payloadLength = data[1];
-  uint8_t* payload = (payloadLength > 0) ? &data[2] : nullptr;
+  // 带序号的命令帧多一个序号字节
+  size_t header = 2;
+  responseSeq = -1;
+  if (data[0] & CMD_SEQ_FLAG) {
+    if (length < 3) return;
+    responseSeq = data[1];
+    header = 3;
+  }
+  
+  uint8_t cmdId = data[0] & ~CMD_SEQ_FLAG;
+  uint8_t payloadLength = data[header - 1];
+  if (header + payloadLength > length) {
+    payloadLength = length - header; // 负载长度超出实际数据时截断
+  }
+  uint8_t* payload = (payloadLength > 0) ? &data[header] : nullptr;
   
   // 记录命令接收
   commandsReceived++;
   lastDataTime = millis();
   
   if (enableLogging) {
-    Serial.printf("处理命令: 0x%02X (%s), 数据长度: %d\n", 
-                cmdId, getCommandName(cmdId), payloadLength);
+    Serial.printf("处理命令: 0x%02X (%s), 序号: %d, 数据长度: %d\n", 
+                cmdId, getCommandName(cmdId), responseSeq, payloadLength);
   }
 
+  if (cmdId == CMD_BATCH) {
+    processBatch(payload, payloadLength);
+  } else {
+    executeCommand(cmdId, payload, payloadLength);
+  }
+  
+  responseSeq = -1;
+}
+
+// 执行单条命令，响应由各处理函数通过sendResponse发送
+static void executeCommand(uint8_t cmdId, uint8_t* payload, uint8_t payloadLength) {
   switch (cmdId) {
     case CMD_START_TRANSFER:
       if (payloadLength >= 1) {
         uint8_t fileIndex = payload[0];
+        uint8_t flags = (payloadLength >= 2) ? payload[1] : 0; // 旧版APP不带标志位
+        uint32_t totalSize = 0;                                // 旧版APP不带大小和CRC，不可续传
+        uint32_t crc32 = 0;
+        uint32_t rawSize = 0;                                  // 不为0时数据经过压缩
+        if (payloadLength >= 10) {
+          memcpy(&totalSize, &payload[2], 4);
+          memcpy(&crc32, &payload[6], 4);
+        }
+        if (payloadLength >= 14) {
+          memcpy(&rawSize, &payload[10], 4);
+        }
         uint8_t format = getFormatFromIndex(fileIndex);
         uint8_t index = getFileIndexFromIndex(fileIndex);
         
         if (enableLogging) {
-          Serial.printf("开始传输: 索引=%d, 格式=%s(0x%02X)\n", 
-                      index, getFormatName(format), format);
+          Serial.printf("开始传输: 索引=%d, 格式=%s(0x%02X), 标志=0x%02X, 大小=%u, 解压后=%u\n", 
+                      index, getFormatName(format), format, flags, totalSize, rawSize);
+        }
+        
+        startImageTransfer(fileIndex, flags, totalSize, crc32, rawSize);
+      } else {
+        sendResponse(cmdId, RESP_PARAM_ERROR);
+      }
+      break;
+      
+    case CMD_RESUME_TRANSFER:
+      if (payloadLength >= 10) {
+        uint32_t totalSize;
+        uint32_t crc32;
+        uint32_t rawSize = 0;
+        memcpy(&totalSize, &payload[2], 4);
+        memcpy(&crc32, &payload[6], 4);
+        if (payloadLength >= 14) {
+          memcpy(&rawSize, &payload[10], 4);
+        }
+        
+        if (enableLogging) {
+          Serial.printf("续传: 组合索引=0x%02X, 大小=%u, CRC32=%08X\n", payload[0], totalSize, crc32);
         }
         
-        startImageTransfer(fileIndex);
+        resumeImageTransfer(payload[0], payload[1], totalSize, crc32, rawSize);
       } else {
         sendResponse(cmdId, RESP_PARAM_ERROR);
       }
@@ -165,28 +234,112 @@ void processCommand(uint8_t* data, size_t length) {
   }
 }
 
+// 可以放进批量命令的命令：开始/续传会改变传输状态，图片数据走数据特征，不允许批量
+static bool isBatchable(uint8_t cmdId) {
+  switch (cmdId) {
+    case CMD_END_TRANSFER:
+    case CMD_DELETE_IMAGE:
+    case CMD_REORDER_IMAGES:
+    case CMD_GET_IMAGE_LIST:
+    case CMD_SET_DISPLAY:
+    case CMD_GET_STATUS:
+      return true;
+    default:
+      return false;
+  }
+}
+
+// 处理批量命令：先检查全部子命令格式，再依次执行，所有子命令的响应合并后一次发送
+static void processBatch(uint8_t* payload, uint8_t payloadLength) {
+  size_t pos = 0;
+  int count = 0;
+  while (pos < payloadLength) {
+    if (pos + 2 > payloadLength ||
+        pos + 2 + payload[pos + 1] > payloadLength ||
+        !isBatchable(payload[pos])) {
+      sendResponse(CMD_BATCH, RESP_PARAM_ERROR);
+      return;
+    }
+    pos += 2 + payload[pos + 1];
+    count++;
+  }
+  if (count == 0 || count > MAX_BATCH_COMMANDS) {
+    sendResponse(CMD_BATCH, RESP_PARAM_ERROR);
+    return;
+  }
+  
+  batchLength = 0;
+  for (pos = 0; pos < payloadLength; pos += 2 + payload[pos + 1]) {
+    uint8_t subLength = payload[pos + 1];
+    executeCommand(payload[pos], subLength > 0 ? &payload[pos + 2] : nullptr, subLength);
+  }
+  uint16_t length = batchLength;
+  batchLength = -1;
+  
+  sendResponse(CMD_BATCH, RESP_SUCCESS, batchBuffer, length);
+}
+
 // 发送命令响应
-void sendResponse(uint8_t cmdId, uint8_t statusCode, uint8_t* payload, uint8_t payloadLength) {
-  // 准备响应数据包
-  // 最大负载是从 sendImageList 函数传入: 1 + MAX_IMAGES * 6 = 61 字节
-  // 因此需要至少 3 + 61 = 64 字节的缓冲区
-  uint8_t responseBuffer[64]; 
-  uint8_t responseLength = 3 + payloadLength; // 命令ID + 状态码 + 负载长度 + 负载
+static void sendFragmentedResponse(uint8_t cmdId, uint8_t statusCode, uint8_t* payload, uint16_t payloadLength,
+                                   uint16_t notifySize);
+
+void sendResponse(uint8_t cmdId, uint8_t statusCode, uint8_t* payload, uint16_t payloadLength) {
+  if (payload == nullptr) {
+    payloadLength = 0;
+  }
+  
+  // 批量命令中的子命令：追加到合并响应中
+  if (batchLength >= 0) {
+    if (batchLength + 4 + payloadLength > MAX_RESPONSE_PAYLOAD) {
+      Serial.println("警告：批量响应已满，子命令负载被丢弃");
+      statusCode = RESP_GENERAL_ERROR;
+      payloadLength = 0;
+      if (batchLength + 4 > MAX_RESPONSE_PAYLOAD) return;
+    }
+    batchBuffer[batchLength++] = cmdId;
+    batchBuffer[batchLength++] = statusCode;
+    batchBuffer[batchLength++] = payloadLength & 0xFF;
+    batchBuffer[batchLength++] = payloadLength >> 8;
+    if (payloadLength > 0) {
+      memcpy(&batchBuffer[batchLength], payload, payloadLength);
+      batchLength += payloadLength;
+    }
+    return;
+  }
+  
+  // 带序号的响应超过255字节或一个通知时分片发送
+  uint16_t notifySize = getNotifyPayloadSize();
+  if (responseSeq >= 0 && (payloadLength > 255 || 4 + payloadLength > notifySize)) {
+    sendFragmentedResponse(cmdId, statusCode, payload, payloadLength, notifySize);
+    return;
+  }
   
-  // 安全检查以防止缓冲区溢出
-  if (payloadLength > 61) {
+  // 旧格式响应只有1字节长度，也无法分片
+  if (payloadLength > 255) {
     Serial.println("警告：负载太大，已截断");
-    payloadLength = 61;
-    responseLength = 3 + payloadLength;
+    payloadLength = 255;
   }
   
-  responseBuffer[0] = cmdId;        // 命令ID
-  responseBuffer[1] = statusCode;   // 状态码
-  responseBuffer[2] = payloadLength; // 负载长度
+  // 准备响应数据包
+  // 单帧响应的负载不超过255字节，带序号的响应头为4字节
+  // 只在命令处理任务中调用，使用静态缓冲区避免占用任务栈
+  static uint8_t responseBuffer[4 + 255]; 
+  uint8_t header = (responseSeq >= 0) ? 4 : 3;
+  
+  uint16_t responseLength = header + payloadLength; // 命令ID + [序号] + 状态码 + 负载长度 + 负载
+  
+  if (responseSeq >= 0) {
+    responseBuffer[0] = cmdId | CMD_SEQ_FLAG; // 命令ID
+    responseBuffer[1] = responseSeq;          // 序号
+  } else {
+    responseBuffer[0] = cmdId;                // 命令ID
+  }
+  responseBuffer[header - 2] = statusCode;    // 状态码
+  responseBuffer[header - 1] = payloadLength; // 负载长度
   
   // 复制负载数据(如果有)
   if (payloadLength > 0 && payload != nullptr) {
-    memcpy(&responseBuffer[3], payload, payloadLength);
+    memcpy(&responseBuffer[header], payload, payloadLength);
   }
   
   // 通过BLE发送响应
@@ -196,4 +349,29 @@ void sendResponse(uint8_t cmdId, uint8_t statusCode, uint8_t* payload, uint8_t p
     Serial.printf("发送响应: 命令=0x%02X, 状态=%s(0x%02X), 长度=%d\n", 
                 cmdId, getStatusName(statusCode), statusCode, payloadLength);
   }
-}
\ No newline at end of file
+}
+
+// 分片发送响应: [命令ID|0xC0, 序号, 状态码, 总长度(2字节), 偏移量(2字节), 数据]
+static void sendFragmentedResponse(uint8_t cmdId, uint8_t statusCode, uint8_t* payload, uint16_t payloadLength,
+                                   uint16_t notifySize) {
+  static uint8_t fragment[512];
+  uint16_t fragmentSize = min((int)notifySize, (int)sizeof(fragment)) - FRAGMENT_HEADER_SIZE;
+  
+  for (uint16_t offset = 0; offset < payloadLength; offset += fragmentSize) {
+    uint16_t size = min((int)fragmentSize, payloadLength - offset);
+    fragment[0] = cmdId | CMD_SEQ_FLAG | CMD_FRAGMENT_FLAG;
+    fragment[1] = responseSeq;
+    fragment[2] = statusCode;
+    fragment[3] = payloadLength & 0xFF;
+    fragment[4] = payloadLength >> 8;
+    fragment[5] = offset & 0xFF;
+    fragment[6] = offset >> 8;
+    memcpy(&fragment[FRAGMENT_HEADER_SIZE], &payload[offset], size);
+    sendBleResponse(fragment, FRAGMENT_HEADER_SIZE + size);
+  }
+  
+  if (enableLogging) {
+    Serial.printf("分片发送响应: 命令=0x%02X, 状态=%s(0x%02X), 长度=%d, 分片大小=%d\n",
+                cmdId, getStatusName(statusCode), statusCode, payloadLength, fragmentSize);
+  }
+}
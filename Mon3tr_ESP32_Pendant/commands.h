@@ -41,7 +41,9 @@ enum CommandID {
   CMD_REORDER_IMAGES = 0x05,  // 重排图片
   CMD_GET_IMAGE_LIST = 0x06,  // 获取列表
   CMD_SET_DISPLAY    = 0x07,  // 设置显示
-  CMD_GET_STATUS     = 0x08   // 获取状态
+  CMD_GET_STATUS     = 0x08,  // 获取状态
+  CMD_RESUME_TRANSFER = 0x09, // 续传
+  CMD_BATCH          = 0x0A   // 批量命令
 };
 
 // 响应状态码定义
@@ -50,9 +52,47 @@ enum ResponseCode {
   RESP_GENERAL_ERROR = 0x01,  // 一般错误
   RESP_FS_ERROR = 0x02,       // 文件系统错误
   RESP_TRANSFER_ERROR = 0x03, // 传输错误
-  RESP_PARAM_ERROR = 0x04     // 参数错误
+  RESP_PARAM_ERROR = 0x04,    // 参数错误
+  RESP_INCOMPLETE = 0x05,     // 数据不完整，负载为缺失区间列表
+  RESP_CRC_ERROR = 0x06       // 整个文件CRC32校验失败
 };
 
+// 命令ID最高位表示带序号的命令帧: [命令ID|0x80, 序号, 负载长度, 负载]
+// 响应带回同样的序号: [命令ID|0x80, 序号, 状态码, 负载长度, 负载]，APP据此匹配请求，可以同时发出多条命令
+#define CMD_SEQ_FLAG 0x80
+
+// 带序号命令的响应超过255字节或放不下一个通知时分片发送，APP按序号重组:
+// [命令ID|0xC0, 序号, 状态码, 总长度(2字节), 偏移量(2字节), 数据]
+#define CMD_FRAGMENT_FLAG 0x40
+#define FRAGMENT_HEADER_SIZE 7
+#define MAX_RESPONSE_PAYLOAD 1024 // 响应缓冲区大小
+
+// 批量命令负载: [{命令ID, 负载长度, 负载}*n]，按顺序执行后合并为一个响应
+// 响应负载: [{命令ID, 状态码, 负载长度(2字节), 负载}*n]
+#define MAX_BATCH_COMMANDS 8
+
+// 传输标志位（开始传输命令的第二个负载字节）
+enum TransferFlag {
+  TRANSFER_FLAG_STREAM = 0x01, // 无响应写入 + 信用流控
+  TRANSFER_FLAG_SEQ    = 0x02, // 数据帧带偏移量和CRC32，结束时返回缺失区间
+  TRANSFER_FLAG_DEFLATE = 0x04 // 数据为raw DEFLATE压缩，结束传输时解压到目标文件
+};
+
+// 设备功能标志位（设备状态负载的第14字节），旧固件没有这个字节，APP按全部不支持处理
+enum DeviceFeature {
+  DEVICE_FEATURE_GIFPACK_V2 = 0x01, // 播放v2 GifPack：增量帧和帧时长表
+  DEVICE_FEATURE_IBIN       = 0x02  // 显示原始RGB565图片（.bin）
+};
+
+// 流式传输参数
+#define STREAM_WINDOW_BYTES 4096  // 授予APP的信用窗口(字节)
+#define STREAM_ACK_INTERVAL 1024  // 每写入多少字节发送一次信用确认
+
+// 序号数据帧: [偏移量(4字节), 数据CRC32(4字节), 数据]
+#define DATA_FRAME_HEADER_SIZE 8
+#define MAX_TRANSFER_GAPS 32      // 记录的缺失区间上限，超出时合并到最后一个区间
+#define MAX_NACK_RANGES 7         // 单个响应最多携带的缺失区间: 1 + 7 * 8 = 57字节
+
 // 触摸手势类型
 enum GestureType {
   GESTURE_NONE      = 0x00,
@@ -71,10 +111,11 @@ extern int commandsReceived;
 
 // 命令处理函数声明
 void processCommand(uint8_t* data, size_t length);
-void sendResponse(uint8_t cmdId, uint8_t statusCode, uint8_t* payload = nullptr, uint8_t payloadLength = 0);
+void sendResponse(uint8_t cmdId, uint8_t statusCode, uint8_t* payload = nullptr, uint16_t payloadLength = 0);
 
 // 文件系统操作函数声明
-void startImageTransfer(uint8_t fileIndex);
+void startImageTransfer(uint8_t fileIndex, uint8_t flags, uint32_t totalSize, uint32_t crc32, uint32_t rawSize);
+void resumeImageTransfer(uint8_t fileIndex, uint8_t flags, uint32_t totalSize, uint32_t crc32, uint32_t rawSize);
 void finishImageTransfer();
 void deleteImage(uint8_t fileIndex);
 void reorderImages(uint8_t* order, size_t length);
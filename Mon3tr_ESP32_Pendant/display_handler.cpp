@@ -47,6 +47,9 @@ unsigned long lastFrameTime = 0;
 // GFP专用帧缓冲
 uint16_t* gfpFrameBuffer = nullptr;
 bool gfpBufferReady = false;
+static uint32_t gfpDecodedOffset = UINT32_MAX; // 帧缓冲中已解码的帧数据偏移量，重复帧不再解码
+static uint16_t* frameDurations = nullptr;     // 每帧显示时长（毫秒），nullptr表示按fps播放
+static int gfpShownFrame = 0;                  // 屏幕上正在显示的帧
 
 /*
 // PNGLE 解码相关变量
@@ -244,6 +247,37 @@ bool gfpJpegOutput(int16_t x, int16_t y, uint16_t w, uint16_t h, uint16_t* bitma
   return true;
 }
 
+// 增量帧中变化的图块，按条带中的顺序记录它们在画面中的图块编号
+static uint8_t gfpChangedTiles[GIFPACK_TILE_COUNT];
+static int gfpChangedTileCount = 0;
+
+// GFP增量帧解码回调：条带中第k个图块写回它在画面中的位置，其余部分保留上一帧的内容
+bool gfpTileOutput(int16_t x, int16_t y, uint16_t w, uint16_t h, uint16_t* bitmap) {
+  if (!gfpFrameBuffer) return false;
+
+  for (int dy = 0; dy < h; dy++) {
+    int sy = y + dy;
+    int dx = 0;
+    while (dx < w) {
+      int sx = x + dx;
+      // 解码块可能跨越多个图块，按图块边界拆开复制
+      int run = GIFPACK_TILE_SIZE - sx % GIFPACK_TILE_SIZE;
+      if (run > w - dx) {
+        run = w - dx;
+      }
+      int k = (sy / GIFPACK_TILE_SIZE) * GIFPACK_TILES_PER_ROW + sx / GIFPACK_TILE_SIZE;
+      if (k < gfpChangedTileCount) {
+        int tile = gfpChangedTiles[k];
+        int tx = (tile % GIFPACK_TILES_PER_ROW) * GIFPACK_TILE_SIZE + sx % GIFPACK_TILE_SIZE;
+        int ty = (tile / GIFPACK_TILES_PER_ROW) * GIFPACK_TILE_SIZE + sy % GIFPACK_TILE_SIZE;
+        memcpy(&gfpFrameBuffer[ty * SCREEN_WIDTH + tx], &bitmap[dy * w + dx], run * sizeof(uint16_t));
+      }
+      dx += run;
+    }
+  }
+  return true;
+}
+
 /*
 // PNG 像素绘制回调
 void on_png_draw(pngle_t* pngle, uint32_t x, uint32_t y, uint32_t w, uint32_t h, uint8_t rgba[4]) {
@@ -275,6 +309,100 @@ void on_png_draw(pngle_t* pngle, uint32_t x, uint32_t y, uint32_t w, uint32_t h,
 }
 */
 
+// 原始RGB565图片的游程解码，按块读取文件
+struct IbinReader {
+  File& file;
+  uint8_t buffer[512];
+  size_t length = 0;
+  size_t position = 0;
+
+  IbinReader(File& f) : file(f) {}
+
+  int read() {
+    if (position >= length) {
+      length = file.read(buffer, sizeof(buffer));
+      position = 0;
+      if (length == 0) return -1;
+    }
+    return buffer[position++];
+  }
+};
+
+static bool decodeIbinRle(File& file, uint8_t* output, size_t outputSize) {
+  IbinReader reader(file);
+  size_t written = 0;
+  while (written < outputSize) {
+    int control = reader.read();
+    if (control < 0) return false;
+    if (control < 0x80) {
+      // 原样保存的像素
+      size_t bytes = (control + 1) * 2;
+      if (written + bytes > outputSize) return false;
+      for (size_t i = 0; i < bytes; i++) {
+        int value = reader.read();
+        if (value < 0) return false;
+        output[written++] = value;
+      }
+    } else {
+      // 重复的像素
+      int high = reader.read();
+      int low = reader.read();
+      if (low < 0) return false;
+      int run = control - 0x7E;
+      if (written + run * 2 > outputSize) return false;
+      for (int i = 0; i < run; i++) {
+        output[written++] = high;
+        output[written++] = low;
+      }
+    }
+  }
+  return true;
+}
+
+// 显示原始RGB565图片：读入帧缓冲后整屏推送，不需要解码
+bool showIbinImage(const char* filename) {
+  if (!ensureGfpBuffer()) {
+    Serial.println("帧缓冲不可用，无法显示原始图片");
+    return false;
+  }
+
+  File f = LittleFS.open(filename, "r");
+  if (!f) {
+    Serial.println("原始图片打开失败");
+    return false;
+  }
+
+  IBinHeader header;
+  const size_t frameSize = SCREEN_WIDTH * SCREEN_HEIGHT * 2;
+  if (f.read((uint8_t*)&header, sizeof(header)) != sizeof(header) ||
+      memcmp(header.magic, IBIN_MAGIC, 4) != 0 ||
+      header.width != SCREEN_WIDTH || header.height != SCREEN_HEIGHT) {
+    Serial.println("无效的原始图片格式");
+    f.close();
+    return false;
+  }
+
+  bool success;
+  uint8_t* output = (uint8_t*)gfpFrameBuffer;
+  if (header.flags & IBIN_FLAG_RLE) {
+    success = decodeIbinRle(f, output, frameSize);
+  } else {
+    success = f.read(output, frameSize) == frameSize;
+  }
+  f.close();
+
+  if (!success) {
+    Serial.println("原始图片数据不完整");
+    return false;
+  }
+
+  // 数据已经是屏幕的字节顺序，推送时不再交换
+  tft.setSwapBytes(false);
+  tft.pushImage(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT, gfpFrameBuffer);
+  tft.setSwapBytes(true);
+  return true;
+}
+
 // 检查是否有GIFPack在播放
 bool isGifpackPlaying() {
   return gifpackActive;
@@ -312,7 +440,8 @@ bool openGifpack(const char* filename) {
   }
 
   // 检查魔术字节
-  if (memcmp(gifpackHeader.magic, GIFPACK_MAGIC, 4) != 0 || gifpackHeader.version != GIFPACK_VERSION) {
+  if (memcmp(gifpackHeader.magic, GIFPACK_MAGIC, 4) != 0 ||
+      (gifpackHeader.version != GIFPACK_VERSION && gifpackHeader.version != GIFPACK_VERSION_DELTA)) {
     Serial.println("无效的GIFPack格式");
     Serial.printf("魔术字节: %c%c%c%c, 版本: %d\n",
                   gifpackHeader.magic[0], gifpackHeader.magic[1],
@@ -372,7 +501,20 @@ bool openGifpack(const char* filename) {
     }
   }
 
+  // 读取帧时长表，读取失败时退回按fps播放
+  if (gifpackHeader.flags & GIFPACK_FLAG_DURATIONS) {
+    size_t durationArraySize = sizeof(uint16_t) * gifpackHeader.frames;
+    frameDurations = (uint16_t*)malloc(durationArraySize);
+    if (!frameDurations || gifpackFile.read((uint8_t*)frameDurations, durationArraySize) != durationArraySize) {
+      Serial.println("读取帧时长表失败，按fps播放");
+      free(frameDurations);
+      frameDurations = nullptr;
+    }
+  }
+
   currentFrame = 0;
+  gfpShownFrame = 0;
+  gfpDecodedOffset = UINT32_MAX;
   gifpackActive = true;
   lastFrameTime = millis();
   Serial.println("GIFPack初始化成功");
@@ -384,6 +526,7 @@ void closeGifpack() {
   // 先设置标志，防止其他线程访问
   gifpackActive = false;
   gfpBufferReady = false;
+  gfpDecodedOffset = UINT32_MAX;
 
   // 等待当前帧处理完成
   delay(20);
@@ -393,6 +536,11 @@ void closeGifpack() {
     frameOffsets = nullptr;
   }
 
+  if (frameDurations) {
+    free(frameDurations);
+    frameDurations = nullptr;
+  }
+
   if (gifpackFile) {
     gifpackFile.close();
     delay(10);
@@ -406,6 +554,18 @@ void closeGifpack() {
 
 
 
+// 计算帧数据大小：重复帧共用同一份JPEG，偏移量表不一定递增，
+// 帧数据的结尾是所有偏移量中比它大的最小值，没有则是文件末尾
+static uint32_t getGifpackFrameSize(uint32_t frameOffset) {
+  uint32_t frameEnd = gifpackFile.size();
+  for (int i = 0; i < gifpackHeader.frames; i++) {
+    if (frameOffsets[i] > frameOffset && frameOffsets[i] < frameEnd) {
+      frameEnd = frameOffsets[i];
+    }
+  }
+  return frameEnd - frameOffset;
+}
+
 // 显示当前帧
 bool showGifpackFrame() {
   if (!gifpackActive || !gifpackFile || currentFrame >= gifpackHeader.frames || !gfpFrameBuffer) {
@@ -415,15 +575,14 @@ bool showGifpackFrame() {
 
   // 获取当前帧的偏移量
   uint32_t frameOffset = frameOffsets[currentFrame];
-  // 计算下一帧偏移量（用于确定当前帧大小）
-  uint32_t nextFrameOffset;
-  if (currentFrame + 1 < gifpackHeader.frames) {
-    nextFrameOffset = frameOffsets[currentFrame + 1];
-  } else {
-    nextFrameOffset = gifpackFile.size();
+
+  // 与帧缓冲中的帧共用同一份数据（APP去重后的重复帧），直接复用解码结果
+  if (frameOffset == gfpDecodedOffset) {
+    gfpBufferReady = true;
+    return true;
   }
 
-  uint32_t frameSize = nextFrameOffset - frameOffset;
+  uint32_t frameSize = getGifpackFrameSize(frameOffset);
 
   // 检查帧大小合理性
   if (frameSize == 0 || frameSize > 50000) {  // JPEG帧不应该超过50KB
@@ -452,15 +611,51 @@ bool showGifpackFrame() {
     return false;
   }
 
-  // 清空帧缓冲区
-  memset(gfpFrameBuffer, 0, SCREEN_WIDTH * SCREEN_HEIGHT * 2);
+  // v2帧记录以类型字节开头，增量帧之后是图块位图
+  uint8_t* jpegData = frameBuffer;
+  uint32_t jpegSize = frameSize;
+  bool deltaFrame = false;
+  if (gifpackHeader.version == GIFPACK_VERSION_DELTA) {
+    uint8_t frameType = frameBuffer[0];
+    if (frameType == GIFPACK_FRAME_DELTA && frameSize >= 1 + GIFPACK_TILE_MAP_SIZE) {
+      // 增量帧只更新变化的图块，帧缓冲中必须是上一帧的完整画面
+      if (gfpDecodedOffset == UINT32_MAX) {
+        Serial.printf("帧%d是增量帧，但帧缓冲中没有上一帧\n", currentFrame);
+        free(frameBuffer);
+        return false;
+      }
+      gfpChangedTileCount = 0;
+      for (int i = 0; i < GIFPACK_TILE_COUNT; i++) {
+        if (frameBuffer[1 + i / 8] & (1 << (i % 8))) {
+          gfpChangedTiles[gfpChangedTileCount++] = i;
+        }
+      }
+      jpegData += 1 + GIFPACK_TILE_MAP_SIZE;
+      jpegSize -= 1 + GIFPACK_TILE_MAP_SIZE;
+      deltaFrame = true;
+    } else if (frameType == GIFPACK_FRAME_KEY) {
+      jpegData += 1;
+      jpegSize -= 1;
+    } else {
+      Serial.printf("帧%d类型无效: 0x%02X\n", currentFrame, frameType);
+      free(frameBuffer);
+      return false;
+    }
+  }
+
+  // 关键帧先清空帧缓冲区，增量帧在上一帧的基础上更新
+  if (!deltaFrame) {
+    memset(gfpFrameBuffer, 0, SCREEN_WIDTH * SCREEN_HEIGHT * 2);
+  }
+  gfpDecodedOffset = UINT32_MAX;
 
   // 使用GFP专用解码器解码JPEG帧到帧缓冲
   TJpgDec.setJpgScale(1);
-  TJpgDec.setCallback(gfpJpegOutput);  // 使用GFP专用回调
+  TJpgDec.setCallback(deltaFrame ? gfpTileOutput : gfpJpegOutput);  // 使用GFP专用回调
 
-  // 从内存解码JPEG
-  bool decodeSuccess = (TJpgDec.drawJpg(0, 0, frameBuffer, frameSize) == 0);
+  // 从内存解码JPEG，没有变化图块的增量帧不需要解码
+  bool decodeSuccess = (deltaFrame && gfpChangedTileCount == 0) ||
+                       (TJpgDec.drawJpg(0, 0, jpegData, jpegSize) == 0);
 
   // 释放缓冲区
   free(frameBuffer);
@@ -474,6 +669,7 @@ bool showGifpackFrame() {
 
   // 标记帧缓冲准备就绪
   gfpBufferReady = true;
+  gfpDecodedOffset = frameOffset;
 
   // 恢复为普通JPEG回调
   TJpgDec.setCallback(jpegOutput);
@@ -489,16 +685,24 @@ void processGifpackAnimation() {
     return;
   }
 
-  // 计算帧间隔时间
-  unsigned long frameInterval = 1000 / gifpackHeader.fps;
+  // 计算帧间隔时间：屏幕上这一帧应该停留的时长
+  unsigned long frameInterval;
+  if (frameDurations && frameDurations[gfpShownFrame] > 0) {
+    frameInterval = frameDurations[gfpShownFrame];
+  } else {
+    frameInterval = 1000 / max((uint8_t)1, gifpackHeader.fps);
+  }
   unsigned long currentTime = millis();
 
   // 检查是否到了播放下一帧的时间
   if (currentTime - lastFrameTime >= frameInterval) {
     // 如果当前帧缓冲准备就绪，显示它
+    bool shown = false;
     if (gfpBufferReady && gifpackActive) {  // 双重检查
       tft.pushImage(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT, gfpFrameBuffer);
       gfpBufferReady = false;
+      gfpShownFrame = currentFrame;
+      shown = true;
     }
 
     // 移动到下一帧
@@ -520,7 +724,11 @@ void processGifpackAnimation() {
       }
     }
 
-    lastFrameTime = currentTime;
+    // 刚开始播放时第一帧已经直接显示，缓冲区是空的：这次只解码下一帧，不重新计时，
+    // 下次调用立即显示，第一帧不会多停留一个间隔
+    if (shown) {
+      lastFrameTime = currentTime;
+    }
   }
 }
 
@@ -576,6 +784,12 @@ void displayImage(int index) {
       showErrorScreen("JPEG OPEN FAIL");
     }
 
+  } else if (filename.endsWith(".bin")) {
+    // 原始RGB565格式 - 读取后直接推送
+    if (!showIbinImage(filename.c_str())) {
+      showErrorScreen("BIN LOAD FAIL");
+    }
+
   } /*else if (filename.endsWith(".png")) {
     Serial.println("开始PNG解码...");
 
@@ -49,7 +49,7 @@
 #define IMG_INDEX_MASK 0x0F   // 索引掩码（低4位）
 
 // 图像格式定义
-#define IMG_FORMAT_BIN 0x00      // 原始二进制格式（不再使用）
+#define IMG_FORMAT_BIN 0x00      // 原始RGB565格式（.bin，APP中为.ibin）
 #define IMG_FORMAT_JPEG 0x10     // JPEG格式
 #define IMG_FORMAT_PNG 0x20      // PNG格式（不再使用）
 #define IMG_FORMAT_GIFPACK 0x30  // GIFPack格式
@@ -74,6 +74,17 @@
 // GIFPack结构定义
 #define GIFPACK_MAGIC "GFPK"
 #define GIFPACK_VERSION 0x01
+// v2: 每帧记录以类型字节开头，关键帧为完整JPEG，增量帧只包含变化的16x16图块
+// 增量帧: [0x01, 图块位图(29字节，第i位对应按行排列的第i个图块), 变化图块按序排成宽240的条带JPEG]
+#define GIFPACK_VERSION_DELTA 0x02
+#define GIFPACK_FRAME_KEY 0x00
+#define GIFPACK_FRAME_DELTA 0x01
+#define GIFPACK_TILE_SIZE 16
+#define GIFPACK_TILES_PER_ROW 15  // 240 / 16
+#define GIFPACK_TILE_COUNT 225
+#define GIFPACK_TILE_MAP_SIZE 29  // (225 + 7) / 8
+// 标志位: 偏移量表之后有帧时长表 [uint16_t 毫秒 * 帧数]，按每帧时长播放，否则按fps匀速播放
+#define GIFPACK_FLAG_DURATIONS 0x01
 
 // 使用packed属性确保结构体内存布局
 struct __attribute__((packed)) GIFPackHeader {
@@ -83,7 +94,21 @@ struct __attribute__((packed)) GIFPackHeader {
   uint8_t fps;        // 每秒帧数
   uint16_t width;     // 宽度（小端序）
   uint16_t height;    // 高度（小端序）
-  uint32_t reserved;  // 预留字节uint32_t
+  uint8_t flags;      // 标志位
+  uint8_t reserved[3]; // 预留字节
+};
+
+// 原始RGB565图片: [头部12字节][像素数据]，像素按屏幕接收的字节顺序（高字节在前），可以直接推送
+// 带IBIN_FLAG_RLE时像素数据为游程编码: 控制字节c < 0x80时后面跟c+1个像素；c >= 0x80时后面跟1个像素，重复c-0x7E次
+#define IBIN_MAGIC "IBIN"
+#define IBIN_FLAG_RLE 0x01
+
+struct __attribute__((packed)) IBinHeader {
+  char magic[4];       // 魔术字节 "IBIN"
+  uint8_t flags;       // 标志位
+  uint8_t reserved[3]; // 预留字节
+  uint16_t width;      // 宽度（小端序）
+  uint16_t height;     // 高度（小端序）
 };
 
 // 全局变量声明
@@ -134,6 +159,7 @@ bool showGifpackFrame();
 void closeGifpack();
 // 内存管理函数
 bool ensureGfpBuffer();
+bool showIbinImage(const char* filename);  // 显示原始RGB565图片，借用GFP帧缓冲
 void releaseGfpBuffer();
 
 // 状态画面
@@ -30,6 +30,8 @@
 #include "commands.h"
 #include "display_handler.h"
 #include "ble_handler.h" // 引入sendResponse的声明
+#include <esp_rom_crc.h>
+#include <esp32c3/rom/miniz.h>
 
 // 全局变量定义
 ImageInfo imageList[MAX_IMAGES];
@@ -38,6 +40,21 @@ File currentImageFile;
 bool isTransferring = false;
 int totalBytesReceived = 0;
 uint8_t currentFileFormat = 0; // 当前传输的文件格式
+bool streamMode = false;       // 是否为流式传输（无响应写入 + 信用流控）
+int lastAckedBytes = 0;        // 最近一次信用确认的字节数
+uint32_t expectedSize = 0;     // APP声明的文件总大小，0表示未知（旧版APP）
+uint32_t expectedCrc = 0;      // APP声明的整个文件CRC32
+bool seqMode = false;          // 数据帧是否带偏移量和CRC32
+uint32_t expectedRawSize = 0;  // 压缩传输时解压后的大小，0表示未压缩
+
+// 序号模式下的接收进度：nextExpected之前除缺失区间外都已写入
+struct TransferGap {
+  uint32_t start;
+  uint32_t end;
+};
+TransferGap transferGaps[MAX_TRANSFER_GAPS];
+int transferGapCount = 0;
+uint32_t nextExpected = 0;
 
 // 初始化文件系统
 void setupFileSystem() {
@@ -245,53 +262,393 @@ void saveImageOrder() {
   file.close();
 }
 
-// 开始图片传输
-void startImageTransfer(uint8_t fileIndex) {
-  // 提取格式和索引
+// 保存续传会话信息
+static void saveUploadMeta(uint8_t fileIndex, uint32_t totalSize, uint32_t crc32, uint32_t rawSize) {
+  if (totalSize == 0) {
+    // 旧版APP不提供大小和CRC，无法校验续传
+    LittleFS.remove(UPLOAD_META_FILE);
+    return;
+  }
+  
+  File meta = LittleFS.open(UPLOAD_META_FILE, "w");
+  if (!meta) return;
+  meta.write(&fileIndex, 1);
+  meta.write((uint8_t*)&totalSize, 4);
+  meta.write((uint8_t*)&crc32, 4);
+  meta.write((uint8_t*)&rawSize, 4);
+  meta.close();
+}
+
+// 读取续传会话信息
+static bool loadUploadMeta(uint8_t* fileIndex, uint32_t* totalSize, uint32_t* crc32, uint32_t* rawSize) {
+  File meta = LittleFS.open(UPLOAD_META_FILE, "r");
+  if (!meta) return false;
+  bool ok = meta.read(fileIndex, 1) == 1 &&
+            meta.read((uint8_t*)totalSize, 4) == 4 &&
+            meta.read((uint8_t*)crc32, 4) == 4;
+  // 旧版会话信息没有解压后大小
+  if (meta.read((uint8_t*)rawSize, 4) != 4) {
+    *rawSize = 0;
+  }
+  meta.close();
+  return ok;
+}
+
+// 丢弃未完成的传输
+static void discardUpload() {
+  if (currentImageFile) {
+    currentImageFile.close();
+  }
+  LittleFS.remove(UPLOAD_PART_FILE);
+  LittleFS.remove(UPLOAD_INFLATE_FILE);
+  LittleFS.remove(UPLOAD_META_FILE);
+}
+
+// 设置当前传输目标
+static void setTransferTarget(uint8_t fileIndex, uint32_t totalSize) {
   uint8_t format = getFormatFromIndex(fileIndex);
   uint8_t index = getFileIndexFromIndex(fileIndex);
-  
-  String extension = getFileExtensionFromFormat(format);
-  currentImageName = "/img_" + String(index) + extension;
+  currentImageName = "/img_" + String(index) + getFileExtensionFromFormat(format);
   currentFileFormat = format;
+  expectedSize = totalSize;
+}
+
+// 重置序号模式的接收进度
+static void resetTransferGaps(uint32_t committed) {
+  transferGapCount = 0;
+  nextExpected = committed;
+}
+
+// 记录缺失区间，区间数已满时扩展最后一个区间（多重传一些数据）
+static void addTransferGap(uint32_t start, uint32_t end) {
+  if (transferGapCount < MAX_TRANSFER_GAPS) {
+    transferGaps[transferGapCount].start = start;
+    transferGaps[transferGapCount].end = end;
+    transferGapCount++;
+  } else {
+    transferGaps[MAX_TRANSFER_GAPS - 1].end = end;
+  }
+}
+
+// 从缺失区间中移除已收到的[start, end)
+static void fillTransferGap(uint32_t start, uint32_t end) {
+  for (int i = 0; i < transferGapCount; i++) {
+    TransferGap& gap = transferGaps[i];
+    if (end <= gap.start || start >= gap.end) continue;
+    
+    if (start <= gap.start && end >= gap.end) {
+      // 整个区间已补齐
+      for (int j = i; j < transferGapCount - 1; j++) {
+        transferGaps[j] = transferGaps[j + 1];
+      }
+      transferGapCount--;
+      i--;
+    } else if (start <= gap.start) {
+      gap.start = end;
+    } else if (end >= gap.end) {
+      gap.end = start;
+    } else if (transferGapCount < MAX_TRANSFER_GAPS) {
+      // 补齐中间一段，拆分为两个区间
+      for (int j = transferGapCount; j > i + 1; j--) {
+        transferGaps[j] = transferGaps[j - 1];
+      }
+      transferGaps[i + 1].start = end;
+      transferGaps[i + 1].end = gap.end;
+      gap.end = start;
+      transferGapCount++;
+      i++;
+    }
+    // 区间数已满时保留整个区间，稍后重传
+  }
+}
+
+// 处理序号数据帧，校验失败的帧直接丢弃，结束传输时作为缺失区间返回给APP
+static void processDataFrame(uint8_t* frame, size_t length) {
+  if (length <= DATA_FRAME_HEADER_SIZE) return;
+  
+  uint32_t offset;
+  uint32_t crc;
+  memcpy(&offset, &frame[0], 4);
+  memcpy(&crc, &frame[4], 4);
+  uint8_t* data = &frame[DATA_FRAME_HEADER_SIZE];
+  uint32_t dataLength = length - DATA_FRAME_HEADER_SIZE;
+  uint32_t end = offset + dataLength;
+  
+  if (esp_rom_crc32_le(0, data, dataLength) != crc) {
+    Serial.printf("数据帧校验失败: 偏移=%u, 长度=%u\n", offset, dataLength);
+    return;
+  }
+  if (expectedSize > 0 && end > expectedSize) {
+    Serial.printf("数据帧超出文件大小: 偏移=%u\n", offset);
+    return;
+  }
+  
+  if (currentImageFile.position() != offset && !currentImageFile.seek(offset)) {
+    Serial.println("文件定位失败");
+    return;
+  }
+  if (currentImageFile.write(data, dataLength) != dataLength) {
+    Serial.println("写入文件失败");
+    return;
+  }
+  
+  if (offset > nextExpected) {
+    // 中间有帧丢失
+    addTransferGap(nextExpected, offset);
+  } else if (offset < nextExpected) {
+    // 重传的数据
+    fillTransferGap(offset, end);
+  }
+  if (end > nextExpected) {
+    nextExpected = end;
+  }
+}
+
+// 计算文件的CRC32
+static uint32_t crc32OfFile(const char* path) {
+  File file = LittleFS.open(path, "r");
+  if (!file) return 0;
+  
+  uint8_t buffer[512];
+  uint32_t crc = 0;
+  size_t n;
+  while ((n = file.read(buffer, sizeof(buffer))) > 0) {
+    crc = esp_rom_crc32_le(crc, buffer, n);
+  }
+  file.close();
+  return crc;
+}
+
+// 把压缩的临时文件解压到path，失败时删除不完整的输出
+// tinfl以32KB环形缓冲区作为解压窗口，只在解压期间分配；解压输出直接写入LittleFS
+static bool inflateUpload(const char* path, uint32_t rawSize) {
+  File in = LittleFS.open(UPLOAD_PART_FILE, "r");
+  File out = LittleFS.open(path, "w");
+  tinfl_decompressor* decomp = (tinfl_decompressor*)malloc(sizeof(tinfl_decompressor));
+  uint8_t* dict = (uint8_t*)malloc(TINFL_LZ_DICT_SIZE);
+  uint8_t inBuffer[512];
+  size_t inAvail = 0;
+  size_t inPos = 0;
+  size_t dictOfs = 0;
+  uint32_t written = 0;
+  tinfl_status status = TINFL_STATUS_FAILED;
+  bool ok = in && out && decomp && dict;
+  
+  if (ok) {
+    tinfl_init(decomp);
+    while (true) {
+      if (inAvail == 0 && in.available()) {
+        inAvail = in.read(inBuffer, sizeof(inBuffer));
+        inPos = 0;
+      }
+      
+      size_t inBytes = inAvail;
+      size_t outBytes = TINFL_LZ_DICT_SIZE - dictOfs;
+      uint32_t flags = in.available() ? TINFL_FLAG_HAS_MORE_INPUT : 0;
+      status = tinfl_decompress(decomp, &inBuffer[inPos], &inBytes, dict, &dict[dictOfs], &outBytes, flags);
+      inPos += inBytes;
+      inAvail -= inBytes;
+      
+      if (outBytes > 0) {
+        written += outBytes;
+        if (written > rawSize || out.write(&dict[dictOfs], outBytes) != outBytes) {
+          ok = false;
+          break;
+        }
+        dictOfs = (dictOfs + outBytes) & (TINFL_LZ_DICT_SIZE - 1);
+      }
+      
+      // 完成或出错（错误状态均小于0）
+      if (status <= TINFL_STATUS_DONE) break;
+    }
+  } else {
+    Serial.println("解压初始化失败，内存或文件不可用");
+  }
+  
+  free(dict);
+  free(decomp);
+  if (in) in.close();
+  if (out) out.close();
+  
+  ok = ok && status == TINFL_STATUS_DONE && written == rawSize;
+  if (!ok) {
+    Serial.printf("解压失败: 状态=%d, 输出 %u / %u 字节\n", status, written, rawSize);
+    LittleFS.remove(path);
+  }
+  return ok;
+}
+
+// 缺失区间超过MAX_NACK_RANGES时只返回前面的部分，APP补传后再次结束传输即可拿到其余区间
+// 负载: [区间数(1字节), {偏移量(4字节), 长度(4字节)}*n]
+static bool sendMissingRanges() {
+  uint8_t payload[1 + MAX_NACK_RANGES * 8];
+  uint8_t count = 0;
+  
+  for (int i = 0; i < transferGapCount && count < MAX_NACK_RANGES; i++) {
+    uint32_t length = transferGaps[i].end - transferGaps[i].start;
+    *((uint32_t*)&payload[1 + count * 8]) = transferGaps[i].start;
+    *((uint32_t*)&payload[1 + count * 8 + 4]) = length;
+    count++;
+  }
+  // 结尾缺失（最后几帧丢失）
+  if (expectedSize > nextExpected && count < MAX_NACK_RANGES) {
+    *((uint32_t*)&payload[1 + count * 8]) = nextExpected;
+    *((uint32_t*)&payload[1 + count * 8 + 4]) = expectedSize - nextExpected;
+    count++;
+  }
+  
+  if (count == 0) {
+    return false;
+  }
+  
+  payload[0] = count;
+  Serial.printf("数据不完整，请求重传 %d 个区间\n", count);
+  sendResponse(CMD_END_TRANSFER, RESP_INCOMPLETE, payload, 1 + count * 8);
+  return true;
+}
+
+// 发送接受传输的响应
+// 负载: [接受的标志位(1字节), 信用窗口(2字节), 已提交字节数(4字节)]
+static void sendTransferAccepted(uint8_t cmdId) {
+  uint8_t payload[7];
+  payload[0] = (streamMode ? TRANSFER_FLAG_STREAM : 0) | (seqMode ? TRANSFER_FLAG_SEQ : 0) |
+               (expectedRawSize > 0 ? TRANSFER_FLAG_DEFLATE : 0);
+  *((uint16_t*)&payload[1]) = STREAM_WINDOW_BYTES;
+  *((uint32_t*)&payload[3]) = totalBytesReceived;
+  sendResponse(cmdId, RESP_SUCCESS, payload, 7);
+}
+
+// 开始图片传输
+void startImageTransfer(uint8_t fileIndex, uint8_t flags, uint32_t totalSize, uint32_t crc32, uint32_t rawSize) {
+  setTransferTarget(fileIndex, totalSize);
+  // 压缩传输需要知道大小和CRC才能在解压前确认数据完整
+  expectedRawSize = ((flags & TRANSFER_FLAG_DEFLATE) && totalSize > 0) ? rawSize : 0;
   
   Serial.printf("开始接收图片: %s (格式: 0x%02X, 索引: %d)\n", 
-                currentImageName.c_str(), format, index);
+                currentImageName.c_str(), currentFileFormat, getFileIndexFromIndex(fileIndex));
   
   // 如果有正在传输的文件，先关闭
   if (currentImageFile) {
     currentImageFile.close();
   }
   
-  // 创建新文件
-  currentImageFile = LittleFS.open(currentImageName, "w");
+  // 数据先写入临时文件，结束传输时再替换目标文件，中途断开不会破坏原有图片
+  currentImageFile = LittleFS.open(UPLOAD_PART_FILE, "w");
   if (!currentImageFile) {
     Serial.println("创建文件失败");
     sendResponse(CMD_START_TRANSFER, RESP_FS_ERROR);
     isTransferring = false;
     return;
   }
+  saveUploadMeta(fileIndex, totalSize, crc32, expectedRawSize);
   
   isTransferring = true;
   totalBytesReceived = 0;
+  streamMode = (flags & TRANSFER_FLAG_STREAM) != 0;
+  seqMode = (flags & TRANSFER_FLAG_SEQ) != 0 && totalSize > 0; // 需要知道文件大小才能判断结尾缺失
+  expectedCrc = crc32;
+  lastAckedBytes = 0;
+  resetTransferGaps(0);
   
-  // 发送成功响应
-  sendResponse(CMD_START_TRANSFER, RESP_SUCCESS);
+  sendTransferAccepted(CMD_START_TRANSFER);
   
   Serial.println("文件已创建，等待数据...");
 }
 
+// 续传：校验会话与设备记录一致后，从临时文件末尾继续接收
+void resumeImageTransfer(uint8_t fileIndex, uint8_t flags, uint32_t totalSize, uint32_t crc32, uint32_t rawSize) {
+  uint8_t metaIndex;
+  uint32_t metaSize;
+  uint32_t metaCrc;
+  uint32_t metaRawSize;
+  if (!(flags & TRANSFER_FLAG_DEFLATE)) {
+    rawSize = 0;
+  }
+  
+  if (totalSize == 0 || !loadUploadMeta(&metaIndex, &metaSize, &metaCrc, &metaRawSize) ||
+      metaIndex != fileIndex || metaSize != totalSize || metaCrc != crc32 || metaRawSize != rawSize) {
+    Serial.println("没有匹配的未完成传输，需要重新开始");
+    sendResponse(CMD_RESUME_TRANSFER, RESP_PARAM_ERROR);
+    return;
+  }
+  
+  // 断线前的接收进度仍在内存中时，已提交的数据截止到第一个缺失区间
+  uint32_t firstGap = UINT32_MAX;
+  if (isTransferring && seqMode && transferGapCount > 0) {
+    firstGap = transferGaps[0].start;
+  }
+  
+  // 断开前的文件可能仍处于打开状态，关闭后重新打开确保已写入的数据落盘
+  // 使用"r+"而不是"a"，序号模式需要按偏移量写入
+  if (currentImageFile) {
+    currentImageFile.close();
+  }
+  currentImageFile = LittleFS.open(UPLOAD_PART_FILE, "r+");
+  if (!currentImageFile) {
+    Serial.println("打开临时文件失败");
+    sendResponse(CMD_RESUME_TRANSFER, RESP_FS_ERROR);
+    isTransferring = false;
+    return;
+  }
+  
+  size_t committed = min((uint32_t)currentImageFile.size(), firstGap);
+  if (committed > totalSize) {
+    Serial.println("临时文件大于声明的大小，丢弃");
+    discardUpload();
+    sendResponse(CMD_RESUME_TRANSFER, RESP_PARAM_ERROR);
+    isTransferring = false;
+    return;
+  }
+  
+  setTransferTarget(fileIndex, totalSize);
+  expectedRawSize = rawSize;
+  isTransferring = true;
+  totalBytesReceived = committed;
+  streamMode = (flags & TRANSFER_FLAG_STREAM) != 0;
+  seqMode = (flags & TRANSFER_FLAG_SEQ) != 0;
+  expectedCrc = crc32;
+  lastAckedBytes = committed;
+  resetTransferGaps(committed);
+  currentImageFile.seek(committed);
+  
+  Serial.printf("续传 %s，已提交 %d / %u 字节\n", currentImageName.c_str(), committed, totalSize);
+  sendTransferAccepted(CMD_RESUME_TRANSFER);
+}
+
 // 处理图片数据
 void processImageData(uint8_t* data, size_t length) {
   if (!isTransferring || !currentImageFile) return;
   
-  // 写入文件
-  if (currentImageFile.write(data, length) != length) {
-    Serial.println("写入文件失败");
-    return;
+  if (seqMode) {
+    processDataFrame(data, length);
+    // 信用按APP发送的数据量计算，校验失败的帧同样占用窗口
+    totalBytesReceived += length > DATA_FRAME_HEADER_SIZE ? length - DATA_FRAME_HEADER_SIZE : 0;
+  } else {
+    // 写入文件
+    if (currentImageFile.write(data, length) != length) {
+      Serial.println("写入文件失败");
+      return;
+    }
+    totalBytesReceived += length;
   }
   
-  totalBytesReceived += length;
+  // 流式模式下定期发送信用确认，APP据此推进发送窗口
+  if (streamMode && totalBytesReceived - lastAckedBytes >= STREAM_ACK_INTERVAL) {
+    sendTransferAck();
+  }
+}
+
+// 发送信用确认: [CMD_IMAGE_DATA, 成功, 4, 已写入字节数(4字节)]
+void sendTransferAck() {
+  uint8_t ack[7];
+  ack[0] = CMD_IMAGE_DATA;
+  ack[1] = RESP_SUCCESS;
+  ack[2] = 4;
+  *((uint32_t*)&ack[3]) = totalBytesReceived;
+  lastAckedBytes = totalBytesReceived;
+  
+  // 在数据写入回调中调用，不做额外延迟
+  sendBleNotification(ack, sizeof(ack));
 }
 
 // 结束图片传输
@@ -301,16 +658,41 @@ void finishImageTransfer() {
     return;
   }
   
+  // 序号模式下先检查缺失区间，有缺失时保持传输状态等待APP补传
+  if (seqMode && sendMissingRanges()) {
+    return;
+  }
+  
   // 关闭文件
   currentImageFile.flush();
   size_t fileSize = currentImageFile.size();
   currentImageFile.close();
   isTransferring = false;
+  streamMode = false;
+  seqMode = false;
   
   Serial.printf("文件接收完成，大小: %d 字节\n", fileSize);
   
+  if (expectedSize > 0 && fileSize != expectedSize) {
+    Serial.printf("文件大小不匹配，应为 %u 字节，删除中...\n", expectedSize);
+    discardUpload();
+    sendResponse(CMD_END_TRANSFER, RESP_TRANSFER_ERROR);
+    return;
+  }
+  
+  // 整个文件CRC32校验（旧版APP不提供CRC，跳过）
+  if (expectedSize > 0) {
+    uint32_t actualCrc = crc32OfFile(UPLOAD_PART_FILE);
+    if (actualCrc != expectedCrc) {
+      Serial.printf("CRC32校验失败: 应为 %08X，实际 %08X\n", expectedCrc, actualCrc);
+      discardUpload();
+      sendResponse(CMD_END_TRANSFER, RESP_CRC_ERROR);
+      return;
+    }
+  }
+  
   // 验证文件
-  File verifyFile = LittleFS.open(currentImageName, "r");
+  File verifyFile = LittleFS.open(UPLOAD_PART_FILE, "r");
   size_t verifiedSize = 0;
   if (verifyFile) {
     verifiedSize = verifyFile.size();
@@ -323,13 +705,44 @@ void finishImageTransfer() {
     minSize = 50; // GIF可以很小
   }
   
-  if (verifiedSize < minSize) {
+  // 压缩传输按解压后的大小判断
+  if ((expectedRawSize > 0 ? expectedRawSize : verifiedSize) < minSize) {
     Serial.println("文件太小，可能不完整，删除中...");
-    LittleFS.remove(currentImageName);
+    discardUpload();
     sendResponse(CMD_END_TRANSFER, RESP_TRANSFER_ERROR);
     return;
   }
   
+  // 压缩数据已通过CRC校验，先解压到单独的临时文件，解压失败时目标位置原有的图片保持不变
+  const char* completedFile = UPLOAD_PART_FILE;
+  if (expectedRawSize > 0) {
+    if (!inflateUpload(UPLOAD_INFLATE_FILE, expectedRawSize)) {
+      discardUpload();
+      sendResponse(CMD_END_TRANSFER, RESP_TRANSFER_ERROR);
+      return;
+    }
+    Serial.printf("解压完成: %d -> %u 字节\n", fileSize, expectedRawSize);
+    fileSize = expectedRawSize;
+    LittleFS.remove(UPLOAD_PART_FILE);
+    completedFile = UPLOAD_INFLATE_FILE;
+  }
+  
+  // 用完整的临时文件替换目标文件，目标文件正在播放时先关闭
+  if (gifpackActive && getImageFilename(currentImage) == currentImageName) {
+    closeAllFiles();
+  }
+  if (!LittleFS.rename(completedFile, currentImageName)) {
+    // 部分文件系统不能覆盖已存在的文件，删除后重试
+    LittleFS.remove(currentImageName);
+    if (!LittleFS.rename(completedFile, currentImageName)) {
+      Serial.println("重命名临时文件失败");
+      discardUpload();
+      sendResponse(CMD_END_TRANSFER, RESP_FS_ERROR);
+      return;
+    }
+  }
+  LittleFS.remove(UPLOAD_META_FILE);
+  
   // 提取文件索引
   uint8_t fileIndex = 0;
   int startPos = currentImageName.lastIndexOf("_") + 1;
@@ -495,8 +908,9 @@ void sendImageList() {
 
 // 发送设备状态
 void sendDeviceStatus() {
-  // 负载格式: [开机时长(4字节), 存储使用量(4字节), 当前显示索引(1字节)]
-  uint8_t response[9];
+  // 负载格式: [开机时长(4字节), 存储使用量(4字节), 当前显示索引(1字节), 存储总量(4字节), 功能标志(1字节)]
+  // 存储总量和功能标志追加在末尾，旧版APP只读取前9字节
+  uint8_t response[14];
   
   // 开机时间（秒）
   uint32_t uptime = millis() / 1000;
@@ -513,8 +927,15 @@ void sendDeviceStatus() {
       imageList[currentImage].format, imageList[currentImage].fileIndex);
   }
   response[8] = currentCombinedIndex;
+
+  // 存储总量（字节），APP据此计算剩余空间和上传大小预算
+  uint32_t totalSpace = LittleFS.totalBytes();
+  memcpy(&response[9], &totalSpace, 4);
+
+  // 支持的文件格式，APP据此决定生成v2 GifPack和原始RGB565图片
+  response[13] = DEVICE_FEATURE_GIFPACK_V2 | DEVICE_FEATURE_IBIN;
   
-  sendResponse(CMD_GET_STATUS, RESP_SUCCESS, response, 9);
+  sendResponse(CMD_GET_STATUS, RESP_SUCCESS, response, 14);
 }
 
 // 获取图片文件名
@@ -35,6 +35,9 @@
 
 // 全局常量
 #define MAX_IMAGES 10
+#define UPLOAD_PART_FILE "/upload.part" // 传输中的临时文件，完成后重命名为目标文件
+#define UPLOAD_INFLATE_FILE "/upload.inf" // 压缩传输的解压输出，解压成功后重命名为目标文件
+#define UPLOAD_META_FILE "/upload.meta" // 续传会话信息: [组合索引(1字节), 总大小(4字节), CRC32(4字节), 解压后大小(4字节)]
 
 // 图片信息结构
 struct ImageInfo {
@@ -58,7 +61,9 @@ void setupFileSystem();
 void updateImageList();
 void loadImageOrder();
 void saveImageOrder();
-void startImageTransfer(uint8_t fileIndex);
+void startImageTransfer(uint8_t fileIndex, uint8_t flags, uint32_t totalSize, uint32_t crc32, uint32_t rawSize);
+void resumeImageTransfer(uint8_t fileIndex, uint8_t flags, uint32_t totalSize, uint32_t crc32, uint32_t rawSize);
+void sendTransferAck();
 void processImageData(uint8_t* data, size_t length);
 void finishImageTransfer();
 void deleteImage(uint8_t fileIndex);